@@ -1,10 +1,16 @@
 package jp.kitabatakep.intellij.plugins.codereadingnote;
 
 import com.intellij.ide.bookmark.Bookmark;
+import com.intellij.notification.Notification;
+import com.intellij.notification.NotificationType;
+import com.intellij.notification.Notifications;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
@@ -13,12 +19,18 @@ import com.intellij.openapi.vfs.newvfs.events.*;
 import com.intellij.util.Alarm;
 import com.intellij.util.messages.MessageBus;
 import com.intellij.util.messages.MessageBusConnection;
+import jp.kitabatakep.intellij.plugins.codereadingnote.operations.FileChangeRemapService;
+import jp.kitabatakep.intellij.plugins.codereadingnote.operations.LineRelocationService;
 import jp.kitabatakep.intellij.plugins.codereadingnote.remark.*;
+import jp.kitabatakep.intellij.plugins.codereadingnote.search.NoteSearchIndex;
+import jp.kitabatakep.intellij.plugins.codereadingnote.settings.StorageSettings;
 import jp.kitabatakep.intellij.plugins.codereadingnote.sync.AutoSyncScheduler;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import org.jdom.Element;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -38,7 +50,19 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
     
     Project project;
     TopicList topicList;
+    private final TopicLineFileIndex fileIndex;
+    // Inverted index over notes for SearchService, built on first search
+    private final NoteSearchIndex searchIndex;
     private final Alarm remarkRefreshAlarm;
+    // Per-topic persisted fragments, only changed topics are re-serialized by getState()
+    private final TopicStateCache stateCache = new TopicStateCache();
+    // Merkle hash of the same data, for sync change detection
+    private final NoteContentHash contentHash = new NoteContentHash();
+    // One file per topic when StorageSettings.shardedStorage is on
+    private final ShardedTopicStorage shardedStorage;
+    // The <topics> element or shard marker loadState could not read, written back unchanged
+    // by getState so a failed load never replaces the stored notes with an empty list
+    private Element unreadTopics;
 
     String lastExportDir = "";
     String lastImportDir = "";
@@ -124,6 +148,9 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
     {
         this.project = project;
         topicList = new TopicList(project);
+        fileIndex = new TopicLineFileIndex(project);
+        shardedStorage = new ShardedTopicStorage(project);
+        searchIndex = new NoteSearchIndex();
         remarkRefreshAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, project);
         starConfit(project);
         addMyListener(project);
@@ -144,17 +171,38 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
             @Override
             public void after(@NotNull List<? extends VFileEvent> events) {
                 boolean needsRefresh = false;
-                
+                boolean moved = false;
+                List<VirtualFile> changedFiles = null;
+
                 for (VFileEvent event : events) {
+                    // Renamed or moved inside the IDE: notes follow the file to its new path
+                    if (event instanceof VFileMoveEvent) {
+                        VFileMoveEvent move = (VFileMoveEvent) event;
+                        moved |= !fileIndex.fileMoved(move.getOldPath(), move.getFile()).isEmpty();
+                    } else if (event instanceof VFilePropertyChangeEvent && ((VFilePropertyChangeEvent) event).isRename()) {
+                        VFilePropertyChangeEvent rename = (VFilePropertyChangeEvent) event;
+                        moved |= !fileIndex.fileMoved(rename.getOldPath(), rename.getFile()).isEmpty();
+                    }
+                    // Files rewritten on disk: notes are remapped by diff in the background
+                    if (event instanceof VFileContentChangeEvent) {
+                        VirtualFile file = ((VFileContentChangeEvent) event).getFile();
+                        if (fileIndex.hasLines(file)) {
+                            if (changedFiles == null) changedFiles = new ArrayList<>();
+                            changedFiles.add(file);
+                        }
+                        continue;
+                    }
                     // Check for file creation, copy, move, or property change (like VFS refresh)
                     if (event instanceof VFileCreateEvent ||
                         event instanceof VFileCopyEvent ||
                         event instanceof VFileMoveEvent ||
                         event instanceof VFilePropertyChangeEvent) {
                         needsRefresh = true;
-                        break;
                     }
                 }
+                if (changedFiles != null) {
+                    FileChangeRemapService.getInstance(project).contentChanged(changedFiles);
+                }
                 
                 if (needsRefresh) {
                     // Refresh all TopicLines and notify UI if any were refreshed
@@ -162,13 +210,45 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
                     if (refreshed > 0) {
                         LOG.info("Refreshed " + refreshed + " TopicLine file references after VFS change");
                         // Notify UI to refresh
-                        notifyTopicsNeedRefresh();
+                        moved = true;
                     }
                 }
+                if (moved) {
+                    notifyTopicsNeedRefresh();
+                }
             }
         });
     }
     
+    /**
+     * Fingerprint a note from its file's document if that document is already in memory;
+     * otherwise it is captured the next time the file is opened.
+     */
+    private void captureFingerprintIfLoaded(@NotNull TopicLine topicLine) {
+        if (topicLine.hasFingerprint() || topicLine.file() == null || !topicLine.file().isValid()) {
+            return;
+        }
+        Document document = FileDocumentManager.getInstance().getCachedDocument(topicLine.file());
+        if (document != null) {
+            LineRelocationService.getInstance(project)
+                .captureFingerprints(document.getImmutableCharSequence(), Collections.singletonList(topicLine));
+        }
+    }
+
+    /**
+     * 文件的最后一条笔记被删除后，丢弃为它记住的行哈希（FileChangeRemapService）
+     */
+    private void forgetFileContentIfUnannotated(@NotNull TopicLine topicLine) {
+        FileChangeRemapService remapService = project.getServiceIfCreated(FileChangeRemapService.class);
+        if (remapService == null) {
+            return;
+        }
+        VirtualFile file = topicLine.file();
+        if (file != null && !fileIndex.hasLines(file)) {
+            remapService.forgetContent(file);
+        }
+    }
+
     /**
      * Notify UI that topics need to be refreshed (e.g., after file references are updated)
      */
@@ -196,6 +276,13 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
         messageBus.connect().subscribe(TopicNotifier.TOPIC_NOTIFIER_TOPIC, new TopicNotifier() {
             @Override
             public void lineRemoved(Topic _topic, TopicLine _topicLine) {
+                    topicStateChanged(_topic);
+                    contentHash.invalidateLine(_topicLine);
+                    fileIndex.remove(_topicLine);
+                    forgetFileContentIfUnannotated(_topicLine);
+                    searchIndex.remove(_topicLine);
+                    topicList.unindexLineUid(_topicLine);
+                    _topicLine.detachLineMarker();
                     EditorUtils.removeLineCodeRemark(project, _topicLine);
                     topicList.moveToTrash(_topicLine, _topic.name());
                     onDataModified();
@@ -203,6 +290,10 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
 
             @Override
             public void lineAdded(Topic _topic, TopicLine _topicLine) {
+                    topicStateChanged(_topic);
+                    fileIndex.add(_topicLine);
+                    searchIndex.update(_topicLine);
+                    captureFingerprintIfLoaded(_topicLine);
                     // 统一处理数据修改
                     onDataModified();
                     // Check if TopicLine already has a UUID
@@ -228,12 +319,16 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
                         }
                         // Don't overwrite UUID - it's already set correctly
                     }
+                    topicList.indexLineUid(_topicLine);
                     EditorUtils.addLineCodeRemark(project, _topicLine);
                     // Auto-sync is now triggered from getState(), not here
             }
             
             @Override
             public void lineNoteChanged(Topic topic, TopicLine topicLine) {
+                lineStateChanged(topicLine);
+                topicLine.invalidateSearchText();
+                searchIndex.update(topicLine);
                 remarkRefreshAlarm.cancelAllRequests();
                 remarkRefreshAlarm.addRequest(() -> {
                     if (project.isDisposed()) return;
@@ -245,35 +340,55 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
             
             @Override
             public void lineUpdated(Topic topic, TopicLine topicLine, int oldLineNum, int newLineNum) {
+                // Index is keyed by file only, a line number change keeps the entry where it is
+                fileIndex.add(topicLine);
+                lineStateChanged(topicLine);
+                onDataModified();
+            }
+            
+            @Override
+            public void linesUpdated(Collection<TopicLine> topicLines) {
+                for (TopicLine topicLine : topicLines) {
+                    lineStateChanged(topicLine);
+                }
                 onDataModified();
             }
             
             @Override
             public void groupAdded(Topic topic, TopicGroup group) {
+                topicStateChanged(topic);
+                searchIndex.structureChanged();
                 // 统一处理数据修改
                 onDataModified();
             }
             
             @Override
             public void groupRemoved(Topic topic, TopicGroup group) {
+                topicStateChanged(topic);
+                searchIndex.structureChanged();
                 // 统一处理数据修改
                 onDataModified();
             }
             
             @Override
             public void groupRenamed(Topic topic, TopicGroup group) {
+                topicStateChanged(topic);
                 // 统一处理数据修改
                 onDataModified();
             }
             
             @Override
             public void linesReordered(Topic topic) {
+                topicStateChanged(topic);
+                searchIndex.structureChanged();
                 // TopicLine 顺序变化
                 onDataModified();
             }
             
             @Override
             public void groupsReordered(Topic topic) {
+                topicStateChanged(topic);
+                searchIndex.structureChanged();
                 // TopicGroup 顺序变化
                 onDataModified();
             }
@@ -283,32 +398,57 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
         messageBus.connect().subscribe(TopicListNotifier.TOPIC_LIST_NOTIFIER_TOPIC, new TopicListNotifier() {
             @Override
             public void topicAdded(Topic topic) {
+                fileIndex.addTopic(topic);
+                searchIndex.addTopic(topic);
+                topicList.indexTopicUids(topic);
                 // 统一处理数据修改
                 onDataModified();
             }
             
             @Override
             public void topicRemoved(Topic topic) {
+                topicStateChanged(topic);
+                fileIndex.removeTopic(topic);
+                for (TopicLine line : topic.linesView()) {
+                    forgetFileContentIfUnannotated(line);
+                }
+                searchIndex.removeTopic(topic);
+                topicList.unindexTopicUids(topic);
                 // 统一处理数据修改
                 onDataModified();
             }
             
             @Override
             public void topicsLoaded() {
+                // Topic list may have been replaced wholesale (import, pull), re-index it
+                allStateChanged();
+                fileIndex.rebuild(topicList.iterator());
+                searchIndex.invalidate();
+                topicList.rebuildUidIndex();
+                topicList.rebuildNameIndex();
+                warmUpFiles();
                 // Data loading should not trigger auto-sync
             }
             
             @Override
             public void topicUpdated(Topic topic) {
+                topicStateChanged(topic);
                 // Topic 名称或备注修改
                 onDataModified();
             }
             
             @Override
             public void topicsReordered() {
-                // Topic 顺序变化
+                searchIndex.structureChanged();
+                // Topic 顺序变化，片段不变，getState 按当前顺序拼接
                 onDataModified();
             }
+
+            @Override
+            public void trashChanged() {
+                stateCache.invalidateTrash();
+                contentHash.invalidateTrash();
+            }
         });
     }
     
@@ -333,18 +473,45 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
     public Element getState()
     {
         Element container = new Element(AppConstants.appName);
-        container.addContent(TopicListExporter.export(getTopicList().iterator(), getTopicList().getTrashedLines()));
+        if (unreadTopics != null) {
+            container.addContent(unreadTopics.clone());
+        } else if (!saveShards(container)) {
+            container.addContent(stateCache.export(getTopicList().iterator(), getTopicList().getTrashedLines()));
+        }
         Element state = new Element("state");
         state.setAttribute("lastExportDir", lastExportDir());
         state.setAttribute("lastImportDir", lastImportDir());
         container.addContent(state);
 
         // Trigger auto-sync when state is saved (only if not paused and not calculating)
-        triggerAutoSyncOnStateSave();
+        // 读取失败时列表是空的，不能同步出去
+        if (unreadTopics == null) {
+            triggerAutoSyncOnStateSave();
+        }
         
         return container;
     }
     
+    /**
+     * Write the topics to their shard files and leave only a marker in the project file.
+     * Switching the setting migrates on the next save, in either direction.
+     * @return false to keep the topics inline, when sharding is off or the shards can't be written
+     */
+    private boolean saveShards(@NotNull Element container)
+    {
+        if (!StorageSettings.getInstance().isShardedStorage()) {
+            return false;
+        }
+        try {
+            shardedStorage.save(stateCache.snapshot(getTopicList().iterator(), getTopicList().getTrashedLines()));
+        } catch (IOException e) {
+            LOG.warn("Cannot write sharded notes, keeping them in the project file", e);
+            return false;
+        }
+        container.addContent(ShardedTopicStorage.marker());
+        return true;
+    }
+
     /**
      * Get state without triggering auto-sync (for internal use like MD5 calculation)
      */
@@ -390,13 +557,42 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
     @Override
     public void loadState(@NotNull Element element)
     {
-        try {
-            topicList.setTopics(TopicListImporter.importElement(project, element.getChild("topics")));
-        } catch (TopicListImporter.FormatException e) {
-            topicList.setTopics(new ArrayList<>());
+        unreadTopics = null;
+        Element marker = element.getChild(ShardedTopicStorage.MARKER);
+        if (marker != null) {
+            // Every topic is read up front: the file index and editor decorations need all lines
+            try {
+                ShardedTopicStorage.Loaded loaded = shardedStorage.load();
+                topicList.setTopics(loaded.topics);
+                topicList.setTrashedLines(loaded.trashedLines);
+            } catch (IOException e) {
+                LOG.warn("Cannot read sharded notes, changes made in this session will not be saved", e);
+                unreadTopics = marker.clone();
+                notifyUnreadNotes(String.valueOf(shardedStorage.directory()), e.getMessage());
+                topicList.setTopics(new ArrayList<>());
+                topicList.setTrashedLines(new ArrayList<>());
+            }
+        } else {
+            Element topicsElement = element.getChild("topics");
+            try {
+                topicList.setTopics(TopicListImporter.importElement(project, topicsElement));
+                topicList.setTrashedLines(TopicListImporter.importTrashedLines(project, topicsElement));
+            } catch (TopicListImporter.FormatException e) {
+                LOG.warn("Cannot read notes, changes made in this session will not be saved", e);
+                if (topicsElement != null) {
+                    unreadTopics = topicsElement.clone();
+                }
+                notifyUnreadNotes(AppConstants.appName + ".xml", e.getMessage());
+                topicList.setTopics(new ArrayList<>());
+                topicList.setTrashedLines(new ArrayList<>());
+            }
         }
-
-        topicList.setTrashedLines(TopicListImporter.importTrashedLines(project, element.getChild("topics")));
+        // Age out entries trashed since the last session; archived ones leave the state
+        topicList.compactTrash();
+        fileIndex.rebuild(topicList.iterator());
+        searchIndex.invalidate();
+        allStateChanged();
+        warmUpFiles();
 
         Element stateElement = element.getChild("state");
         if (stateElement != null) {
@@ -408,6 +604,57 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
         }
     }
 
+    /**
+     * 笔记读取失败时，本次会话保留原数据不写回，编辑都不会保存，必须告诉用户
+     */
+    private void notifyUnreadNotes(@NotNull String location, @Nullable String reason)
+    {
+        Notifications.Bus.notify(
+            new Notification(
+                "Code Reading Note",
+                CodeReadingNoteBundle.message("notification.notes.unreadable.title"),
+                CodeReadingNoteBundle.message("notification.notes.unreadable.message", location, String.valueOf(reason)),
+                NotificationType.ERROR
+            ),
+            project
+        );
+    }
+
+    /**
+     * Imported notes resolve their VirtualFile lazily; look the rest up on a pooled thread so
+     * project open doesn't pay one VFS lookup per note and first use rarely has to.
+     */
+    private void warmUpFiles() {
+        List<TopicLine> unresolved = new ArrayList<>();
+        List<TopicLine> loaded = new ArrayList<>();
+        Iterator<Topic> topics = topicList.iterator();
+        while (topics.hasNext()) {
+            topics.next().forEachLine(line -> {
+                loaded.add(line);
+                if (!line.isFileResolved()) unresolved.add(line);
+            });
+        }
+        // Line hashes of the annotated files as loaded, so a checkout before they are opened is remapped by diff
+        FileChangeRemapService.getInstance(project).rememberLoadedContent(loaded);
+        for (TrashedLine trashedLine : topicList.getTrashedLines()) {
+            if (!trashedLine.getLine().isFileResolved()) unresolved.add(trashedLine.getLine());
+        }
+        if (unresolved.isEmpty()) return;
+
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            for (TopicLine line : unresolved) {
+                if (project.isDisposed()) return;
+                line.resolveFile();
+            }
+            LOG.debug("Resolved files of " + unresolved.size() + " notes in background");
+        });
+    }
+
+    public NoteSearchIndex getSearchIndex()
+    {
+        return searchIndex;
+    }
+
     public TopicList getTopicList()
     {
         return this.topicList;
@@ -420,7 +667,7 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
     public void setLastImportDir(String lastImportDir) { this.lastImportDir = lastImportDir; }
     public List<CodeRemark> list(Project project, @NotNull VirtualFile file) {
         Stream<CodeRemark> sorted = topicList.getTopics().stream()
-            .flatMap(topic -> topic.getLines().stream())
+            .flatMap(topic -> topic.linesView().stream())
             .filter(topicLine -> topicLine.file() != null)  // 过滤掉file为null的TopicLine
             .map(topicLine -> {
                 CodeRemark codeRemark = new CodeRemark();
@@ -437,11 +684,88 @@ public class CodeReadingNoteService implements PersistentStateComponent<Element>
         return sorted.filter(stateFilter).sorted(this.stateComparator()).collect(Collectors.toList());
     }
 
+    /**
+     * TopicLines annotating the given file, served from the per-file index.
+     * The returned list is a read-only live view; copy it before mutating topics while iterating.
+     */
     public List<TopicLine> listSource(Project project, @NotNull VirtualFile file) {
-        return topicList.getTopics().stream()
-            .flatMap(topic -> topic.getLines().stream())
-            .filter(topicLine -> topicLine.file() != null && topicLine.file().equals(file))
-            .collect(Collectors.toList());
+        return fileIndex.linesOf(file);
+    }
+
+    /**
+     * Cheap check used by hot paths (document changes, editor opening) to skip files without notes.
+     */
+    public boolean hasNotes(@NotNull VirtualFile file) {
+        return fileIndex.hasLines(file);
+    }
+
+    /**
+     * The note anchored at the given 0-based line of the file, or null. Hash lookup, used for duplicate checks.
+     */
+    @Nullable
+    public TopicLine findNoteAt(@NotNull VirtualFile file, int line) {
+        return fileIndex.findAt(file, line);
+    }
+
+    /**
+     * An edit of the file's document moved the notes tracked at offsets in [from, to]: drop the
+     * persisted state of just those topics. Notes outside the range kept their line.
+     */
+    public void invalidateNotePositions(@NotNull VirtualFile file, int from, int to) {
+        boolean moved = false;
+        for (TopicLine topicLine : fileIndex.linesOf(file)) {
+            int offset = topicLine.trackedOffset();
+            if (offset >= from && offset <= to) {
+                lineStateChanged(topicLine);
+                moved = true;
+            }
+        }
+        if (moved) {
+            fileIndex.invalidatePositions(file);
+        }
+    }
+
+    /**
+     * Called when a single note was re-anchored to another line (TopicLine.modifyLine).
+     */
+    public void notePositionChanged(@NotNull TopicLine topicLine) {
+        fileIndex.invalidatePositions(topicLine);
+        lineStateChanged(topicLine);
+    }
+
+    /**
+     * Called for topic changes that publish no event (touch, fingerprints, group expansion).
+     */
+    public void topicStateChanged(@Nullable Topic topic) {
+        stateCache.invalidate(topic);
+        contentHash.invalidate(topic);
+    }
+
+    private void lineStateChanged(@NotNull TopicLine topicLine) {
+        stateCache.invalidate(topicLine.topic());
+        contentHash.invalidateLine(topicLine);
+    }
+
+    private void allStateChanged() {
+        stateCache.invalidateAll();
+        contentHash.invalidateAll();
+    }
+
+    /**
+     * Root of the note store's Merkle hash (topics, groups, lines, trash) as hex.
+     * Only topics changed since the previous call are rehashed; O(1) when nothing changed.
+     */
+    @NotNull
+    public String contentHash() {
+        return Long.toHexString(contentHash.root(topicList.iterator(), topicList.getTrashedLines()));
+    }
+
+    /**
+     * Per-topic hashes (topic name -> hash) in list order; comparing two snapshots shows which topics changed.
+     */
+    @NotNull
+    public Map<String, Long> topicContentHashes() {
+        return contentHash.topicHashes(topicList.iterator());
     }
 
     private Predicate<CodeRemark> stateFilter(String fileName, String contentHash, Integer lineNumber) {
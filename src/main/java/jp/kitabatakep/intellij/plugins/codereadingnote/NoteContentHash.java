@@ -0,0 +1,213 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merkle-style hash of the note store: line -> group -> topic -> root, plus the trash bin.
+ * Covers the same data as the persisted XML. Nodes are cached and dropped by the same
+ * invalidation points as TopicStateCache, so after a change only the touched lines and their
+ * topic are rehashed and the root is recombined over the topic hashes; with nothing changed
+ * the root is returned as is. Used by sync to tell whether (and which) local data changed.
+ */
+class NoteContentHash
+{
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Map<TopicLine, Long> lineHashes = new IdentityHashMap<>();
+    private Map<Topic, Long> topicHashes = new IdentityHashMap<>();
+    private long trashHash;
+    private boolean trashValid;
+    private long rootHash;
+    private boolean rootValid;
+
+    synchronized void invalidateLine(@NotNull TopicLine line)
+    {
+        lineHashes.remove(line);
+        invalidateTopicNode(line.topic());
+    }
+
+    /**
+     * A change somewhere in the topic that is not pinned to a line: rehash all of its lines.
+     */
+    synchronized void invalidate(@Nullable Topic topic)
+    {
+        if (topic == null) {
+            rootValid = false;
+            return;
+        }
+        topic.forEachLine(lineHashes::remove);
+        invalidateTopicNode(topic);
+    }
+
+    synchronized void invalidateTrash()
+    {
+        trashValid = false;
+        rootValid = false;
+    }
+
+    synchronized void invalidateAll()
+    {
+        lineHashes.clear();
+        topicHashes.clear();
+        trashValid = false;
+        rootValid = false;
+    }
+
+    synchronized long root(@NotNull Iterator<Topic> topics, @Nullable List<TrashedLine> trashedLines)
+    {
+        if (rootValid) {
+            return rootHash;
+        }
+        long hash = FNV_OFFSET;
+        Map<Topic, Long> live = new IdentityHashMap<>(topicHashes.size() + 1);
+        while (topics.hasNext()) {
+            Topic topic = topics.next();
+            Long topicHash = topicHashes.get(topic);
+            if (topicHash == null) {
+                topicHash = hashTopic(topic);
+            }
+            live.put(topic, topicHash);
+            hash = combine(hash, topicHash);
+        }
+        topicHashes = live;
+        if (!trashValid) {
+            trashHash = hashTrash(trashedLines);
+            trashValid = true;
+        }
+        rootHash = combine(hash, trashHash);
+        rootValid = true;
+        return rootHash;
+    }
+
+    /**
+     * Hash of every topic in list order, computed by the last root() call (topic name -> hash).
+     * Comparing two snapshots tells which topics changed.
+     */
+    @NotNull
+    synchronized Map<String, Long> topicHashes(@NotNull Iterator<Topic> topics)
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        while (topics.hasNext()) {
+            Topic topic = topics.next();
+            Long topicHash = topicHashes.get(topic);
+            if (topicHash == null) {
+                topicHash = hashTopic(topic);
+                topicHashes.put(topic, topicHash);
+            }
+            result.putIfAbsent(topic.name(), topicHash);
+        }
+        return result;
+    }
+
+    private void invalidateTopicNode(@Nullable Topic topic)
+    {
+        if (topic != null) {
+            topicHashes.remove(topic);
+        }
+        rootValid = false;
+    }
+
+    private long hashTopic(@NotNull Topic topic)
+    {
+        long hash = FNV_OFFSET;
+        hash = add(hash, topic.name());
+        hash = add(hash, topic.note());
+        hash = add(hash, topic.updatedAt());
+        if (topic.getGroups().isEmpty()) {
+            hash = addLines(hash, topic.linesIterator());
+            return hash;
+        }
+        for (TopicGroup group : topic.getGroups()) {
+            long groupHash = FNV_OFFSET;
+            groupHash = add(groupHash, group.name());
+            groupHash = add(groupHash, group.note());
+            groupHash = combine(groupHash, group.isExpanded() ? 1 : 0);
+            groupHash = add(groupHash, group.createdAt());
+            groupHash = add(groupHash, group.updatedAt());
+            groupHash = addLines(groupHash, group.linesIterator());
+            hash = combine(hash, groupHash);
+        }
+        // Separates the ungrouped lines from the last group
+        hash = combine(hash, -1);
+        return addLines(hash, topic.getUngroupedLines().iterator());
+    }
+
+    private long addLines(long hash, @NotNull Iterator<TopicLine> lines)
+    {
+        while (lines.hasNext()) {
+            TopicLine line = lines.next();
+            Long lineHash = lineHashes.get(line);
+            if (lineHash == null) {
+                lineHash = hashLine(line);
+                lineHashes.put(line, lineHash);
+            }
+            hash = combine(hash, lineHash);
+        }
+        return hash;
+    }
+
+    private static long hashTrash(@Nullable List<TrashedLine> trashedLines)
+    {
+        long hash = FNV_OFFSET;
+        if (trashedLines == null) {
+            return hash;
+        }
+        for (TrashedLine trashedLine : trashedLines) {
+            hash = add(hash, trashedLine.getOriginalTopicName());
+            hash = add(hash, trashedLine.getTrashedAt());
+            hash = combine(hash, hashLine(trashedLine.getLine()));
+        }
+        return hash;
+    }
+
+    private static long hashLine(@NotNull TopicLine line)
+    {
+        long hash = FNV_OFFSET;
+        hash = combine(hash, line.line());
+        hash = combine(hash, line.inProject() ? 1 : 0);
+        hash = add(hash, line.url());
+        hash = add(hash, line.note());
+        hash = add(hash, line.getBookmarkUid());
+        hash = add(hash, line.inProject() ? line.relativePath() : "");
+        hash = combine(hash, line.anchorHash());
+        return combine(hash, line.contextHash());
+    }
+
+    private static long add(long hash, @Nullable String value)
+    {
+        if (value == null) {
+            return combine(hash, 0);
+        }
+        long h = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= FNV_PRIME;
+        }
+        // Length keeps ("ab", "c") and ("a", "bc") apart
+        return combine(combine(hash, h), value.length() + 1);
+    }
+
+    private static long add(long hash, @Nullable Date value)
+    {
+        // Persisted with second precision
+        return combine(hash, value != null ? value.getTime() / 1000 : 0);
+    }
+
+    private static long combine(long hash, long value)
+    {
+        // splitmix64 finalizer over the running hash, order sensitive
+        long z = (hash ^ value) * FNV_PRIME + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,376 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.JDOMUtil;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Opt-in layout storing each topic in its own file under .idea/codeReadingNote/:
+ * <pre>
+ *   index.xml              topic order, name and line count of every shard, plus the trash file
+ *   topic-&lt;id&gt;.xml       &lt;topics&gt; with a single &lt;topic&gt;, same format as the export
+ *   trash.xml              &lt;topics&gt; with the &lt;trash&gt; bin
+ * </pre>
+ * The project file then only keeps a &lt;sharded/&gt; marker. A save rewrites the shards whose
+ * TopicStateCache fragment changed since the last write and whose bytes differ from the file,
+ * each through a temp file and an atomic move; the index is written after the shards and stale
+ * shards are deleted last, so an interrupted save leaves a readable store behind.
+ * readIndex() lists the topics without parsing them and loadTopic() reads a single one.
+ */
+class ShardedTopicStorage
+{
+    private static final Logger LOG = Logger.getInstance(ShardedTopicStorage.class);
+
+    static final String MARKER = "sharded";
+    private static final int VERSION = 1;
+    private static final String DIRECTORY = "codeReadingNote";
+    private static final String INDEX_FILE = "index.xml";
+    private static final String TRASH_FILE = "trash.xml";
+    private static final String SHARD_PREFIX = "topic-";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Project project;
+
+    // topic -> its shard file, kept across renames
+    private Map<Topic, String> shardFiles = new IdentityHashMap<>();
+    // topic -> cached fragment last written (or found unchanged) on disk
+    private Map<Topic, Element> writtenFragments = new IdentityHashMap<>();
+    private Element writtenTrash;
+    // file name -> digest of its bytes on disk
+    private final Map<String, byte[]> digests = new HashMap<>();
+    // shards that failed to load, kept in the index so they are not lost
+    private final List<IndexEntry> unreadable = new ArrayList<>();
+    // the store on disk could not be read, don't write over it
+    private boolean broken;
+
+    ShardedTopicStorage(@NotNull Project project)
+    {
+        this.project = project;
+    }
+
+    static Element marker()
+    {
+        return new Element(MARKER).setAttribute("version", String.valueOf(VERSION));
+    }
+
+    @Nullable
+    Path directory()
+    {
+        return directory(project);
+    }
+
+    /**
+     * .idea/codeReadingNote/ of the project, also home of the trash archive.
+     */
+    @Nullable
+    static Path directory(@NotNull Project project)
+    {
+        String projectFile = project.getProjectFilePath();
+        if (projectFile != null && !projectFile.endsWith(".ipr")) {
+            // Directory based project, the file lives in .idea
+            Path store = Paths.get(projectFile).getParent();
+            if (store != null) {
+                return store.resolve(DIRECTORY);
+            }
+        }
+        String basePath = project.getBasePath();
+        return basePath != null ? Paths.get(basePath, Project.DIRECTORY_STORE_FOLDER, DIRECTORY) : null;
+    }
+
+    /**
+     * Read every shard listed by the index. A shard that cannot be parsed is logged and skipped.
+     */
+    @NotNull
+    synchronized Loaded load() throws IOException
+    {
+        shardFiles = new IdentityHashMap<>();
+        writtenFragments = new IdentityHashMap<>();
+        writtenTrash = null;
+        digests.clear();
+        unreadable.clear();
+        broken = true;
+
+        ArrayList<Topic> topics = new ArrayList<>();
+        ArrayList<TrashedLine> trashedLines = new ArrayList<>();
+        for (IndexEntry entry : readIndex()) {
+            try {
+                TopicListStreamImporter.Result result = readShard(entry.file);
+                if (entry.trash) {
+                    trashedLines = result.getTrashedLines();
+                } else if (result.getTopics().isEmpty()) {
+                    LOG.warn("Note shard " + entry.file + " holds no topic");
+                    unreadable.add(entry);
+                } else {
+                    Topic topic = result.getTopics().get(0);
+                    topics.add(topic);
+                    shardFiles.put(topic, entry.file);
+                }
+            } catch (IOException | TopicListImporter.FormatException e) {
+                digests.remove(entry.file);
+                if (entry.trash) {
+                    LOG.warn("Cannot read trashed notes from " + entry.file, e);
+                } else {
+                    LOG.warn("Cannot read note shard " + entry.file + ", keeping it on disk", e);
+                    unreadable.add(entry);
+                }
+            }
+        }
+        broken = false;
+        // Same ordering as TopicListImporter, stable for the index order
+        Collections.sort(topics);
+        return new Loaded(topics, trashedLines);
+    }
+
+    /**
+     * The index alone, in topic order, without parsing any topic.
+     */
+    @NotNull
+    synchronized List<IndexEntry> readIndex() throws IOException
+    {
+        Path directory = requireDirectory();
+        Element index;
+        try {
+            index = JDOMUtil.load(directory.resolve(INDEX_FILE));
+        } catch (JDOMException e) {
+            throw new IOException("Malformed note index", e);
+        }
+        List<IndexEntry> entries = new ArrayList<>();
+        for (Element child : index.getChildren()) {
+            String file = child.getAttributeValue("file");
+            if (file == null || file.contains("/") || file.contains("\\")) {
+                continue;
+            }
+            entries.add(new IndexEntry(file, child.getAttributeValue("name"),
+                parseInt(child.getAttributeValue("lines")), "trash".equals(child.getName())));
+        }
+        return entries;
+    }
+
+    /**
+     * Read a single topic listed by the index, for callers paging topics in on demand.
+     */
+    @Nullable
+    synchronized Topic loadTopic(@NotNull IndexEntry entry) throws IOException, TopicListImporter.FormatException
+    {
+        if (entry.trash) {
+            return null;
+        }
+        List<Topic> topics = readShard(entry.file).getTopics();
+        return topics.isEmpty() ? null : topics.get(0);
+    }
+
+    /**
+     * Bring the files up to date with the snapshot: changed shards, then the index, then deletions.
+     */
+    synchronized void save(@NotNull TopicStateCache.Snapshot snapshot) throws IOException
+    {
+        if (broken) {
+            throw new IOException("Sharded notes could not be loaded, not overwriting them");
+        }
+        Path directory = requireDirectory();
+        Files.createDirectories(directory);
+
+        Map<Topic, String> liveFiles = new IdentityHashMap<>(snapshot.topics.size() + 1);
+        Map<Topic, Element> liveFragments = new IdentityHashMap<>(snapshot.topics.size() + 1);
+        Set<String> usedFiles = new HashSet<>();
+        Element index = new Element("codeReadingNoteIndex").setAttribute("version", String.valueOf(VERSION));
+
+        for (int i = 0; i < snapshot.topics.size(); i++) {
+            Topic topic = snapshot.topics.get(i);
+            Element fragment = snapshot.fragments.get(i);
+            String file = shardFiles.get(topic);
+            if (file == null || usedFiles.contains(file)) {
+                file = newShardFile();
+            }
+            if (writtenFragments.get(topic) != fragment) {
+                writeIfChanged(directory, file, wrap(fragment));
+            }
+            liveFiles.put(topic, file);
+            liveFragments.put(topic, fragment);
+            usedFiles.add(file);
+            index.addContent(new Element("shard")
+                .setAttribute("file", file)
+                .setAttribute("name", topic.name())
+                .setAttribute("lines", String.valueOf(topic.getTotalLineCount())));
+        }
+        for (IndexEntry entry : unreadable) {
+            if (usedFiles.add(entry.file)) {
+                index.addContent(new Element("shard")
+                    .setAttribute("file", entry.file)
+                    .setAttribute("name", entry.name != null ? entry.name : "")
+                    .setAttribute("lines", String.valueOf(entry.lineCount)));
+            }
+        }
+
+        if (snapshot.trash != null) {
+            if (writtenTrash != snapshot.trash) {
+                writeIfChanged(directory, TRASH_FILE, wrap(snapshot.trash));
+            }
+            usedFiles.add(TRASH_FILE);
+            index.addContent(new Element("trash")
+                .setAttribute("file", TRASH_FILE)
+                .setAttribute("lines", String.valueOf(snapshot.trash.getChildren().size())));
+        }
+
+        boolean indexChanged = writeIfChanged(directory, INDEX_FILE, index);
+        shardFiles = liveFiles;
+        writtenFragments = liveFragments;
+        writtenTrash = snapshot.trash;
+
+        if (indexChanged) {
+            deleteStaleFiles(directory, usedFiles);
+        }
+    }
+
+    @NotNull
+    private Path requireDirectory() throws IOException
+    {
+        Path directory = directory();
+        if (directory == null) {
+            throw new IOException("Project has no directory for sharded notes");
+        }
+        return directory;
+    }
+
+    private TopicListStreamImporter.Result readShard(String file) throws IOException, TopicListImporter.FormatException
+    {
+        byte[] bytes = Files.readAllBytes(requireDirectory().resolve(file));
+        digests.put(file, digest(bytes));
+        return TopicListStreamImporter.importStream(project, new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * @return whether the file was written
+     */
+    private boolean writeIfChanged(Path directory, String file, Element element) throws IOException
+    {
+        byte[] bytes = JDOMUtil.writeElement(element).getBytes(StandardCharsets.UTF_8);
+        byte[] digest = digest(bytes);
+        if (Arrays.equals(digest, digests.get(file)) && Files.exists(directory.resolve(file))) {
+            return false;
+        }
+        writeAtomically(directory.resolve(file), bytes);
+        digests.put(file, digest);
+        return true;
+    }
+
+    static void writeAtomically(Path target, byte[] bytes) throws IOException
+    {
+        Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+        Files.write(temp, bytes);
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Shards of removed topics, leftovers of an earlier layout and interrupted writes.
+     */
+    private void deleteStaleFiles(Path directory, Set<String> usedFiles)
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SHARD_PREFIX + "*")) {
+            for (Path path : files) {
+                String file = path.getFileName().toString();
+                if (!usedFiles.contains(file)) {
+                    Files.deleteIfExists(path);
+                    digests.remove(file);
+                }
+            }
+            Files.deleteIfExists(directory.resolve(TRASH_FILE + TEMP_SUFFIX));
+            Files.deleteIfExists(directory.resolve(INDEX_FILE + TEMP_SUFFIX));
+            if (!usedFiles.contains(TRASH_FILE) && Files.deleteIfExists(directory.resolve(TRASH_FILE))) {
+                digests.remove(TRASH_FILE);
+            }
+        } catch (IOException e) {
+            LOG.warn("Cannot delete stale note shards in " + directory, e);
+        }
+    }
+
+    private String newShardFile()
+    {
+        String file;
+        do {
+            file = SHARD_PREFIX + UUID.randomUUID().toString().replace("-", "").substring(0, 16) + ".xml";
+        } while (digests.containsKey(file) || shardFiles.containsValue(file));
+        return file;
+    }
+
+    private static Element wrap(Element fragment)
+    {
+        return new Element("topics").addContent(fragment.clone());
+    }
+
+    private static byte[] digest(byte[] bytes)
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(bytes);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int parseInt(@Nullable String value)
+    {
+        try {
+            return value != null ? Integer.parseInt(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static final class IndexEntry
+    {
+        final String file;
+        @Nullable final String name;
+        final int lineCount;
+        final boolean trash;
+
+        IndexEntry(String file, @Nullable String name, int lineCount, boolean trash)
+        {
+            this.file = file;
+            this.name = name;
+            this.lineCount = lineCount;
+            this.trash = trash;
+        }
+    }
+
+    static final class Loaded
+    {
+        final ArrayList<Topic> topics;
+        final ArrayList<TrashedLine> trashedLines;
+
+        Loaded(ArrayList<Topic> topics, ArrayList<TrashedLine> trashedLines)
+        {
+            this.topics = topics;
+            this.trashedLines = trashedLines;
+        }
+    }
+}
@@ -5,10 +5,17 @@ import com.intellij.openapi.project.Project;
 import com.intellij.util.messages.MessageBus;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 
 public class Topic implements Comparable<Topic>
 {
@@ -24,13 +31,28 @@ public class Topic implements Comparable<Topic>
     
     // 分组管理
     private ArrayList<TopicGroup> groups = new ArrayList<>();
+    // name -> first group in list order with that name
+    private final HashMap<String, TopicGroup> groupsByName = new HashMap<>();
     
     // 保持向后兼容：没有分组的TopicLine直接属于Topic
-    private ArrayList<TopicLine> ungroupedLines = new ArrayList<>();
-    
-    // 废弃的字段，保持向后兼容
-    @Deprecated
-    private ArrayList<TopicLine> lines = new ArrayList<>();
+    private TopicLineList ungroupedLines = new TopicLineList();
+
+    private final Collection<TopicLine> linesView = new AbstractCollection<TopicLine>() {
+        @Override
+        public Iterator<TopicLine> iterator() {
+            return new LinesIterator();
+        }
+
+        @Override
+        public int size() {
+            return getTotalLineCount();
+        }
+
+        @Override
+        public void forEach(Consumer<? super TopicLine> action) {
+            forEachLine(action);
+        }
+    };
 
     public Topic(Project project, String name, Date updatedAt) {
         this.project = project;
@@ -51,8 +73,16 @@ public class Topic implements Comparable<Topic>
         return name;
     }
     public void setName(String name) {
+        String oldName = this.name;
         this.name = name;
         touch();
+
+        if (!project.isDisposed()) {
+            CodeReadingNoteService service = project.getServiceIfCreated(CodeReadingNoteService.class);
+            if (service != null) {
+                service.getTopicList().topicRenamed(this, oldName);
+            }
+        }
         
         // 发送通知
         MessageBus messageBus = project.getMessageBus();
@@ -77,9 +107,31 @@ public class Topic implements Comparable<Topic>
 
     public Date updatedAt() { return updatedAt; }
 
+    /**
+     * Put back the persisted timestamp after an import, which touches the topic while rebuilding it.
+     */
+    void restoreUpdatedAt(Date updatedAt)
+    {
+        this.updatedAt = updatedAt;
+    }
+
     public void touch()
     {
         updatedAt = new Date();
+        stateChanged();
+    }
+
+    /**
+     * Drop this topic's cached persisted fragment after a change that publishes no event.
+     */
+    void stateChanged()
+    {
+        if (project != null && !project.isDisposed()) {
+            CodeReadingNoteService service = project.getServiceIfCreated(CodeReadingNoteService.class);
+            if (service != null) {
+                service.topicStateChanged(this);
+            }
+        }
     }
 
     public int getOrder() {
@@ -98,27 +150,20 @@ public class Topic implements Comparable<Topic>
         return Integer.compare(this.order, topic.order);
     }
 
-    public void setLines(ArrayList<TopicLine> lines)
+    public void setLines(List<TopicLine> lines)
     {
         // 为了向后兼容，将传入的lines设置为ungroupedLines
-        this.ungroupedLines = lines;
-        this.lines = lines; // 保持废弃字段同步
+        this.ungroupedLines = new TopicLineList(lines);
         // 清除所有TopicLine的分组引用
-        for (TopicLine line : lines) {
+        for (TopicLine line : ungroupedLines) {
             line.setGroup(null);
         }
     }
 
     public void addLine(TopicLine line)
     {
-        // 默认添加到ungroupedLines（保持历史兼容）
-        if (!ungroupedLines.contains(line)) {
-            ungroupedLines.add(line);
-        }
-
-        if (!lines.contains(line)) {
-            lines.add(line); // 保持废弃字段同步
-        }
+        // 默认添加到ungroupedLines（保持历史兼容），已存在时不重复添加
+        ungroupedLines.add(line);
 
         line.setGroup(null); // 确保没有分组引用
         updatedAt = new Date();
@@ -132,11 +177,12 @@ public class Topic implements Comparable<Topic>
     {
         // 从ungroupedLines中移除
         ungroupedLines.remove(line);
-        lines.remove(line); // 保持废弃字段同步
         
         // 从所有分组中移除
         for (TopicGroup group : groups) {
-            group.removeLine(line);
+            if (group.containsLine(line)) {
+                group.removeLine(line);
+            }
         }
         
         updatedAt = new Date();
@@ -146,11 +192,41 @@ public class Topic implements Comparable<Topic>
         publisher.lineRemoved(this, line);
     }
 
+    /**
+     * Iterates ungrouped lines, then each group's lines, directly over the live lists.
+     */
     public Iterator<TopicLine> linesIterator()
     {
-        return getLines().iterator();
+        return new LinesIterator();
     }
 
+    /**
+     * Read-only view of all lines (ungrouped first, then groups in order) without copying.
+     * Prefer this over getLines() when only reading; do not add/remove lines while iterating.
+     */
+    public Collection<TopicLine> linesView()
+    {
+        return linesView;
+    }
+
+    /**
+     * Visit every line (ungrouped first, then groups in order) without allocating.
+     */
+    public void forEachLine(@NotNull Consumer<? super TopicLine> action)
+    {
+        for (TopicLine line : ungroupedLines) {
+            action.accept(line);
+        }
+        for (TopicGroup group : groups) {
+            for (TopicLine line : group.getLines()) {
+                action.accept(line);
+            }
+        }
+    }
+
+    /**
+     * @return a fresh mutable copy of all lines; use {@link #linesView()} or {@link #forEachLine} to just read
+     */
     public ArrayList<TopicLine> getLines() {
         // 返回所有TopicLine（包括分组和未分组的）
         ArrayList<TopicLine> allLines = new ArrayList<>(ungroupedLines);
@@ -168,12 +244,7 @@ public class Topic implements Comparable<Topic>
             // 注意：事件已在 TopicGroup.changeLineOrder() 中发送
         } else {
             // 在ungroupedLines中调整顺序
-            ungroupedLines.remove(line);
-            ungroupedLines.add(index, line);
-            
-            // 保持废弃字段同步
-            lines.remove(line);
-            lines.add(index, line);
+            ungroupedLines.move(line, index);
             
             touch();
             
@@ -192,18 +263,21 @@ public class Topic implements Comparable<Topic>
     
     public void setGroups(ArrayList<TopicGroup> groups) {
         this.groups = groups;
+        groupsByName.clear();
+        for (TopicGroup group : groups) {
+            groupsByName.putIfAbsent(group.name(), group);
+        }
         touch();
     }
     
-    public ArrayList<TopicLine> getUngroupedLines() {
+    public TopicLineList getUngroupedLines() {
         return ungroupedLines;
     }
     
-    public void setUngroupedLines(ArrayList<TopicLine> ungroupedLines) {
-        this.ungroupedLines = ungroupedLines;
-        this.lines = new ArrayList<>(ungroupedLines); // 保持废弃字段同步
+    public void setUngroupedLines(List<TopicLine> ungroupedLines) {
+        this.ungroupedLines = new TopicLineList(ungroupedLines);
         // 清除所有TopicLine的分组引用
-        for (TopicLine line : ungroupedLines) {
+        for (TopicLine line : this.ungroupedLines) {
             line.setGroup(null);
         }
         touch();
@@ -218,6 +292,7 @@ public class Topic implements Comparable<Topic>
         
         TopicGroup group = new TopicGroup(project, this, groupName, new Date());
         groups.add(group);
+        groupsByName.putIfAbsent(groupName, group);
         touch();
         
         // 发送通知以更新UI
@@ -230,14 +305,13 @@ public class Topic implements Comparable<Topic>
     
     public void removeGroup(TopicGroup group) {
         // 将分组中的所有TopicLine移动到ungroupedLines
-        ArrayList<TopicLine> movedLines = new ArrayList<>(group.getLines());
-        for (TopicLine line : movedLines) {
+        for (TopicLine line : group.getLines()) {
             line.setGroup(null);
-            ungroupedLines.add(line);
-            lines.add(line); // 保持废弃字段同步
         }
+        ungroupedLines.addAll(group.getLines());
         
         groups.remove(group);
+        unindexGroupName(group, group.name());
         touch();
         
         // 发送通知以更新UI
@@ -271,16 +345,50 @@ public class Topic implements Comparable<Topic>
     }
     
     public TopicGroup findGroupByName(String name) {
-        return groups.stream()
-                .filter(group -> group.name().equals(name))
-                .findFirst()
-                .orElse(null);
+        return name != null ? groupsByName.get(name) : null;
+    }
+
+    /**
+     * Add an existing group (e.g. one carried over by a move) to this topic if not already present.
+     */
+    public void attachGroup(@NotNull TopicGroup group) {
+        if (groups.contains(group)) {
+            return;
+        }
+        groups.add(group);
+        groupsByName.putIfAbsent(group.name(), group);
+    }
+
+    /**
+     * Called by TopicGroup.setName so findGroupByName follows renames.
+     */
+    void groupRenamed(@NotNull TopicGroup group, String oldName) {
+        if (oldName != null) {
+            unindexGroupName(group, oldName);
+        }
+        TopicGroup current = groupsByName.get(group.name());
+        // Keep "first in list order" semantics when names collide
+        if (current == null || groups.indexOf(group) < groups.indexOf(current)) {
+            groupsByName.put(group.name(), group);
+        }
+    }
+
+    private void unindexGroupName(@NotNull TopicGroup group, @NotNull String name) {
+        if (groupsByName.get(name) != group) {
+            return;
+        }
+        groupsByName.remove(name);
+        for (TopicGroup g : groups) {
+            if (g != group && name.equals(g.name())) {
+                groupsByName.put(name, g);
+                break;
+            }
+        }
     }
     
     public void moveLineToGroup(TopicLine line, TopicGroup targetGroup) {
         // 从当前位置移除
         ungroupedLines.remove(line);
-        lines.remove(line); // 保持废弃字段同步
         if (line.hasGroup()) {
             line.getGroup().removeLine(line);
         }
@@ -302,9 +410,7 @@ public class Topic implements Comparable<Topic>
         }
         
         // 添加到ungroupedLines
-        if (!ungroupedLines.contains(line)) {
-            ungroupedLines.add(line);
-            lines.add(line); // 保持废弃字段同步
+        if (ungroupedLines.add(line)) {
             line.setGroup(null);
         }
         touch();
@@ -320,7 +426,91 @@ public class Topic implements Comparable<Topic>
         if (group == null) {
             group = addGroup(groupName);
         }
-        moveLineToGroup(line, group);
+        if (containsLine(line)) {
+            moveLineToGroup(line, group);
+            return;
+        }
+
+        // 新建的 TopicLine 直接加入分组：与 addLine 一样发送 lineAdded，
+        // 文件索引、搜索索引和 Bookmark 都依赖这个事件
+        group.addLine(line);
+        updatedAt = new Date();
+
+        MessageBus messageBus = project.getMessageBus();
+        TopicNotifier publisher = messageBus.syncPublisher(TopicNotifier.TOPIC_NOTIFIER_TOPIC);
+        publisher.lineAdded(this, line);
+    }
+
+    /**
+     * Whether the line is in ungroupedLines or in one of this topic's groups.
+     */
+    public boolean containsLine(TopicLine line) {
+        if (ungroupedLines.contains(line)) {
+            return true;
+        }
+        TopicGroup group = line.getGroup();
+        return group != null && group.getParentTopic() == this && group.containsLine(line);
+    }
+
+    /**
+     * Batch version of {@link #moveLineToGroup}: each source list is edited once and a
+     * single linesReordered is published. Lines not belonging to this topic are ignored.
+     */
+    public void moveLinesToGroup(@NotNull Collection<TopicLine> linesToMove, @NotNull TopicGroup targetGroup) {
+        List<TopicLine> moved = detachLines(linesToMove);
+        if (moved.isEmpty()) {
+            return;
+        }
+        targetGroup.addLines(moved);
+        touch();
+
+        MessageBus messageBus = project.getMessageBus();
+        TopicNotifier publisher = messageBus.syncPublisher(TopicNotifier.TOPIC_NOTIFIER_TOPIC);
+        publisher.linesReordered(this);
+    }
+
+    /**
+     * Batch version of {@link #moveLineToUngrouped}.
+     */
+    public void moveLinesToUngrouped(@NotNull Collection<TopicLine> linesToMove) {
+        List<TopicLine> moved = detachLines(linesToMove);
+        if (moved.isEmpty()) {
+            return;
+        }
+        for (TopicLine line : moved) {
+            line.setGroup(null);
+        }
+        ungroupedLines.addAll(moved);
+        touch();
+
+        MessageBus messageBus = project.getMessageBus();
+        TopicNotifier publisher = messageBus.syncPublisher(TopicNotifier.TOPIC_NOTIFIER_TOPIC);
+        publisher.linesReordered(this);
+    }
+
+    /**
+     * Removes the given lines of this topic from ungroupedLines / their groups, one batch per list.
+     *
+     * @return the lines that were found, in the given order
+     */
+    private List<TopicLine> detachLines(@NotNull Collection<TopicLine> linesToDetach) {
+        ArrayList<TopicLine> found = new ArrayList<>(linesToDetach.size());
+        ArrayList<TopicLine> fromUngrouped = new ArrayList<>();
+        Map<TopicGroup, List<TopicLine>> fromGroups = new LinkedHashMap<>();
+        for (TopicLine line : linesToDetach) {
+            if (ungroupedLines.contains(line)) {
+                fromUngrouped.add(line);
+            } else if (line.hasGroup() && line.getGroup().getParentTopic() == this
+                && line.getGroup().containsLine(line)) {
+                fromGroups.computeIfAbsent(line.getGroup(), g -> new ArrayList<>()).add(line);
+            } else {
+                continue;
+            }
+            found.add(line);
+        }
+        ungroupedLines.removeAll(fromUngrouped);
+        fromGroups.forEach(TopicGroup::removeLines);
+        return found;
     }
     
     /**
@@ -343,58 +533,49 @@ public class Topic implements Comparable<Topic>
     
     /**
      * Insert multiple TopicLines at specified position
-     * Used for drag and drop and batch move operations
+     * Used for drag and drop and batch move operations.
+     * Lines without a group go to ungroupedLines at insertIndex (kept in the given order),
+     * grouped lines are appended to their group.
      * 
      * @param linesToInsert TopicLines to insert
-     * @param insertIndex Insert position (-1 for end)
+     * @param insertIndex Insert position within ungroupedLines (-1 for end)
      */
     public void insertLines(@NotNull List<TopicLine> linesToInsert, int insertIndex) {
         if (linesToInsert.isEmpty()) {
             return;
         }
         
-        // Determine actual insert position
-        int actualIndex = insertIndex;
-        if (actualIndex < 0 || actualIndex > lines.size()) {
-            actualIndex = lines.size();
-        }
-        
-        // Insert into lines list
-        for (int i = 0; i < linesToInsert.size(); i++) {
-            TopicLine line = linesToInsert.get(i);
-            // Note: TopicLine.setTopic() is package-private, set via topic field directly if needed
-            
-            // Insert at specified position
-            lines.add(actualIndex + i, line);
-            
-            // Add to appropriate list based on group
-            if (line.getGroup() == null) {
-                if (!ungroupedLines.contains(line)) {
-                    ungroupedLines.add(line);
-                }
+        ArrayList<TopicLine> ungrouped = new ArrayList<>(linesToInsert.size());
+        for (TopicLine line : linesToInsert) {
+            TopicGroup group = line.getGroup();
+            if (group == null) {
+                ungrouped.add(line);
             } else {
                 // Ensure group belongs to current topic
-                TopicGroup group = line.getGroup();
-                if (!groups.contains(group)) {
-                    groups.add(group);
-                }
-                if (!group.getLines().contains(line)) {
-                    group.getLines().add(line);
-                }
+                attachGroup(group);
+                group.getLines().add(line);
             }
         }
         
+        // Determine actual insert position
+        int actualIndex = insertIndex;
+        if (actualIndex < 0 || actualIndex > ungroupedLines.size()) {
+            actualIndex = ungroupedLines.size();
+        }
+        ungroupedLines.addAll(actualIndex, ungrouped);
+        
         touch();
     }
     
     /**
-     * Reorder a TopicLine within current Topic
+     * Reorder a TopicLine within its list (its group, or ungroupedLines)
      * 
      * @param line TopicLine to move
      * @param newIndex New position
      */
     public void reorderLine(@NotNull TopicLine line, int newIndex) {
-        int oldIndex = lines.indexOf(line);
+        TopicLineList owner = line.hasGroup() ? line.getGroup().getLines() : ungroupedLines;
+        int oldIndex = owner.indexOf(line);
         if (oldIndex == -1) {
             LOG.warn("Line not found in topic: " + line.url());
             return;
@@ -404,15 +585,7 @@ public class Topic implements Comparable<Topic>
             return; // No change needed
         }
         
-        // Remove from old position
-        lines.remove(oldIndex);
-        
-        // Insert at new position
-        int actualIndex = newIndex;
-        if (actualIndex > lines.size()) {
-            actualIndex = lines.size();
-        }
-        lines.add(actualIndex, line);
+        owner.move(line, newIndex);
         
         touch();
         
@@ -421,4 +594,34 @@ public class Topic implements Comparable<Topic>
         TopicNotifier publisher = messageBus.syncPublisher(TopicNotifier.TOPIC_NOTIFIER_TOPIC);
         publisher.linesReordered(this);
     }
+
+    /**
+     * Walks ungroupedLines and then every group's list in place. Read-only.
+     */
+    private class LinesIterator implements Iterator<TopicLine>
+    {
+        private Iterator<TopicLine> current = ungroupedLines.iterator();
+        private int nextGroup = 0;
+
+        @Override
+        public boolean hasNext()
+        {
+            while (!current.hasNext()) {
+                if (nextGroup >= groups.size()) {
+                    return false;
+                }
+                current = groups.get(nextGroup++).getLines().iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public TopicLine next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
 }
@@ -4,9 +4,10 @@ import com.intellij.openapi.project.Project;
 import com.intellij.util.messages.MessageBus;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * Represents a group within a Topic for organizing TopicLines
@@ -17,7 +18,7 @@ public class TopicGroup implements Comparable<TopicGroup> {
     private String note;
     private Date createdAt;
     private Date updatedAt;
-    private ArrayList<TopicLine> lines = new ArrayList<>();
+    private TopicLineList lines = new TopicLineList();
     private boolean expanded = false; // 默认收缩状态，用户可以手动展开需要的分组
     private Topic parentTopic;
     private Project project;
@@ -35,7 +36,11 @@ public class TopicGroup implements Comparable<TopicGroup> {
     }
 
     public void setName(String name) {
+        String oldName = this.name;
         this.name = name;
+        if (parentTopic != null) {
+            parentTopic.groupRenamed(this, oldName);
+        }
         touch();
         
         // 发送通知以更新UI
@@ -70,6 +75,13 @@ public class TopicGroup implements Comparable<TopicGroup> {
         return updatedAt;
     }
 
+    /**
+     * Put back the persisted timestamp after an import, which touches the group while rebuilding it.
+     */
+    void restoreUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     public void touch() {
         updatedAt = new Date();
         if (parentTopic != null) {
@@ -82,7 +94,13 @@ public class TopicGroup implements Comparable<TopicGroup> {
     }
 
     public void setExpanded(boolean expanded) {
+        if (this.expanded == expanded) {
+            return;
+        }
         this.expanded = expanded;
+        if (parentTopic != null) {
+            parentTopic.stateChanged();
+        }
     }
 
     public Topic getParentTopic() {
@@ -109,6 +127,17 @@ public class TopicGroup implements Comparable<TopicGroup> {
         // 通知应该由 Topic 层统一发送，避免重复通知
     }
 
+    /**
+     * Appends lines (skipping ones already here) in one batch.
+     */
+    public void addLines(Collection<TopicLine> linesToAdd) {
+        lines.addAll(linesToAdd);
+        for (TopicLine line : linesToAdd) {
+            line.setGroup(this);
+        }
+        touch();
+    }
+
     public void removeLine(TopicLine line) {
         lines.remove(line);
         // 清除TopicLine的分组引用
@@ -119,26 +148,42 @@ public class TopicGroup implements Comparable<TopicGroup> {
         // 通知应该由 Topic 层统一发送，避免重复通知
     }
 
+    /**
+     * Removes lines in one pass over this group's list and clears their group reference.
+     */
+    public void removeLines(Collection<TopicLine> linesToRemove) {
+        lines.removeAll(linesToRemove);
+        for (TopicLine line : linesToRemove) {
+            if (line.getGroup() == this) {
+                line.setGroup(null);
+            }
+        }
+        touch();
+    }
+
+    public boolean containsLine(TopicLine line) {
+        return lines.contains(line);
+    }
+
     public Iterator<TopicLine> linesIterator() {
         return lines.iterator();
     }
 
-    public ArrayList<TopicLine> getLines() {
+    public TopicLineList getLines() {
         return lines;
     }
 
-    public void setLines(ArrayList<TopicLine> lines) {
-        this.lines = lines;
+    public void setLines(List<TopicLine> lines) {
+        this.lines = new TopicLineList(lines);
         // 设置所有TopicLine的分组引用
-        for (TopicLine line : lines) {
+        for (TopicLine line : this.lines) {
             line.setGroup(this);
         }
         touch();
     }
 
     public void changeLineOrder(TopicLine line, int index) {
-        lines.remove(line);
-        lines.add(index, line);
+        lines.move(line, index);
         touch();
         
         // 发送通知 - Group内TopicLine顺序变化
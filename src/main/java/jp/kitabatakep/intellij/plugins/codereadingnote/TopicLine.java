@@ -1,5 +1,7 @@
 package jp.kitabatakep.intellij.plugins.codereadingnote;
 
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.RangeMarker;
 import com.intellij.openapi.fileEditor.OpenFileDescriptor;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.LocalFileSystem;
@@ -8,13 +10,17 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.vfs.VirtualFileManager;
 import com.intellij.pom.Navigatable;
 import com.intellij.util.messages.MessageBus;
+import jp.kitabatakep.intellij.plugins.codereadingnote.search.SearchText;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 
 public class TopicLine implements Navigatable
 {
     private int line;
-    private VirtualFile file;
+    // Imported lines start unresolved and look the file up on first use (see file())
+    private volatile VirtualFile file;
+    private volatile boolean fileResolved = true;
     private String note;
     private Project project;
     private Topic topic;
@@ -28,6 +34,18 @@ public class TopicLine implements Navigatable
     // 新增：分组引用
     private TopicGroup group;
 
+    // Follows the line through document edits while the file's document is loaded.
+    // line is refreshed from it lazily in line(), so keystrokes cost nothing here.
+    private RangeMarker lineMarker;
+
+    // Content fingerprint of the anchored line (see LineFingerprint); 0 = not captured yet.
+    // Lets the note be relocated after the file was changed outside an editor.
+    private long anchorHash;
+    private long contextHash;
+
+    // Lowercase and pinyin forms of the note for search, dropped on lineNoteChanged
+    private volatile SearchText searchText;
+
     public static TopicLine createByAction(Project project, Topic topic, VirtualFile file, int line, String note)
     {
         VirtualFile projectBase = LocalFileSystem.getInstance().findFileByPath(project.getBasePath());
@@ -37,16 +55,16 @@ public class TopicLine implements Navigatable
             VfsUtilCore.getRelativePath(file, projectBase), file.getUrl());
     }
 
+    /**
+     * The VirtualFile is not looked up here: loading thousands of notes at project open would
+     * otherwise cost one VFS lookup each. It is resolved on first use, or by the background
+     * warm-up started after loading (CodeReadingNoteService.warmUpFiles).
+     */
     public static TopicLine createByImport(Project project, Topic topic, String url, int line, String note, boolean inProject, String relativePath, String bookmarkUid)
     {
-        VirtualFile file;
-        String projectBase = project.getBasePath();
-        if (inProject) {
-            file = LocalFileSystem.getInstance().findFileByPath(projectBase + File.separator + relativePath);
-        } else {
-            file = VirtualFileManager.getInstance().findFileByUrl(url);
-        }
-        return new TopicLine(project, topic, file, line, note, inProject, relativePath, url,bookmarkUid);
+        TopicLine topicLine = new TopicLine(project, topic, null, line, note, inProject, relativePath, url, bookmarkUid);
+        topicLine.fileResolved = false;
+        return topicLine;
     }
 
     private TopicLine(Project project, Topic topic, VirtualFile file, int line, String note, boolean inProject, String relativePath, String url)
@@ -75,10 +93,44 @@ public class TopicLine implements Navigatable
 
     public VirtualFile file()
     {
+        if (!fileResolved) {
+            resolveFile();
+        }
         return file;
     }
 
-    public int line() { return line; }
+    public boolean isFileResolved()
+    {
+        return fileResolved;
+    }
+
+    /**
+     * Look the file up from the stored path/url once. Thread-safe, the lookup doesn't need a
+     * read action; two threads racing here find the same file.
+     */
+    public void resolveFile()
+    {
+        if (fileResolved) {
+            return;
+        }
+        VirtualFile resolved;
+        if (inProject) {
+            resolved = LocalFileSystem.getInstance().findFileByPath(project.getBasePath() + File.separator + relativePath);
+        } else {
+            resolved = VirtualFileManager.getInstance().findFileByUrl(url);
+        }
+        file = resolved;
+        fileResolved = true;
+    }
+
+    public int line()
+    {
+        RangeMarker marker = lineMarker;
+        if (marker != null && marker.isValid()) {
+            line = marker.getDocument().getLineNumber(marker.getStartOffset());
+        }
+        return line;
+    }
     public int bookmarkHash() { return bookmarkHash; }
     public void setBookmarkHash(int hash) {  bookmarkHash = hash;}
 
@@ -90,12 +142,116 @@ public class TopicLine implements Navigatable
         this.bookmarkUid = bookmarkUid;
     }
 
-    public void modifyLine(int newLine) {  line = newLine; }
+    public void modifyLine(int newLine)
+    {
+        line = newLine;
+        // The old fingerprint describes the old position; recaptured when the file is next opened or closed
+        anchorHash = 0;
+        contextHash = 0;
+        if (lineMarker != null) {
+            // Re-anchor the marker on the new line instead of letting it report the old one
+            Document document = lineMarker.getDocument();
+            lineMarker.dispose();
+            lineMarker = null;
+            attachLineMarker(document);
+        }
+        if (project != null && !project.isDisposed()) {
+            CodeReadingNoteService service = project.getServiceIfCreated(CodeReadingNoteService.class);
+            if (service != null) {
+                service.notePositionChanged(this);
+            }
+        }
+    }
+
+    /**
+     * Start tracking this line through edits of the given document.
+     * Cheap no-op when the line is already tracked in that document.
+     */
+    public void attachLineMarker(@NotNull Document document)
+    {
+        if (lineMarker != null) {
+            if (lineMarker.isValid() && lineMarker.getDocument() == document) {
+                return;
+            }
+            detachLineMarker();
+        }
+        if (line < 0 || line >= document.getLineCount()) {
+            return;
+        }
+        int offset = document.getLineStartOffset(line);
+        lineMarker = document.createRangeMarker(offset, offset);
+    }
+
+    /**
+     * Stop tracking, keeping the last tracked position as the stored line.
+     */
+    public void detachLineMarker()
+    {
+        if (lineMarker == null) {
+            return;
+        }
+        line();
+        lineMarker.dispose();
+        lineMarker = null;
+    }
+
+    public boolean isLineTracked()
+    {
+        return lineMarker != null && lineMarker.isValid();
+    }
+
+    /**
+     * @return document offset the line is tracked at, -1 when not tracked
+     */
+    public int trackedOffset()
+    {
+        RangeMarker marker = lineMarker;
+        return marker != null && marker.isValid() ? marker.getStartOffset() : -1;
+    }
+
+    public long anchorHash() { return anchorHash; }
+
+    public long contextHash() { return contextHash; }
+
+    public boolean hasFingerprint()
+    {
+        return anchorHash != 0 || contextHash != 0;
+    }
+
+    public void setFingerprint(long anchorHash, long contextHash)
+    {
+        if (this.anchorHash == anchorHash && this.contextHash == contextHash) {
+            return;
+        }
+        this.anchorHash = anchorHash;
+        this.contextHash = contextHash;
+        if (topic != null) {
+            topic.stateChanged();
+        }
+    }
 
     public String relativePath() { return relativePath; }
 
     public String note() { return note != null ? note : ""; }
 
+    @NotNull
+    public SearchText searchText()
+    {
+        SearchText text = searchText;
+        String current = note();
+        // A search racing with setNote may have cached the previous note after it was dropped
+        if (text == null || !text.isOf(current)) {
+            text = SearchText.of(current);
+            searchText = text;
+        }
+        return text;
+    }
+
+    public void invalidateSearchText()
+    {
+        searchText = null;
+    }
+
     public void setNote(String note)
     {
         this.note = note;
@@ -109,12 +265,28 @@ public class TopicLine implements Navigatable
 
     public String url() { return url; }
 
+    /**
+     * The file was renamed or moved inside the IDE, follow it (see TopicLineFileIndex.fileMoved).
+     * @param file the file at its new location, null to look it up on next use
+     */
+    void moveTo(VirtualFile file, boolean inProject, String relativePath, String url)
+    {
+        this.file = file;
+        this.fileResolved = file != null;
+        this.inProject = inProject;
+        this.relativePath = relativePath;
+        this.url = url;
+        if (topic != null) {
+            topic.stateChanged();
+        }
+    }
+
     public String pathForDisplay()
     {
         if (inProject) {
             return relativePath;
         } else if (isValid()) {
-            return file.getPath();
+            return file().getPath();
         } else {
             return url;
         }
@@ -147,7 +319,8 @@ public class TopicLine implements Navigatable
      * Use refreshFile() first if you need to re-check after branch switch.
      */
     public boolean isValid() {
-        return file != null && file.isValid();
+        VirtualFile current = file();
+        return current != null && current.isValid();
     }
     
     /**
@@ -157,7 +330,7 @@ public class TopicLine implements Navigatable
      */
     public boolean refreshFile() {
         // If already valid, no need to refresh
-        if (file != null && file.isValid()) {
+        if (isValid()) {
             return true;
         }
         
@@ -198,7 +371,7 @@ public class TopicLine implements Navigatable
 
     public OpenFileDescriptor openFileDescriptor()
     {
-        return new OpenFileDescriptor(project, file, line, -1, true);
+        return new OpenFileDescriptor(project, file(), line(), -1, true);
     }
 
     @Override
@@ -0,0 +1,235 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Secondary index: file -> TopicLines annotating that file, plus a per-file
+ * line number -> TopicLine table for duplicate detection.
+ * In-project lines are keyed by their relative path (stable across project moves),
+ * other lines by their URL. Kept current by CodeReadingNoteService from TopicNotifier
+ * events and rebuilt whenever the whole topic list is replaced.
+ */
+public class TopicLineFileIndex
+{
+    private static final String RELATIVE_PREFIX = "rel:";
+    private static final String URL_PREFIX = "url:";
+
+    private final Project project;
+    private final Map<String, FileEntry> entries = new HashMap<>();
+
+    private static final class FileEntry
+    {
+        final ArrayList<TopicLine> lines = new ArrayList<>();
+        final List<TopicLine> readOnlyLines = Collections.unmodifiableList(lines);
+        // Rebuilt lazily from TopicLine.line(); dropped whenever positions in the file may have moved
+        HashMap<Integer, TopicLine> byLine;
+    }
+
+    public TopicLineFileIndex(@NotNull Project project)
+    {
+        this.project = project;
+    }
+
+    public void rebuild(@NotNull Iterator<Topic> topics)
+    {
+        entries.clear();
+        while (topics.hasNext()) {
+            addTopic(topics.next());
+        }
+    }
+
+    public void addTopic(@NotNull Topic topic)
+    {
+        for (TopicLine line : topic.linesView()) {
+            add(line);
+        }
+    }
+
+    public void removeTopic(@NotNull Topic topic)
+    {
+        for (TopicLine line : topic.linesView()) {
+            remove(line);
+        }
+    }
+
+    public void add(@NotNull TopicLine line)
+    {
+        FileEntry entry = entries.computeIfAbsent(keyOf(line), k -> new FileEntry());
+        // lineAdded is also fired for moves between groups/topics, keep the index idempotent
+        if (!entry.lines.contains(line)) {
+            entry.lines.add(line);
+        }
+        entry.byLine = null;
+    }
+
+    public void remove(@NotNull TopicLine line)
+    {
+        String key = keyOf(line);
+        FileEntry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        entry.lines.remove(line);
+        entry.byLine = null;
+        if (entry.lines.isEmpty()) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * @return read-only view of the lines annotating the file, never a copy
+     */
+    @NotNull
+    public List<TopicLine> linesOf(@NotNull VirtualFile file)
+    {
+        FileEntry entry = entries.get(keyOf(file));
+        return entry != null ? entry.readOnlyLines : Collections.emptyList();
+    }
+
+    public boolean hasLines(@NotNull VirtualFile file)
+    {
+        return entries.containsKey(keyOf(file));
+    }
+
+    /**
+     * @return the note anchored at the given 0-based line of the file, if any
+     */
+    @Nullable
+    public TopicLine findAt(@NotNull VirtualFile file, int line)
+    {
+        FileEntry entry = entries.get(keyOf(file));
+        if (entry == null) {
+            return null;
+        }
+        if (entry.byLine == null) {
+            HashMap<Integer, TopicLine> byLine = new HashMap<>();
+            for (TopicLine tl : entry.lines) {
+                byLine.putIfAbsent(tl.line(), tl);
+            }
+            entry.byLine = byLine;
+        }
+        return entry.byLine.get(line);
+    }
+
+    /**
+     * Line positions in the file are about to change (document edit); forget the line table.
+     */
+    public void invalidatePositions(@NotNull VirtualFile file)
+    {
+        FileEntry entry = entries.get(keyOf(file));
+        if (entry != null) {
+            entry.byLine = null;
+        }
+    }
+
+    /**
+     * A single note was moved to another line.
+     */
+    public void invalidatePositions(@NotNull TopicLine line)
+    {
+        FileEntry entry = entries.get(keyOf(line));
+        if (entry != null) {
+            entry.byLine = null;
+        }
+    }
+
+    /**
+     * A file or directory was renamed or moved inside the IDE: point the notes of the file, or of
+     * every file under the directory, at the new location and re-key them.
+     * @param oldPath path before the move
+     * @param file the file or directory at its new location
+     * @return the notes that moved
+     */
+    @NotNull
+    public List<TopicLine> fileMoved(@NotNull String oldPath, @NotNull VirtualFile file)
+    {
+        String newPath = file.getPath();
+        String newUrl = file.getUrl();
+        if (!newUrl.endsWith(newPath)) {
+            // Not a path-based file system (e.g. inside an archive), nothing to re-key by path
+            return Collections.emptyList();
+        }
+        String oldUrl = newUrl.substring(0, newUrl.length() - newPath.length()) + oldPath;
+        String oldRelative = relativePathOf(oldPath);
+
+        List<TopicLine> moved = new ArrayList<>();
+        for (Iterator<Map.Entry<String, FileEntry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, FileEntry> entry = it.next();
+            String key = entry.getKey();
+            String suffix = key.startsWith(RELATIVE_PREFIX)
+                ? suffixUnder(key.substring(RELATIVE_PREFIX.length()), oldRelative)
+                : suffixUnder(key.substring(URL_PREFIX.length()), oldUrl);
+            if (suffix == null) {
+                continue;
+            }
+            it.remove();
+            String relativePath = relativePathOf(newPath + suffix);
+            for (TopicLine line : entry.getValue().lines) {
+                // Files under a moved directory are looked up again on first use
+                line.moveTo(suffix.isEmpty() ? file : null, relativePath != null,
+                    relativePath != null ? relativePath : line.relativePath(), newUrl + suffix);
+                moved.add(line);
+            }
+        }
+        for (TopicLine line : moved) {
+            add(line);
+        }
+        return moved;
+    }
+
+    /**
+     * @return "" for the path itself, "/rest" for a path under it, null otherwise
+     */
+    @Nullable
+    private static String suffixUnder(@NotNull String path, @Nullable String parent)
+    {
+        if (parent == null || !path.startsWith(parent)) {
+            return null;
+        }
+        if (path.length() == parent.length()) {
+            return "";
+        }
+        return path.charAt(parent.length()) == '/' ? path.substring(parent.length()) : null;
+    }
+
+    @NotNull
+    private static String keyOf(@NotNull TopicLine line)
+    {
+        String relativePath = line.relativePath();
+        if (line.inProject() && relativePath != null && !relativePath.isEmpty()) {
+            return RELATIVE_PREFIX + relativePath;
+        }
+        return URL_PREFIX + line.url();
+    }
+
+    @NotNull
+    private String keyOf(@NotNull VirtualFile file)
+    {
+        String relativePath = relativePathOf(file.getPath());
+        return relativePath != null ? RELATIVE_PREFIX + relativePath : URL_PREFIX + file.getUrl();
+    }
+
+    /**
+     * @return the path relative to the project base, null if it is not under it
+     */
+    @Nullable
+    private String relativePathOf(@NotNull String path)
+    {
+        String basePath = project.getBasePath();
+        if (basePath != null && path.length() > basePath.length() + 1
+            && path.startsWith(basePath) && path.charAt(basePath.length()) == '/') {
+            return path.substring(basePath.length() + 1);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,231 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * Insertion-ordered list of TopicLines that never holds the same line twice.
+ * Membership is answered from an identity map in O(1); positional edits shift the
+ * backing array (a single arraycopy), and the batch operations touch each element once,
+ * so moving hundreds of lines is linear instead of quadratic.
+ * add(line) and addAll skip a line that is already present and report it in their result;
+ * add(index, line) has no result to report it in and throws instead, so a ListIterator never
+ * loses track of its position. set() follows the List contract:
+ * Collections.sort/swap permute through it and briefly hold a line at two positions,
+ * so membership is counted per occurrence.
+ */
+public class TopicLineList extends AbstractList<TopicLine> implements RandomAccess
+{
+    private final ArrayList<TopicLine> items;
+    // line -> number of positions holding it, 1 except during a permutation through set()
+    private final Map<TopicLine, Integer> members = new IdentityHashMap<>();
+
+    public TopicLineList()
+    {
+        items = new ArrayList<>();
+    }
+
+    public TopicLineList(@NotNull Collection<TopicLine> lines)
+    {
+        items = new ArrayList<>(lines.size());
+        for (TopicLine line : lines) {
+            add(line);
+        }
+    }
+
+    @Override
+    public TopicLine get(int index)
+    {
+        return items.get(index);
+    }
+
+    @Override
+    public int size()
+    {
+        return items.size();
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return members.containsKey(o);
+    }
+
+    @Override
+    public int indexOf(Object o)
+    {
+        return members.containsKey(o) ? items.indexOf(o) : -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o)
+    {
+        return members.containsKey(o) ? items.lastIndexOf(o) : -1;
+    }
+
+    @Override
+    public boolean add(TopicLine line)
+    {
+        if (line == null || members.putIfAbsent(line, 1) != null) {
+            return false;
+        }
+        items.add(line);
+        modCount++;
+        return true;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the line is already in this list
+     */
+    @Override
+    public void add(int index, TopicLine line)
+    {
+        if (line == null) {
+            throw new NullPointerException("line");
+        }
+        if (index < 0 || index > items.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + items.size());
+        }
+        if (members.putIfAbsent(line, 1) != null) {
+            throw new IllegalArgumentException("Line is already in the list");
+        }
+        items.add(index, line);
+        modCount++;
+    }
+
+    @Override
+    public TopicLine set(int index, TopicLine line)
+    {
+        TopicLine old = items.get(index);
+        if (old == line) {
+            return old;
+        }
+        if (line == null) {
+            throw new NullPointerException("line");
+        }
+        items.set(index, line);
+        release(old);
+        members.merge(line, 1, Integer::sum);
+        return old;
+    }
+
+    @Override
+    public TopicLine remove(int index)
+    {
+        TopicLine old = items.remove(index);
+        release(old);
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        if (!members.containsKey(o)) {
+            return false;
+        }
+        items.remove(o);
+        release((TopicLine) o);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public void clear()
+    {
+        items.clear();
+        members.clear();
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends TopicLine> lines)
+    {
+        return addAll(items.size(), lines);
+    }
+
+    /**
+     * Inserts the lines not yet present at index, in their given order, in one shift.
+     */
+    @Override
+    public boolean addAll(int index, Collection<? extends TopicLine> lines)
+    {
+        ArrayList<TopicLine> fresh = new ArrayList<>(lines.size());
+        for (TopicLine line : lines) {
+            if (line != null && members.putIfAbsent(line, 1) == null) {
+                fresh.add(line);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return false;
+        }
+        items.addAll(index, fresh);
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Removes every given line in a single pass over the list.
+     */
+    @Override
+    public boolean removeAll(Collection<?> lines)
+    {
+        boolean any = false;
+        for (Object line : lines) {
+            any |= members.remove(line) != null;
+        }
+        if (!any) {
+            return false;
+        }
+        items.removeIf(line -> !members.containsKey(line));
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super TopicLine> filter)
+    {
+        if (!items.removeIf(filter)) {
+            return false;
+        }
+        members.clear();
+        for (TopicLine line : items) {
+            members.merge(line, 1, Integer::sum);
+        }
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Moves a contained line to index (clamped to the list bounds).
+     *
+     * @return false if the line is not in this list
+     */
+    public boolean move(@NotNull TopicLine line, int index)
+    {
+        if (!members.containsKey(line)) {
+            return false;
+        }
+        int from = items.indexOf(line);
+        int to = Math.max(0, Math.min(index, items.size() - 1));
+        if (from == to) {
+            return true;
+        }
+        items.remove(from);
+        items.add(to, line);
+        modCount++;
+        return true;
+    }
+
+    private void release(TopicLine line)
+    {
+        members.computeIfPresent(line, (key, count) -> count > 1 ? count - 1 : null);
+    }
+}
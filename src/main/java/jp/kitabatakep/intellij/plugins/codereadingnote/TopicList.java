@@ -1,22 +1,45 @@
 package jp.kitabatakep.intellij.plugins.codereadingnote;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.util.messages.MessageBus;
+import jp.kitabatakep.intellij.plugins.codereadingnote.settings.StorageSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class TopicList
 {
+    private static final Logger LOG = Logger.getInstance(TopicList.class);
+
     private Project project;
     private ArrayList<Topic> topics = new ArrayList<>();
     private ArrayList<TrashedLine> trashedLines = new ArrayList<>();
+    // bookmarkUid -> live TopicLine (trashed lines are not indexed)
+    private final HashMap<String, TopicLine> linesByUid = new HashMap<>();
+    // name -> first topic in list order with that name
+    private final HashMap<String, Topic> topicsByName = new HashMap<>();
+    // Trash entries evicted by the retention policy
+    private final TrashArchive trashArchive;
+    // Archive file I/O, one task at a time so appends and removals keep their order
+    private final ExecutorService archiveExecutor =
+        AppExecutorUtil.createBoundedApplicationPoolExecutor("Code Reading Note Trash Archive", 1);
 
     public TopicList(Project project)
     {
         this.project = project;
+        this.trashArchive = new TrashArchive(project);
     }
 
     public void addTopic(String name)
@@ -24,6 +47,7 @@ public class TopicList
         int order = topics.size();
         Topic topic = new Topic(project, name, new Date(), order);
         topics.add(topic);
+        topicsByName.putIfAbsent(name, topic);
 
         MessageBus messageBus = project.getMessageBus();
         TopicListNotifier publisher = messageBus.syncPublisher(TopicListNotifier.TOPIC_LIST_NOTIFIER_TOPIC);
@@ -33,6 +57,7 @@ public class TopicList
     public void removeTopic(Topic topic)
     {
         topics.remove(topic);
+        unindexTopicName(topic, topic.name());
         MessageBus messageBus = project.getMessageBus();
         TopicListNotifier publisher = messageBus.syncPublisher(TopicListNotifier.TOPIC_LIST_NOTIFIER_TOPIC);
         publisher.topicRemoved(topic);
@@ -42,27 +67,126 @@ public class TopicList
 
     public void moveToTrash(TopicLine line, String topicName) {
         trashedLines.add(new TrashedLine(line, topicName, new Date()));
+        compactTrash();
         notifyTrashChanged();
     }
 
-    public void restoreFromTrash(TrashedLine trashedLine) {
-        trashedLines.remove(trashedLine);
-        Topic target = null;
-        for (Topic t : topics) {
-            if (t.name().equals(trashedLine.getOriginalTopicName())) {
-                target = t;
-                break;
+    /**
+     * Apply the retention policy of StorageSettings: entries older than trashMaxAgeDays, then the
+     * oldest beyond trashMaxEntries, are dropped from the state and appended to the trash archive
+     * on a pooled thread. Entries go back into the trash if the archive can't be written.
+     * @return number of archived entries
+     */
+    public int compactTrash() {
+        StorageSettings settings = StorageSettings.getInstance();
+        int maxAgeDays = settings.getTrashMaxAgeDays();
+        int maxEntries = settings.getTrashMaxEntries();
+
+        ArrayList<TrashedLine> evicted = new ArrayList<>();
+        ArrayList<TrashedLine> kept = new ArrayList<>(trashedLines.size());
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays);
+        for (TrashedLine trashedLine : trashedLines) {
+            if (maxAgeDays > 0 && trashedLine.getTrashedAt().getTime() < cutoff) {
+                evicted.add(trashedLine);
+            } else {
+                kept.add(trashedLine);
             }
         }
-        if (target == null && !topics.isEmpty()) {
-            target = topics.get(0);
+        if (maxEntries > 0 && kept.size() > maxEntries) {
+            // Oldest first, entries are appended as they are trashed
+            List<TrashedLine> overflow = kept.subList(0, kept.size() - maxEntries);
+            evicted.addAll(overflow);
+            overflow.clear();
+        }
+        if (evicted.isEmpty()) {
+            return 0;
         }
+
+        trashedLines = kept;
+        archiveExecutor.execute(() -> {
+            try {
+                trashArchive.append(evicted);
+            } catch (IOException e) {
+                LOG.warn("Cannot archive " + evicted.size() + " trashed notes, putting them back into the trash", e);
+                ApplicationManager.getApplication().invokeLater(() -> {
+                    trashedLines.addAll(0, evicted);
+                    notifyTrashChanged();
+                }, project.getDisposed());
+            }
+        });
+        return evicted.size();
+    }
+
+    /**
+     * Entries evicted from the trash by compactTrash(), oldest first. Reads the archive file,
+     * call it off the EDT.
+     */
+    public List<TrashedLine> archivedTrash(int offset, int limit) throws IOException {
+        return trashArchive.read(offset, limit);
+    }
+
+    /**
+     * Number of archived entries. Reads the archive file, call it off the EDT.
+     */
+    public int archivedTrashSize() throws IOException {
+        return trashArchive.size();
+    }
+
+    /**
+     * Take the archived entry at index, as returned by archivedTrash(), out of the archive on a
+     * pooled thread, then restore it on the EDT like restoreFromTrash().
+     */
+    public void restoreFromArchive(int index, TrashedLine archived) {
+        archiveExecutor.execute(() -> {
+            boolean removed;
+            try {
+                removed = trashArchive.remove(index, archived);
+            } catch (IOException e) {
+                LOG.warn("Cannot take the note out of the trash archive", e);
+                return;
+            }
+            if (!removed) {
+                LOG.warn("Archived note " + index + " changed before it could be restored");
+                return;
+            }
+            ApplicationManager.getApplication().invokeLater(() -> {
+                Topic target = restoreTarget(archived);
+                if (target != null) {
+                    // Archived lines were read with a placeholder topic, rebuild them for the target
+                    TopicLine line = archived.getLine();
+                    TopicLine restored = TopicLine.createByImport(project, target, line.url(), line.line(),
+                        line.note(), line.inProject(), line.relativePath(), line.getBookmarkUid());
+                    if (line.hasFingerprint()) {
+                        restored.setFingerprint(line.anchorHash(), line.contextHash());
+                    }
+                    target.addLine(restored);
+                } else {
+                    // No topic to restore into, keep it in the trash rather than losing it
+                    trashedLines.add(archived);
+                }
+                notifyTrashChanged();
+            }, project.getDisposed());
+        });
+    }
+
+    public void restoreFromTrash(TrashedLine trashedLine) {
+        trashedLines.remove(trashedLine);
+        Topic target = restoreTarget(trashedLine);
         if (target != null) {
             target.addLine(trashedLine.getLine());
         }
         notifyTrashChanged();
     }
 
+    @Nullable
+    private Topic restoreTarget(TrashedLine trashedLine) {
+        Topic target = findTopicByName(trashedLine.getOriginalTopicName());
+        if (target == null && !topics.isEmpty()) {
+            target = topics.get(0);
+        }
+        return target;
+    }
+
     public void permanentlyDelete(TrashedLine trashedLine) {
         trashedLines.remove(trashedLine);
         notifyTrashChanged();
@@ -84,7 +208,7 @@ public class TopicList
     private void notifyTrashChanged() {
         MessageBus messageBus = project.getMessageBus();
         TopicListNotifier publisher = messageBus.syncPublisher(TopicListNotifier.TOPIC_LIST_NOTIFIER_TOPIC);
-        publisher.topicsLoaded();
+        publisher.trashChanged();
     }
 
     public Iterator<Topic> iterator()
@@ -130,12 +254,121 @@ public class TopicList
     public void setTopics(ArrayList<Topic> topics)
     {
         this.topics = topics;
+        rebuildUidIndex();
+        rebuildNameIndex();
+    }
+
+    /**
+     * Append an already built topic without publishing; callers batch-notify (e.g. topicsLoaded after a merge).
+     */
+    public void appendTopic(@NotNull Topic topic)
+    {
+        topics.add(topic);
+        topicsByName.putIfAbsent(topic.name(), topic);
     }
 
     public ArrayList<Topic> getTopics() {
         return topics;
     }
     
+    // ========== Topic name index ==========
+
+    @Nullable
+    public Topic findTopicByName(@Nullable String name) {
+        if (name == null) {
+            return null;
+        }
+        return topicsByName.get(name);
+    }
+
+    /**
+     * Called by Topic.setName so lookups follow renames.
+     */
+    void topicRenamed(@NotNull Topic topic, @Nullable String oldName) {
+        if (oldName != null) {
+            unindexTopicName(topic, oldName);
+        }
+        if (topics.contains(topic)) {
+            Topic current = topicsByName.get(topic.name());
+            // Keep "first in list order" semantics when names collide
+            if (current == null || topics.indexOf(topic) < topics.indexOf(current)) {
+                topicsByName.put(topic.name(), topic);
+            }
+        }
+    }
+
+    public void rebuildNameIndex() {
+        topicsByName.clear();
+        for (Topic topic : topics) {
+            topicsByName.putIfAbsent(topic.name(), topic);
+        }
+    }
+
+    private void unindexTopicName(@NotNull Topic topic, @NotNull String name) {
+        if (topicsByName.get(name) != topic) {
+            return;
+        }
+        topicsByName.remove(name);
+        // Another topic may share the name; fall back to it
+        for (Topic t : topics) {
+            if (t != topic && name.equals(t.name())) {
+                topicsByName.put(name, t);
+                break;
+            }
+        }
+    }
+
+    // ========== Bookmark UID index ==========
+
+    /**
+     * Resolve a live TopicLine by its bookmark UID in constant time.
+     */
+    @Nullable
+    public TopicLine findLineByUid(@Nullable String uid) {
+        if (uid == null || uid.isEmpty()) {
+            return null;
+        }
+        TopicLine line = linesByUid.get(uid);
+        // Guard against entries whose UID was reassigned behind the index's back
+        return line != null && uid.equals(line.getBookmarkUid()) ? line : null;
+    }
+
+    /**
+     * (Re)register a line under its current UID. Call after a line is added or its UID is assigned.
+     */
+    public void indexLineUid(@NotNull TopicLine line) {
+        String uid = line.getBookmarkUid();
+        if (uid != null && !uid.isEmpty()) {
+            linesByUid.put(uid, line);
+        }
+    }
+
+    public void unindexLineUid(@NotNull TopicLine line) {
+        String uid = line.getBookmarkUid();
+        if (uid != null && linesByUid.get(uid) == line) {
+            linesByUid.remove(uid);
+        }
+    }
+
+    public void indexTopicUids(@NotNull Topic topic) {
+        for (TopicLine line : topic.linesView()) {
+            indexLineUid(line);
+        }
+    }
+
+    public void unindexTopicUids(@NotNull Topic topic) {
+        for (TopicLine line : topic.linesView()) {
+            unindexLineUid(line);
+        }
+    }
+
+    public void rebuildUidIndex() {
+        linesByUid.clear();
+        for (Topic topic : topics) {
+            indexTopicUids(topic);
+        }
+    }
+
     /**
      * Refresh all TopicLine file references.
      * This is useful when switching branches or when files might have become available again.
@@ -144,7 +377,11 @@ public class TopicList
     public int refreshAllTopicLines() {
         int refreshedCount = 0;
         for (Topic topic : topics) {
-            for (TopicLine line : topic.getLines()) {
+            for (TopicLine line : topic.linesView()) {
+                // Unresolved lines look their file up on first use anyway, don't force it here
+                if (!line.isFileResolved()) {
+                    continue;
+                }
                 // Only try to refresh if currently invalid
                 if (!line.isValid()) {
                     if (line.refreshFile()) {
@@ -0,0 +1,373 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import org.jdom.Attribute;
+import org.jdom.Content;
+import org.jdom.Element;
+import org.jdom.Text;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary snapshot of the XML written by TopicListExporter, for export files and payloads.
+ * The element tree is stored as is, so conversion to and from XML is lossless, but every string
+ * (element names, urls, paths, notes, "true"/"false", dates) is written once into a string table
+ * and referenced by a varint index afterwards. Imports decode it straight into the model through
+ * cursor(), skipping XML tokenizing, entity decoding, per-node string allocation for repeated values
+ * and the intermediate element tree; read() still builds the tree for callers that want one.
+ *
+ * Layout, version 1:
+ * <pre>
+ *   magic "CRNB", varint version
+ *   varint stringCount, stringCount x (varint byteLength, UTF-8 bytes)
+ *   element
+ * element  := varint nameRef, varint attributeCount, attributeCount x (varint nameRef, varint valueRef),
+ *             varint contentCount, contentCount x content
+ * content  := varint (ref &lt;&lt; 1 | 1) for text, varint (nameRef &lt;&lt; 1) followed by the rest of an element
+ * </pre>
+ * Comments and processing instructions are not kept; the exporter writes none.
+ */
+public class TopicListBinaryFormat
+{
+    public static final int VERSION = 1;
+    public static final String FILE_EXTENSION = "crnb";
+
+    private static final byte[] MAGIC = {'C', 'R', 'N', 'B'};
+
+    public static byte[] export(Iterator<Topic> topics, List<TrashedLine> trashedLines)
+    {
+        ArrayList<TrashedLine> trash = trashedLines != null ? new ArrayList<>(trashedLines) : new ArrayList<>();
+        return toBinary(TopicListExporter.export(topics, trash));
+    }
+
+    public static byte[] toBinary(@NotNull Element element)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(element, bytes);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static void write(@NotNull Element element, @NotNull OutputStream outputStream) throws IOException
+    {
+        StringTable table = new StringTable();
+        table.collect(element);
+
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.write(MAGIC);
+        writeVarInt(out, VERSION);
+        writeVarInt(out, table.strings.size());
+        for (String string : table.strings) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, utf8.length);
+            out.write(utf8);
+        }
+        writeVarInt(out, table.ref(element.getName()));
+        writeElementBody(out, table, element);
+        out.flush();
+    }
+
+    @NotNull
+    public static Element fromBinary(@NotNull byte[] data) throws TopicListImporter.FormatException
+    {
+        return read(new ByteArrayInputStream(data));
+    }
+
+    @NotNull
+    public static Element read(@NotNull InputStream inputStream) throws TopicListImporter.FormatException
+    {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+            String[] strings = readHeader(in);
+            Element root = new Element(string(strings, readVarInt(in)));
+            readElementBody(in, strings, root);
+            return root;
+        } catch (EOFException e) {
+            throw new TopicListImporter.FormatException("Truncated binary snapshot");
+        } catch (IOException | IllegalArgumentException e) {
+            // IllegalArgumentException: JDOM rejecting an invalid name or text
+            throw new TopicListImporter.FormatException(e.getMessage());
+        }
+    }
+
+    /**
+     * Walk over the element tree of a binary snapshot without building it. Attributes are skipped,
+     * the exporter writes none the importer needs.
+     */
+    @NotNull
+    static TopicListStreamImporter.Cursor cursor(@NotNull InputStream inputStream)
+        throws IOException, TopicListImporter.FormatException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(inputStream));
+        return new BinaryCursor(in, readHeader(in));
+    }
+
+    private static String[] readHeader(DataInputStream in) throws IOException, TopicListImporter.FormatException
+    {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!isMagic(magic)) {
+            throw new TopicListImporter.FormatException("Not a binary note snapshot");
+        }
+        int version = readVarInt(in);
+        if (version > VERSION) {
+            throw new TopicListImporter.FormatException("Unsupported binary snapshot version " + version);
+        }
+
+        int stringCount = readVarInt(in);
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            byte[] utf8 = new byte[readVarInt(in)];
+            in.readFully(utf8);
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    /**
+     * True if the stream starts with the binary snapshot magic. Requires mark support, the
+     * stream is reset to where it was.
+     */
+    public static boolean isBinary(@NotNull InputStream inputStream) throws IOException
+    {
+        inputStream.mark(MAGIC.length);
+        byte[] head = new byte[MAGIC.length];
+        int read = 0;
+        while (read < head.length) {
+            int n = inputStream.read(head, read, head.length - read);
+            if (n < 0) break;
+            read += n;
+        }
+        inputStream.reset();
+        return read == head.length && isMagic(head);
+    }
+
+    private static boolean isMagic(byte[] head)
+    {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    private static void writeElementBody(DataOutputStream out, StringTable table, Element element) throws IOException
+    {
+        List<Attribute> attributes = element.getAttributes();
+        writeVarInt(out, attributes.size());
+        for (Attribute attribute : attributes) {
+            writeVarInt(out, table.ref(attribute.getName()));
+            writeVarInt(out, table.ref(attribute.getValue()));
+        }
+
+        List<Content> contents = element.getContent();
+        int count = 0;
+        for (Content content : contents) {
+            if (content instanceof Element || content instanceof Text) count++;
+        }
+        writeVarInt(out, count);
+        for (Content content : contents) {
+            if (content instanceof Element) {
+                Element child = (Element) content;
+                writeVarInt(out, table.ref(child.getName()) << 1);
+                writeElementBody(out, table, child);
+            } else if (content instanceof Text) {
+                writeVarInt(out, table.ref(((Text) content).getText()) << 1 | 1);
+            }
+        }
+    }
+
+    private static void readElementBody(DataInputStream in, String[] strings, Element element) throws IOException
+    {
+        int attributeCount = readVarInt(in);
+        for (int i = 0; i < attributeCount; i++) {
+            String name = string(strings, readVarInt(in));
+            element.setAttribute(name, string(strings, readVarInt(in)));
+        }
+        int contentCount = readVarInt(in);
+        for (int i = 0; i < contentCount; i++) {
+            int header = readVarInt(in);
+            String value = string(strings, header >>> 1);
+            if ((header & 1) != 0) {
+                element.addContent(value);
+            } else {
+                Element child = new Element(value);
+                readElementBody(in, strings, child);
+                element.addContent(child);
+            }
+        }
+    }
+
+    private static String string(String[] strings, int ref) throws IOException
+    {
+        if (ref < 0 || ref >= strings.length) {
+            throw new IOException("Bad string reference " + ref);
+        }
+        return strings[ref];
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) throw new IOException("Negative varint");
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Keeps, for each open element, how many of its contents are still unread.
+     */
+    private static final class BinaryCursor implements TopicListStreamImporter.Cursor
+    {
+        private final DataInputStream in;
+        private final String[] strings;
+        private int[] remaining = new int[16];
+        private int depth;
+        private boolean started;
+        private String name;
+
+        BinaryCursor(DataInputStream in, String[] strings)
+        {
+            this.in = in;
+            this.strings = strings;
+        }
+
+        @Override
+        public boolean nextChild() throws IOException
+        {
+            if (!started) {
+                // The root element is written without a content header
+                started = true;
+                enter(string(strings, readVarInt(in)));
+                return true;
+            }
+            while (depth > 0 && remaining[depth - 1] > 0) {
+                remaining[depth - 1]--;
+                int header = readVarInt(in);
+                String value = string(strings, header >>> 1);
+                if ((header & 1) == 0) {
+                    enter(value);
+                    return true;
+                }
+            }
+            if (depth > 0) {
+                depth--;
+            }
+            return false;
+        }
+
+        @Override
+        public String getLocalName()
+        {
+            return name;
+        }
+
+        @Override
+        public String getElementText() throws IOException
+        {
+            StringBuilder text = new StringBuilder();
+            while (remaining[depth - 1] > 0) {
+                remaining[depth - 1]--;
+                int header = readVarInt(in);
+                if ((header & 1) == 0) {
+                    throw new IOException("Element " + name + " has child elements");
+                }
+                text.append(string(strings, header >>> 1));
+            }
+            depth--;
+            return text.toString();
+        }
+
+        @Override
+        public void skip() throws IOException
+        {
+            int end = depth - 1;
+            while (depth > end) {
+                nextChild();
+            }
+        }
+
+        private void enter(String elementName) throws IOException
+        {
+            int attributeCount = readVarInt(in);
+            for (int i = 0; i < attributeCount; i++) {
+                readVarInt(in);
+                readVarInt(in);
+            }
+            if (depth == remaining.length) {
+                remaining = Arrays.copyOf(remaining, depth * 2);
+            }
+            remaining[depth++] = readVarInt(in);
+            name = elementName;
+        }
+    }
+
+    /**
+     * Strings in first-use order, each stored once.
+     */
+    private static class StringTable
+    {
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> refs = new HashMap<>();
+
+        void collect(Element element)
+        {
+            ref(element.getName());
+            for (Attribute attribute : element.getAttributes()) {
+                ref(attribute.getName());
+                ref(attribute.getValue());
+            }
+            for (Content content : element.getContent()) {
+                if (content instanceof Element) {
+                    collect((Element) content);
+                } else if (content instanceof Text) {
+                    ref(((Text) content).getText());
+                }
+            }
+        }
+
+        int ref(String string)
+        {
+            Integer ref = refs.get(string);
+            if (ref == null) {
+                ref = strings.size();
+                strings.add(string);
+                refs.put(string, ref);
+            }
+            return ref;
+        }
+    }
+}
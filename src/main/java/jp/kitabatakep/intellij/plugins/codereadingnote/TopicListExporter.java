@@ -4,6 +4,7 @@ import org.jdom.Element;
 
 import java.text.SimpleDateFormat;
 import java.util.Iterator;
+import java.util.List;
 
 import java.util.ArrayList;
 
@@ -17,88 +18,106 @@ public class TopicListExporter
     {
         Element topicsElement = new Element("topics");
         while (iterator.hasNext()) {
-            Topic topic = iterator.next();
-            Element topicElement = new Element("topic");
-            topicElement.addContent(new Element("name").addContent(topic.name()));
-            topicElement.addContent(new Element("note").addContent(topic.note()));
-            topicElement.addContent(
-                new Element("updatedAt").
-                    addContent(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(topic.updatedAt()))
-            );
-            
-            // Add group support flag
-            topicElement.addContent(new Element("hasGroups").addContent(String.valueOf(!topic.getGroups().isEmpty())));
+            topicsElement.addContent(exportTopic(iterator.next()));
+        }
 
-            topicsElement.addContent(topicElement);
+        Element trashElement = exportTrash(trashedLines);
+        if (trashElement != null) {
+            topicsElement.addContent(trashElement);
+        }
 
-            if (!topic.getGroups().isEmpty()) {
-                // Export groups
-                Element groupsElement = new Element("groups");
-                for (TopicGroup group : topic.getGroups()) {
-                    Element groupElement = new Element("group");
-                    groupElement.addContent(new Element("name").addContent(group.name()));
-                    groupElement.addContent(new Element("note").addContent(group.note()));
-                    groupElement.addContent(new Element("expanded").addContent(String.valueOf(group.isExpanded())));
-                    groupElement.addContent(
-                        new Element("createdAt").
-                            addContent(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(group.createdAt()))
-                    );
-                    groupElement.addContent(
-                        new Element("updatedAt").
-                            addContent(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(group.updatedAt()))
-                    );
-                    
-                    // Export lines in group
-                    Element groupLinesElement = new Element("topicLines");
-                    Iterator<TopicLine> groupLinesIterator = group.linesIterator();
-                    while (groupLinesIterator.hasNext()) {
-                        TopicLine topicLine = groupLinesIterator.next();
-                        Element topicLineElement = createTopicLineElement(topicLine);
-                        groupLinesElement.addContent(topicLineElement);
-                    }
-                    groupElement.addContent(groupLinesElement);
-                    groupsElement.addContent(groupElement);
-                }
-                topicElement.addContent(groupsElement);
-                
-                // Export ungrouped lines
-                if (!topic.getUngroupedLines().isEmpty()) {
-                    Element ungroupedLinesElement = new Element("ungroupedLines");
-                    for (TopicLine topicLine : topic.getUngroupedLines()) {
-                        Element topicLineElement = createTopicLineElement(topicLine);
-                        ungroupedLinesElement.addContent(topicLineElement);
-                    }
-                    topicElement.addContent(ungroupedLinesElement);
-                }
-            } else {
-                // Legacy mode - export lines directly
-                Element topicLinesElement = new Element("topicLines");
-                Iterator<TopicLine> linesIterator = topic.linesIterator();
-                while (linesIterator.hasNext()) {
-                    TopicLine topicLine = linesIterator.next();
+        return topicsElement;
+    }
+
+    /**
+     * The &lt;topic&gt; element of a single topic, as it appears under &lt;topics&gt;.
+     */
+    public static Element exportTopic(Topic topic)
+    {
+        Element topicElement = new Element("topic");
+        topicElement.addContent(new Element("name").addContent(topic.name()));
+        topicElement.addContent(new Element("note").addContent(topic.note()));
+        topicElement.addContent(
+            new Element("updatedAt").
+                addContent(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(topic.updatedAt()))
+        );
+
+        // Add group support flag
+        topicElement.addContent(new Element("hasGroups").addContent(String.valueOf(!topic.getGroups().isEmpty())));
+
+        if (!topic.getGroups().isEmpty()) {
+            // Export groups
+            Element groupsElement = new Element("groups");
+            for (TopicGroup group : topic.getGroups()) {
+                Element groupElement = new Element("group");
+                groupElement.addContent(new Element("name").addContent(group.name()));
+                groupElement.addContent(new Element("note").addContent(group.note()));
+                groupElement.addContent(new Element("expanded").addContent(String.valueOf(group.isExpanded())));
+                groupElement.addContent(
+                    new Element("createdAt").
+                        addContent(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(group.createdAt()))
+                );
+                groupElement.addContent(
+                    new Element("updatedAt").
+                        addContent(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(group.updatedAt()))
+                );
+
+                // Export lines in group
+                Element groupLinesElement = new Element("topicLines");
+                Iterator<TopicLine> groupLinesIterator = group.linesIterator();
+                while (groupLinesIterator.hasNext()) {
+                    TopicLine topicLine = groupLinesIterator.next();
                     Element topicLineElement = createTopicLineElement(topicLine);
-                    topicLinesElement.addContent(topicLineElement);
+                    groupLinesElement.addContent(topicLineElement);
                 }
-                topicElement.addContent(topicLinesElement);
+                groupElement.addContent(groupLinesElement);
+                groupsElement.addContent(groupElement);
             }
-        }
+            topicElement.addContent(groupsElement);
 
-        if (trashedLines != null && !trashedLines.isEmpty()) {
-            Element trashElement = new Element("trash");
-            for (TrashedLine tl : trashedLines) {
-                Element entry = new Element("trashedLine");
-                entry.addContent(new Element("originalTopic").addContent(tl.getOriginalTopicName()));
-                entry.addContent(new Element("trashedAt").addContent(
-                        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(tl.getTrashedAt())));
-                entry.addContent(createTopicLineElement(tl.getLine()));
-                trashElement.addContent(entry);
+            // Export ungrouped lines
+            if (!topic.getUngroupedLines().isEmpty()) {
+                Element ungroupedLinesElement = new Element("ungroupedLines");
+                for (TopicLine topicLine : topic.getUngroupedLines()) {
+                    Element topicLineElement = createTopicLineElement(topicLine);
+                    ungroupedLinesElement.addContent(topicLineElement);
+                }
+                topicElement.addContent(ungroupedLinesElement);
             }
-            topicsElement.addContent(trashElement);
+        } else {
+            // Legacy mode - export lines directly
+            Element topicLinesElement = new Element("topicLines");
+            Iterator<TopicLine> linesIterator = topic.linesIterator();
+            while (linesIterator.hasNext()) {
+                TopicLine topicLine = linesIterator.next();
+                Element topicLineElement = createTopicLineElement(topicLine);
+                topicLinesElement.addContent(topicLineElement);
+            }
+            topicElement.addContent(topicLinesElement);
         }
+        return topicElement;
+    }
 
-        return topicsElement;
+    /**
+     * The &lt;trash&gt; element, or null when the trash bin is empty.
+     */
+    public static Element exportTrash(List<TrashedLine> trashedLines)
+    {
+        if (trashedLines == null || trashedLines.isEmpty()) {
+            return null;
+        }
+        Element trashElement = new Element("trash");
+        for (TrashedLine tl : trashedLines) {
+            Element entry = new Element("trashedLine");
+            entry.addContent(new Element("originalTopic").addContent(tl.getOriginalTopicName()));
+            entry.addContent(new Element("trashedAt").addContent(
+                    new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(tl.getTrashedAt())));
+            entry.addContent(createTopicLineElement(tl.getLine()));
+            trashElement.addContent(entry);
+        }
+        return trashElement;
     }
-    
+
     private static Element createTopicLineElement(TopicLine topicLine) {
         Element topicLineElement = new Element("topicLine");
         topicLineElement.addContent(new Element("line").addContent(String.valueOf(topicLine.line())));
@@ -109,6 +128,10 @@ public class TopicListExporter
         topicLineElement.addContent(
             new Element("relativePath").addContent(topicLine.inProject() ? topicLine.relativePath() : "")
         );
+        if (topicLine.hasFingerprint()) {
+            topicLineElement.addContent(new Element("fingerprint").addContent(
+                Long.toHexString(topicLine.anchorHash()) + ":" + Long.toHexString(topicLine.contextHash())));
+        }
         return topicLineElement;
     }
 }
@@ -14,14 +14,17 @@ public class TopicListImporter
     public static ArrayList<Topic> importElement(Project project, Element topicsElement) throws FormatException
     {
         ArrayList<Topic> topics = new ArrayList<>();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         try {
             for (Element topicElement : topicsElement.getChildren("topic")) {
                 String name = topicElement.getChild("name").getText();
                 String updatedAtString = topicElement.getChild("updatedAt").getText();
 
                 Topic topic;
+                Date updatedAt;
                 try {
-                    topic = new Topic(project, name, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(updatedAtString));
+                    updatedAt = dateFormat.parse(updatedAtString);
+                    topic = new Topic(project, name, updatedAt);
                 } catch (ParseException e) {
                     throw new FormatException(e.getMessage());
                 }
@@ -44,7 +47,7 @@ public class TopicListImporter
                             
                             Date createdAt;
                             try {
-                                createdAt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(createdAtString);
+                                createdAt = dateFormat.parse(createdAtString);
                             } catch (ParseException e) {
                                 createdAt = new Date(); // fallback to current date
                             }
@@ -59,6 +62,11 @@ public class TopicListImporter
                                 ArrayList<TopicLine> groupLines = importTopicLines(project, topic, groupLinesElement);
                                 group.setLines(groupLines);
                             }
+                            try {
+                                group.restoreUpdatedAt(dateFormat.parse(groupUpdatedAtString));
+                            } catch (ParseException e) {
+                                // keep the import time
+                            }
                             
                             groups.add(group);
                         }
@@ -79,6 +87,8 @@ public class TopicListImporter
                         topic.setLines(topicLines);
                     }
                 }
+                // The setters above touched the topic
+                topic.restoreUpdatedAt(updatedAt);
                 
                 topics.add(topic);
             }
@@ -113,11 +123,29 @@ public class TopicListImporter
                 topicLineElement.getChild("relativePath").getText(),
                 bookmarkUid
             );
+            importFingerprint(topicLine, topicLineElement);
             topicLines.add(topicLine);
         }
         return topicLines;
     }
 
+    // Optional, absent in data written before fingerprints existed
+    private static void importFingerprint(TopicLine topicLine, Element topicLineElement) {
+        Element fingerprintElement = topicLineElement.getChild("fingerprint");
+        importFingerprint(topicLine, fingerprintElement != null ? fingerprintElement.getText() : null);
+    }
+
+    static void importFingerprint(TopicLine topicLine, String fingerprint) {
+        if (fingerprint == null) return;
+        String[] parts = fingerprint.split(":");
+        if (parts.length != 2) return;
+        try {
+            topicLine.setFingerprint(Long.parseUnsignedLong(parts[0], 16), Long.parseUnsignedLong(parts[1], 16));
+        } catch (NumberFormatException ignored) {
+            // leave it unset; it is captured again the next time the file is opened
+        }
+    }
+
     public static ArrayList<TrashedLine> importTrashedLines(Project project, Element topicsElement) {
         ArrayList<TrashedLine> result = new ArrayList<>();
         if (topicsElement == null) return result;
@@ -125,13 +153,14 @@ public class TopicListImporter
         if (trashElement == null) return result;
 
         Topic dummyTopic = new Topic(project, "_trash_", new Date());
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         for (Element entry : trashElement.getChildren("trashedLine")) {
             try {
                 String originalTopic = entry.getChild("originalTopic").getText();
                 String trashedAtStr = entry.getChild("trashedAt").getText();
                 Date trashedAt;
                 try {
-                    trashedAt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").parse(trashedAtStr);
+                    trashedAt = dateFormat.parse(trashedAtStr);
                 } catch (ParseException e) {
                     trashedAt = new Date();
                 }
@@ -153,6 +182,7 @@ public class TopicListImporter
                             topicLineElement.getChild("relativePath").getText(),
                             bookmarkUid
                     );
+                    importFingerprint(tl, topicLineElement);
                     result.add(new TrashedLine(tl, originalTopic, trashedAt));
                 }
             } catch (Exception e) {
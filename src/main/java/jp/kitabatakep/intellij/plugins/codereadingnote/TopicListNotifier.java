@@ -18,4 +18,9 @@ public interface TopicListNotifier
       * Called when topics are reordered (e.g., via drag and drop)
       */
      default void topicsReordered() {}
+
+     /**
+      * Called when lines are moved to, restored from or deleted from the trash bin
+      */
+     default void trashChanged() {}
 }
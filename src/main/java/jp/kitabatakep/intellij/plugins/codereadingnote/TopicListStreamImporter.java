@@ -0,0 +1,548 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+
+/**
+ * Streaming counterpart of TopicListImporter: builds Topics, TopicGroups and TopicLines straight
+ * from the element tree written by TopicListExporter, without materializing a JDOM tree. The tree
+ * is read through a Cursor, over XML (StAX) or over the binary snapshot (TopicListBinaryFormat).
+ * Only the element being read is held besides the resulting model.
+ * Accepts the grouped layout, the legacy topicLines layout and the trash section; like the
+ * exporter writes them, a topic's name and updatedAt (a group's name and createdAt) must come
+ * before its lines.
+ */
+public class TopicListStreamImporter
+{
+    private final Project project;
+    // One parser per import instead of one per topic/group; an importer is used by one thread
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    private TopicListStreamImporter(Project project)
+    {
+        this.project = project;
+    }
+
+    public static Result importStream(Project project, InputStream inputStream) throws TopicListImporter.FormatException
+    {
+        try {
+            XMLStreamReader reader = createFactory().createXMLStreamReader(inputStream);
+            try {
+                return new TopicListStreamImporter(project).read(new XmlCursor(reader));
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | IOException e) {
+            throw new TopicListImporter.FormatException(e.getMessage());
+        }
+    }
+
+    public static Result importReader(Project project, Reader input) throws TopicListImporter.FormatException
+    {
+        try {
+            XMLStreamReader reader = createFactory().createXMLStreamReader(input);
+            try {
+                return new TopicListStreamImporter(project).read(new XmlCursor(reader));
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException | IOException e) {
+            throw new TopicListImporter.FormatException(e.getMessage());
+        }
+    }
+
+    /**
+     * Decode a binary snapshot (TopicListBinaryFormat) straight into the model.
+     */
+    public static Result importBinary(Project project, InputStream inputStream) throws TopicListImporter.FormatException
+    {
+        try {
+            return new TopicListStreamImporter(project).read(TopicListBinaryFormat.cursor(inputStream));
+        } catch (EOFException e) {
+            throw new TopicListImporter.FormatException("Truncated binary snapshot");
+        } catch (IOException e) {
+            throw new TopicListImporter.FormatException(e.getMessage());
+        }
+    }
+
+    private static XMLInputFactory createFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    private Result read(Cursor reader) throws IOException, TopicListImporter.FormatException
+    {
+        // <topics> is the document root for exports and sync data, nested when embedded in a state file
+        if (!reader.nextChild()) {
+            throw new TopicListImporter.FormatException("No topics element");
+        }
+        Result result = find(reader);
+        if (result == null) {
+            throw new TopicListImporter.FormatException("No topics element");
+        }
+        return result;
+    }
+
+    /**
+     * The first topics element at or under the current one, in document order.
+     */
+    @Nullable
+    private Result find(Cursor reader) throws IOException, TopicListImporter.FormatException
+    {
+        if ("topics".equals(reader.getLocalName())) {
+            return readTopics(reader);
+        }
+        while (reader.nextChild()) {
+            Result result = find(reader);
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private Result readTopics(Cursor reader) throws IOException, TopicListImporter.FormatException
+    {
+        Result result = new Result();
+        while (reader.nextChild()) {
+            switch (reader.getLocalName()) {
+                case "topic":
+                    result.topics.add(readTopic(reader));
+                    break;
+                case "trash":
+                    result.hasTrash = true;
+                    readTrash(reader, result.trashedLines);
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+        Collections.sort(result.topics);
+        return result;
+    }
+
+    private Topic readTopic(Cursor reader) throws IOException, TopicListImporter.FormatException
+    {
+        String name = null;
+        Date updatedAt = null;
+        String note = null;
+        boolean hasGroups = false;
+        Topic topic = null;
+        ArrayList<TopicGroup> groups = null;
+        ArrayList<TopicLine> ungroupedLines = null;
+        ArrayList<TopicLine> legacyLines = null;
+
+        while (reader.nextChild()) {
+            switch (reader.getLocalName()) {
+                case "name":
+                    name = reader.getElementText();
+                    break;
+                case "note":
+                    note = reader.getElementText();
+                    break;
+                case "updatedAt":
+                    try {
+                        updatedAt = dateFormat.parse(reader.getElementText());
+                    } catch (ParseException e) {
+                        throw new TopicListImporter.FormatException(e.getMessage());
+                    }
+                    break;
+                case "hasGroups":
+                    hasGroups = Boolean.parseBoolean(reader.getElementText());
+                    break;
+                case "groups":
+                    if (!hasGroups) {
+                        reader.skip();
+                        break;
+                    }
+                    topic = topic != null ? topic : newTopic(name, updatedAt);
+                    groups = readGroups(reader, topic);
+                    break;
+                case "ungroupedLines":
+                    if (!hasGroups) {
+                        reader.skip();
+                        break;
+                    }
+                    topic = topic != null ? topic : newTopic(name, updatedAt);
+                    ungroupedLines = readTopicLines(reader, topic);
+                    break;
+                case "topicLines":
+                    if (hasGroups) {
+                        reader.skip();
+                        break;
+                    }
+                    topic = topic != null ? topic : newTopic(name, updatedAt);
+                    legacyLines = readTopicLines(reader, topic);
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+
+        if (topic == null) {
+            topic = newTopic(name, updatedAt);
+        }
+        if (note == null) {
+            throw new TopicListImporter.FormatException("Topic without note: " + name);
+        }
+        // Same calls, in the same order, as TopicListImporter.importElement
+        topic.setNote(note);
+        if (hasGroups) {
+            if (groups != null) {
+                topic.setGroups(groups);
+            }
+            if (ungroupedLines != null) {
+                topic.setUngroupedLines(ungroupedLines);
+            }
+        } else if (legacyLines != null) {
+            topic.setLines(legacyLines);
+        }
+        // The setters above touched the topic
+        topic.restoreUpdatedAt(updatedAt);
+        return topic;
+    }
+
+    private Topic newTopic(@Nullable String name, @Nullable Date updatedAt) throws TopicListImporter.FormatException
+    {
+        if (name == null || updatedAt == null) {
+            throw new TopicListImporter.FormatException("Topic name and updatedAt must precede its lines");
+        }
+        return new Topic(project, name, updatedAt);
+    }
+
+    private ArrayList<TopicGroup> readGroups(Cursor reader, Topic topic)
+        throws IOException, TopicListImporter.FormatException
+    {
+        ArrayList<TopicGroup> groups = new ArrayList<>();
+        while (reader.nextChild()) {
+            if ("group".equals(reader.getLocalName())) {
+                groups.add(readGroup(reader, topic));
+            } else {
+                reader.skip();
+            }
+        }
+        return groups;
+    }
+
+    private TopicGroup readGroup(Cursor reader, Topic topic)
+        throws IOException, TopicListImporter.FormatException
+    {
+        String name = null;
+        String note = null;
+        Boolean expanded = null;
+        Date createdAt = null;
+        Date updatedAt = null;
+        boolean hasUpdatedAt = false;
+        TopicGroup group = null;
+        ArrayList<TopicLine> lines = null;
+
+        while (reader.nextChild()) {
+            switch (reader.getLocalName()) {
+                case "name":
+                    name = reader.getElementText();
+                    break;
+                case "note":
+                    note = reader.getElementText();
+                    break;
+                case "expanded":
+                    expanded = Boolean.parseBoolean(reader.getElementText());
+                    break;
+                case "createdAt":
+                    createdAt = parseDateOrNow(reader.getElementText());
+                    break;
+                case "updatedAt":
+                    updatedAt = parseDateOrNull(reader.getElementText());
+                    hasUpdatedAt = true;
+                    break;
+                case "topicLines":
+                    if (group == null) {
+                        if (name == null || createdAt == null) {
+                            throw new TopicListImporter.FormatException("Group name and createdAt must precede its lines");
+                        }
+                        group = new TopicGroup(project, topic, name, createdAt);
+                    }
+                    lines = readTopicLines(reader, topic);
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+
+        if (name == null || note == null || expanded == null || createdAt == null || !hasUpdatedAt) {
+            throw new TopicListImporter.FormatException("Incomplete group in topic " + topic.name());
+        }
+        if (group == null) {
+            group = new TopicGroup(project, topic, name, createdAt);
+        }
+        group.setNote(note);
+        group.setExpanded(expanded);
+        if (lines != null) {
+            group.setLines(lines);
+        }
+        if (updatedAt != null) {
+            group.restoreUpdatedAt(updatedAt);
+        }
+        return group;
+    }
+
+    private ArrayList<TopicLine> readTopicLines(Cursor reader, Topic topic)
+        throws IOException, TopicListImporter.FormatException
+    {
+        ArrayList<TopicLine> topicLines = new ArrayList<>();
+        while (reader.nextChild()) {
+            if ("topicLine".equals(reader.getLocalName())) {
+                topicLines.add(readTopicLine(reader, topic));
+            } else {
+                reader.skip();
+            }
+        }
+        return topicLines;
+    }
+
+    private TopicLine readTopicLine(Cursor reader, Topic topic)
+        throws IOException, TopicListImporter.FormatException
+    {
+        String line = null;
+        String inProject = null;
+        String url = null;
+        String note = null;
+        String relativePath = null;
+        // Optional for backward compatibility
+        String bookmarkUid = "";
+        String fingerprint = null;
+
+        while (reader.nextChild()) {
+            switch (reader.getLocalName()) {
+                case "line":
+                    line = reader.getElementText();
+                    break;
+                case "inProject":
+                    inProject = reader.getElementText();
+                    break;
+                case "url":
+                    url = reader.getElementText();
+                    break;
+                case "note":
+                    note = reader.getElementText();
+                    break;
+                case "bookmarkUid":
+                    bookmarkUid = reader.getElementText();
+                    break;
+                case "relativePath":
+                    relativePath = reader.getElementText();
+                    break;
+                case "fingerprint":
+                    fingerprint = reader.getElementText();
+                    break;
+                default:
+                    reader.skip();
+            }
+        }
+
+        if (line == null || inProject == null || url == null || note == null || relativePath == null) {
+            throw new TopicListImporter.FormatException("Incomplete topicLine in topic " + topic.name());
+        }
+        int lineNumber;
+        try {
+            lineNumber = Integer.parseInt(line);
+        } catch (NumberFormatException e) {
+            throw new TopicListImporter.FormatException(e.getMessage());
+        }
+        TopicLine topicLine = TopicLine.createByImport(
+            project, topic, url, lineNumber, note, "true".equals(inProject), relativePath, bookmarkUid);
+        TopicListImporter.importFingerprint(topicLine, fingerprint);
+        return topicLine;
+    }
+
+    private void readTrash(Cursor reader, ArrayList<TrashedLine> result) throws IOException, TopicListImporter.FormatException
+    {
+        Topic dummyTopic = new Topic(project, "_trash_", new Date());
+        while (reader.nextChild()) {
+            if (!"trashedLine".equals(reader.getLocalName())) {
+                reader.skip();
+                continue;
+            }
+            String originalTopic = null;
+            Date trashedAt = null;
+            TopicLine topicLine = null;
+            boolean malformed = false;
+            while (reader.nextChild()) {
+                switch (reader.getLocalName()) {
+                    case "originalTopic":
+                        originalTopic = reader.getElementText();
+                        break;
+                    case "trashedAt":
+                        trashedAt = parseDateOrNow(reader.getElementText());
+                        break;
+                    case "topicLine":
+                        try {
+                            topicLine = readTopicLine(reader, dummyTopic);
+                        } catch (TopicListImporter.FormatException e) {
+                            // readTopicLine stops at the end of the topicLine even when incomplete
+                            malformed = true;
+                        }
+                        break;
+                    default:
+                        reader.skip();
+                }
+            }
+            // skip malformed entries
+            if (!malformed && originalTopic != null && trashedAt != null && topicLine != null) {
+                result.add(new TrashedLine(topicLine, originalTopic, trashedAt));
+            }
+        }
+    }
+
+    private Date parseDateOrNow(String text)
+    {
+        try {
+            return dateFormat.parse(text);
+        } catch (ParseException e) {
+            return new Date();
+        }
+    }
+
+    @Nullable
+    private Date parseDateOrNull(String text)
+    {
+        try {
+            return dateFormat.parse(text);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Forward-only walk over an element tree. A broken stream (bad syntax, truncation) is an
+     * IOException, so it is never mistaken for one malformed entry that can be skipped.
+     */
+    interface Cursor
+    {
+        /**
+         * Advance to the next child element of the current element, skipping text.
+         * @return false when the end of the current element was reached instead
+         */
+        boolean nextChild() throws IOException;
+
+        String getLocalName();
+
+        /**
+         * Text of the current element, which must not have child elements; ends the element.
+         */
+        String getElementText() throws IOException;
+
+        /**
+         * End the current element, skipping everything inside it.
+         */
+        void skip() throws IOException;
+    }
+
+    private static final class XmlCursor implements Cursor
+    {
+        private final XMLStreamReader reader;
+
+        XmlCursor(XMLStreamReader reader)
+        {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean nextChild() throws IOException
+        {
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        return true;
+                    }
+                    if (event == XMLStreamConstants.END_ELEMENT) {
+                        return false;
+                    }
+                }
+                return false;
+            } catch (XMLStreamException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public String getLocalName()
+        {
+            return reader.getLocalName();
+        }
+
+        @Override
+        public String getElementText() throws IOException
+        {
+            try {
+                return reader.getElementText();
+            } catch (XMLStreamException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void skip() throws IOException
+        {
+            try {
+                int depth = 1;
+                while (depth > 0 && reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
+    public static class Result
+    {
+        private final ArrayList<Topic> topics = new ArrayList<>();
+        private final ArrayList<TrashedLine> trashedLines = new ArrayList<>();
+        private boolean hasTrash;
+
+        @NotNull
+        public ArrayList<Topic> getTopics()
+        {
+            return topics;
+        }
+
+        @NotNull
+        public ArrayList<TrashedLine> getTrashedLines()
+        {
+            return trashedLines;
+        }
+
+        /**
+         * False for data without a trash section, e.g. exports made before the trash was exported.
+         */
+        public boolean hasTrash()
+        {
+            return hasTrash;
+        }
+    }
+}
@@ -11,6 +11,9 @@ public interface TopicNotifier
     // Line update event (e.g., when line number is modified)
     default void lineUpdated(Topic topic, TopicLine topicLine, int oldLineNum, int newLineNum) {}
     
+    // Aggregated line number changes (e.g. after a bulk document update such as Reformat Code); refresh once
+    default void linesUpdated(java.util.Collection<TopicLine> topicLines) {}
+    
     // Fired when note text is edited (for refreshing inline annotations)
     default void lineNoteChanged(Topic topic, TopicLine topicLine) {}
     
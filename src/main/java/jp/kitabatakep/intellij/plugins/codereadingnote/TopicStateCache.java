@@ -0,0 +1,127 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import org.jdom.Element;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exported &lt;topic&gt; fragments kept between getState() calls, so a save only re-serializes
+ * the topics that changed since the previous one. A topic's fragment is dropped when a notifier
+ * event or a silent change (touch, fingerprint, moved RangeMarker) reports it; the trash bin is
+ * cached the same way. getState() may run off the EDT, hence the synchronization.
+ * export() hands the cached fragments themselves to the platform instead of cloning the store on
+ * every save. The platform may rewrite them (path macros), so fragments handed out are not given
+ * to the shard writer; snapshot() exports those topics again.
+ */
+class TopicStateCache
+{
+    private Map<Topic, Element> fragments = new IdentityHashMap<>();
+    private Element trashFragment;
+    private boolean trashValid;
+    // Fragments last returned by export(), owned by the platform's state tree
+    private Set<Element> handedOut = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    synchronized void invalidate(@Nullable Topic topic)
+    {
+        if (topic != null) {
+            fragments.remove(topic);
+        }
+    }
+
+    synchronized void invalidateTrash()
+    {
+        trashValid = false;
+        trashFragment = null;
+    }
+
+    synchronized void invalidateAll()
+    {
+        fragments.clear();
+        invalidateTrash();
+    }
+
+    /**
+     * Same element as TopicListExporter.export(topics, trashedLines), reusing unchanged fragments
+     * without copying them: they are detached from the tree returned by the previous call, which
+     * is only valid until the next one. Only changed topics are serialized.
+     */
+    @NotNull
+    synchronized Element export(@NotNull Iterator<Topic> topics, @Nullable List<TrashedLine> trashedLines)
+    {
+        Snapshot snapshot = collect(topics, trashedLines, false);
+        Set<Element> given = Collections.newSetFromMap(new IdentityHashMap<>());
+        Element topicsElement = new Element("topics");
+        for (Element fragment : snapshot.fragments) {
+            topicsElement.addContent(fragment.detach());
+            given.add(fragment);
+        }
+        if (snapshot.trash != null) {
+            topicsElement.addContent(snapshot.trash.detach());
+            given.add(snapshot.trash);
+        }
+        handedOut = given;
+        return topicsElement;
+    }
+
+    /**
+     * Current fragment of every topic in list order and of the trash bin. A fragment keeps its
+     * identity until the topic changes, so callers can tell changed topics apart by reference.
+     * The fragments are shared with the cache and must not be modified.
+     */
+    @NotNull
+    synchronized Snapshot snapshot(@NotNull Iterator<Topic> topics, @Nullable List<TrashedLine> trashedLines)
+    {
+        return collect(topics, trashedLines, true);
+    }
+
+    /**
+     * @param pristine re-export the fragments handed out by export(), they may have been rewritten
+     */
+    @NotNull
+    private Snapshot collect(@NotNull Iterator<Topic> topics, @Nullable List<TrashedLine> trashedLines, boolean pristine)
+    {
+        List<Topic> order = new ArrayList<>();
+        List<Element> result = new ArrayList<>();
+        // Rebuilt each time so removed topics don't linger
+        Map<Topic, Element> live = new IdentityHashMap<>(fragments.size() + 1);
+        while (topics.hasNext()) {
+            Topic topic = topics.next();
+            Element fragment = fragments.get(topic);
+            if (fragment == null || pristine && handedOut.remove(fragment)) {
+                fragment = TopicListExporter.exportTopic(topic);
+            }
+            live.put(topic, fragment);
+            order.add(topic);
+            result.add(fragment);
+        }
+        fragments = live;
+
+        if (!trashValid || pristine && trashFragment != null && handedOut.remove(trashFragment)) {
+            trashFragment = TopicListExporter.exportTrash(trashedLines);
+            trashValid = true;
+        }
+        return new Snapshot(order, result, trashFragment);
+    }
+
+    static final class Snapshot
+    {
+        final List<Topic> topics;
+        final List<Element> fragments;
+        @Nullable final Element trash;
+
+        Snapshot(List<Topic> topics, List<Element> fragments, @Nullable Element trash)
+        {
+            this.topics = topics;
+            this.fragments = fragments;
+            this.trash = trash;
+        }
+    }
+}
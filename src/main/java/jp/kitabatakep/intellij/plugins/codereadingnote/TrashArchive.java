@@ -0,0 +1,201 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import org.jdom.Element;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Append-only cold storage for trashed notes evicted from the trash bin by the retention policy,
+ * in .idea/codeReadingNote/trash-archive.crnb. Archived entries are no longer part of the project
+ * state, getState() and the sync hash. Each eviction appends one record:
+ * <pre>
+ *   int entryCount, int byteLength, TopicListBinaryFormat snapshot of &lt;topics&gt;&lt;trash&gt;...
+ * </pre>
+ * The counts let read() skip whole records without decoding them. A record cut short by a crash
+ * ends the archive for readers. Every method does file I/O, call them off the EDT.
+ */
+class TrashArchive
+{
+    private static final Logger LOG = Logger.getInstance(TrashArchive.class);
+
+    static final String FILE = "trash-archive." + TopicListBinaryFormat.FILE_EXTENSION;
+
+    // Entries per record when remove() rewrites the archive, keeps paging from decoding it all
+    private static final int RECORD_SIZE = 100;
+
+    private final Project project;
+
+    TrashArchive(@NotNull Project project)
+    {
+        this.project = project;
+    }
+
+    @Nullable
+    Path file()
+    {
+        Path directory = ShardedTopicStorage.directory(project);
+        return directory != null ? directory.resolve(FILE) : null;
+    }
+
+    synchronized void append(@NotNull List<TrashedLine> trashedLines) throws IOException
+    {
+        Element trash = TopicListExporter.exportTrash(trashedLines);
+        if (trash == null) {
+            return;
+        }
+        Path file = file();
+        if (file == null) {
+            throw new IOException("Project has no directory for the trash archive");
+        }
+        Files.createDirectories(file.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            writeRecord(out, trash, trashedLines.size());
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, Element trash, int entryCount) throws IOException
+    {
+        byte[] bytes = TopicListBinaryFormat.toBinary(new Element("topics").addContent(trash));
+        out.writeInt(entryCount);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Take the entry at index out of the archive, rewriting the file. expected is what read()
+     * returned for that index; nothing is removed if the archive holds something else there.
+     * @return false if the entry was not found
+     */
+    synchronized boolean remove(int index, @NotNull TrashedLine expected) throws IOException
+    {
+        Path file = file();
+        List<TrashedLine> entries = read(0, Integer.MAX_VALUE);
+        if (file == null || index < 0 || index >= entries.size() || !sameEntry(entries.get(index), expected)) {
+            return false;
+        }
+        entries.remove(index);
+        if (entries.isEmpty()) {
+            Files.deleteIfExists(file);
+            return true;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (int start = 0; start < entries.size(); start += RECORD_SIZE) {
+                List<TrashedLine> record = entries.subList(start, Math.min(entries.size(), start + RECORD_SIZE));
+                writeRecord(out, TopicListExporter.exportTrash(record), record.size());
+            }
+        }
+        ShardedTopicStorage.writeAtomically(file, bytes.toByteArray());
+        return true;
+    }
+
+    private static boolean sameEntry(TrashedLine a, TrashedLine b)
+    {
+        TopicLine lineA = a.getLine();
+        TopicLine lineB = b.getLine();
+        return lineA.line() == lineB.line()
+            && Objects.equals(lineA.url(), lineB.url())
+            && Objects.equals(lineA.note(), lineB.note())
+            && Objects.equals(a.getOriginalTopicName(), b.getOriginalTopicName())
+            && a.getTrashedAt().getTime() / 1000 == b.getTrashedAt().getTime() / 1000;
+    }
+
+    /**
+     * Archived entries from offset on, oldest first, at most limit of them.
+     */
+    @NotNull
+    synchronized List<TrashedLine> read(int offset, int limit) throws IOException
+    {
+        List<TrashedLine> result = new ArrayList<>();
+        Path file = file();
+        if (file == null || !Files.exists(file) || limit <= 0) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int skipped = 0;
+            while (result.size() < limit) {
+                int count;
+                int length;
+                try {
+                    count = in.readInt();
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (count < 0 || length < 0) {
+                    LOG.warn("Corrupt record in " + file + ", ignoring the rest");
+                    break;
+                }
+                if (skipped + count <= offset) {
+                    if (in.skipBytes(length) < length) break;
+                    skipped += count;
+                    continue;
+                }
+                byte[] bytes = new byte[length];
+                try {
+                    in.readFully(bytes);
+                } catch (EOFException e) {
+                    break;
+                }
+                List<TrashedLine> entries;
+                try {
+                    entries = TopicListImporter.importTrashedLines(project, TopicListBinaryFormat.fromBinary(bytes));
+                } catch (TopicListImporter.FormatException e) {
+                    LOG.warn("Corrupt record in " + file + ", ignoring the rest", e);
+                    break;
+                }
+                for (TrashedLine entry : entries) {
+                    if (skipped++ >= offset && result.size() < limit) {
+                        result.add(entry);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of archived entries, from the record headers only.
+     */
+    synchronized int size() throws IOException
+    {
+        Path file = file();
+        if (file == null || !Files.exists(file)) {
+            return 0;
+        }
+        int total = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int count;
+                int length;
+                try {
+                    count = in.readInt();
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (count < 0 || length < 0 || in.skipBytes(length) < length) break;
+                total += count;
+            }
+        }
+        return total;
+    }
+}
@@ -19,6 +19,8 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import jp.kitabatakep.intellij.plugins.codereadingnote.AppConstants;
 import jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicListBinaryFormat;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicList;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicListExporter;
 import org.jdom.Document;
 import org.jdom.Element;
@@ -54,7 +56,7 @@ public class ExportAction extends CommonAnAction
         FileSaverDescriptor fsd = new FileSaverDescriptor(
             jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteBundle.message("dialog.export.save.title"),
             jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteBundle.message("dialog.export.save.message"),
-            "xml"
+            "xml", TopicListBinaryFormat.FILE_EXTENSION
         );
 
         VirtualFile baseDir;
@@ -96,9 +98,18 @@ public class ExportAction extends CommonAnAction
 
 //        XMLOutputter xmlOutput = new XMLOutputter();
 //        xmlOutput.setFormat(Format.getPrettyFormat());
-        Element state = TopicListExporter.export(service.getTopicList().iterator());
+        // 导出包含回收站，和持久化的内容一致
+        TopicList topicList = service.getTopicList();
         try {
-            JDOMUtil.write(new Document(state), fileOutputStream);
+            if (file.getName().endsWith("." + TopicListBinaryFormat.FILE_EXTENSION)) {
+                // Compact binary snapshot, same content as the XML export
+                try (OutputStream outputStream = new BufferedOutputStream(fileOutputStream)) {
+                    outputStream.write(TopicListBinaryFormat.export(topicList.iterator(), topicList.getTrashedLines()));
+                }
+            } else {
+                Element state = TopicListExporter.export(topicList.iterator(), topicList.getTrashedLines());
+                JDOMUtil.write(new Document(state), fileOutputStream);
+            }
 //            xmlOutput.output(new Document(state), fileOutputStream);
         } catch (IOException ex) {
             ex.printStackTrace();
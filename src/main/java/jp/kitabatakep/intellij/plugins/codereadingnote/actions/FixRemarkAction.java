@@ -84,7 +84,7 @@ public class FixRemarkAction extends CommonAnAction {
         
         // 遍历所有 Topic 的所有 TopicLine
         service.getTopicList().getTopics().stream()
-                .flatMap(topic -> topic.getLines().stream())
+                .flatMap(topic -> topic.linesView().stream())
                 .forEach(topicLine -> {
                     Bookmark bookmark = bookmarkMap.get(topicLine.getBookmarkUid());
                     
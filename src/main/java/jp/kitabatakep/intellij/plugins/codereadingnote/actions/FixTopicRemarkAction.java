@@ -88,7 +88,7 @@ public class FixTopicRemarkAction extends CommonAnAction {
         Map<String, Bookmark> bookmarkMap = BookmarkUtils.getStringBookmarkMap(project);
         List<LineFixResult> results = new ArrayList<>();
         
-        for (TopicLine topicLine : topic.getLines()) {
+        for (TopicLine topicLine : topic.linesView()) {
             Bookmark bookmark = bookmarkMap.get(topicLine.getBookmarkUid());
             
             Integer bookmarkLine = null;
@@ -13,20 +13,15 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.messages.MessageBus;
 import jp.kitabatakep.intellij.plugins.codereadingnote.AppConstants;
 import jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicListBinaryFormat;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicListImporter;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicListNotifier;
-import org.jdom.Document;
-import org.jdom.JDOMException;
-import org.jdom.input.DOMBuilder;
-import org.jdom.input.SAXBuilder;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicListStreamImporter;
 import org.jetbrains.annotations.NotNull;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.File;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 public class ImportAction extends CommonAnAction
 {
@@ -56,7 +51,9 @@ public class ImportAction extends CommonAnAction
             baseDir = LocalFileSystem.getInstance().findFileByPath(System.getProperty("user.home"));
         }
 
-        FileChooserDescriptor fileChooserDescriptor = FileChooserDescriptorFactory.createSingleFileDescriptor("xml");
+        FileChooserDescriptor fileChooserDescriptor = FileChooserDescriptorFactory.createSingleFileNoJarsDescriptor()
+            .withFileFilter(file -> "xml".equalsIgnoreCase(file.getExtension())
+                || TopicListBinaryFormat.FILE_EXTENSION.equalsIgnoreCase(file.getExtension()));
         VirtualFile[] files = FileChooserFactory.getInstance().
             createFileChooser(fileChooserDescriptor, project, null).
             choose(project, baseDir);
@@ -70,22 +67,21 @@ public class ImportAction extends CommonAnAction
             service.setLastImportDir(parentDir.getPath());
         }
 
-//        SAXBuilder builder = new SAXBuilder();
-        Document document = null;
-
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder2 = factory.newDocumentBuilder();
-            org.w3c.dom.Document document1 = builder2.parse(new File(files[0].getPath()));
-            DOMBuilder domBuilder = new DOMBuilder();
-            document = domBuilder.build(document1);
-//             document = builder.build(new File(files[0].getPath()));
-        } catch (ParserConfigurationException | SAXException ex) {
+        // Both formats are streamed straight into the model, no DOM of the whole file is built
+        TopicListStreamImporter.Result result;
+        try (InputStream inputStream = new BufferedInputStream(files[0].getInputStream())) {
+            if (TopicListBinaryFormat.isBinary(inputStream)) {
+                result = TopicListStreamImporter.importBinary(project, inputStream);
+            } else {
+                result = TopicListStreamImporter.importStream(project, inputStream);
+            }
+        } catch (TopicListImporter.FormatException ex) {
             Messages.showErrorDialog(
                 project,
                 jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteBundle.message("message.import.failed.format"),
                 jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteBundle.message("message.import.failed.title", AppConstants.appName)
             );
+            return;
         } catch (IOException ex) {
             Messages.showErrorDialog(
                 project,
@@ -95,23 +91,16 @@ public class ImportAction extends CommonAnAction
             return;
         }
 
-        if (document == null) {
-            return;
+        service.getTopicList().setTopics(result.getTopics());
+        // 旧版导出文件没有回收站，保留当前回收站
+        if (result.hasTrash()) {
+            service.getTopicList().setTrashedLines(result.getTrashedLines());
         }
-
-        try {
-            service.getTopicList().setTopics(TopicListImporter.importElement(project, document.getRootElement()));
-            MessageBus messageBus = project.getMessageBus();
-            TopicListNotifier publisher = messageBus.syncPublisher(TopicListNotifier.TOPIC_LIST_NOTIFIER_TOPIC);
-            publisher.topicsLoaded();
-        } catch (TopicListImporter.FormatException e2) {
-            Messages.showErrorDialog(
-                project,
-                jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteBundle.message("message.import.failed.format"),
-                jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteBundle.message("message.import.failed.title", AppConstants.appName)
-            );
+        MessageBus messageBus = project.getMessageBus();
+        TopicListNotifier publisher = messageBus.syncPublisher(TopicListNotifier.TOPIC_LIST_NOTIFIER_TOPIC);
+        publisher.topicsLoaded();
+        if (result.hasTrash()) {
+            publisher.trashChanged();
         }
-
-
     }
 }
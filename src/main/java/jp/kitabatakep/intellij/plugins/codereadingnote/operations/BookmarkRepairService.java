@@ -50,7 +50,7 @@ public final class BookmarkRepairService {
         }
         
         for (Topic topic : topicList.getTopics()) {
-            for (TopicLine line : topic.getLines()) {
+            for (TopicLine line : topic.linesView()) {
                 BookmarkStatus status = checkBookmarkStatus(line);
                 
                 switch (status) {
@@ -134,7 +134,7 @@ public final class BookmarkRepairService {
         
         BookmarkRepairResult result = new BookmarkRepairResult();
         
-        for (TopicLine line : topic.getLines()) {
+        for (TopicLine line : topic.linesView()) {
             BookmarkStatus status = checkBookmarkStatus(line);
             
             switch (status) {
@@ -212,6 +212,7 @@ public final class BookmarkRepairService {
             
             if (bookmark != null) {
                 line.setBookmarkUid(uuid);
+                CodeReadingNoteService.getInstance(project).getTopicList().indexLineUid(line);
                 topic.touch();
                 LOG.info(String.format("Repaired bookmark for line: %s:%d with UUID: %s", 
                     line.pathForDisplay(), line.line(), uuid));
@@ -234,6 +235,7 @@ public final class BookmarkRepairService {
             BookmarkUtils.removeMachBookmark(line, project);
             
             // Clear old UUID and create new bookmark
+            CodeReadingNoteService.getInstance(project).getTopicList().unindexLineUid(line);
             line.setBookmarkUid(null);
             return repairBookmark(line, topic);
         } catch (Exception e) {
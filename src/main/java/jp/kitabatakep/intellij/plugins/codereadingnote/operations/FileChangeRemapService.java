@@ -0,0 +1,269 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.operations;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Alarm;
+import jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remaps notes of files rewritten on disk (checkout, pull, rebase, formatter) in one batch.
+ * The line hashes of each annotated file are remembered when its notes are known to be in place:
+ * read from disk when the notes are loaded (rememberLoadedContent), and again when the file is
+ * closed or after a remap. On a content change the old and new versions are diffed (Myers, bounded by MAX_EDITS) and every
+ * note of the file is carried to its new line. Notes whose line was changed fall back to their
+ * fingerprint, then to the nearest surviving neighbour. Files without a remembered version use
+ * fingerprint relocation only.
+ * Diffing runs on a pooled thread, debounced so a branch switch touching hundreds of files is
+ * handled as a single pass ending in one linesUpdated.
+ * A file's version is forgotten once its last note is removed. The versions are kept in memory
+ * only, 8 bytes per line: at most MAX_SNAPSHOTS files (about 3 MB for files of 2,000 lines) are
+ * remembered, least recently used dropped first; a file beyond the cap falls back to fingerprints.
+ */
+@Service(Service.Level.PROJECT)
+public final class FileChangeRemapService implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(FileChangeRemapService.class);
+
+    private static final int DEBOUNCE_MS = 300;
+    // Beyond this many changed lines the diff costs more than it helps, relocate by fingerprint instead
+    private static final int MAX_EDITS = 1000;
+    private static final int MAX_SNAPSHOTS = 200;
+
+    private final Project project;
+    private final Alarm alarm;
+
+    // file url -> line hashes of the version the notes were last known to match
+    private final Map<String, long[]> snapshots = Collections.synchronizedMap(
+            new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                    return size() > MAX_SNAPSHOTS;
+                }
+            });
+    // guarded by itself, first change per file wins: its lines still hold the pre-change positions
+    private final Map<VirtualFile, PendingFile> pending = new LinkedHashMap<>();
+
+    public FileChangeRemapService(@NotNull Project project) {
+        this.project = project;
+        this.alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    }
+
+    /**
+     * Remember the version of a file the notes currently match.
+     */
+    public void rememberContent(@NotNull VirtualFile file, @NotNull long[] lineHashes) {
+        snapshots.put(file.getUrl(), lineHashes);
+    }
+
+    /**
+     * Remember the on-disk version of the annotated files right after the notes are loaded, so a
+     * checkout before a file is first opened in this session is still remapped by diff.
+     * Call with the loaded notes; the files are read on a pooled thread. A file whose
+     * fingerprinted notes no longer match their lines changed while the project was closed, it
+     * is not remembered and relocates by fingerprint. At most MAX_SNAPSHOTS files are read.
+     */
+    public void rememberLoadedContent(@NotNull Collection<TopicLine> topicLines) {
+        if (topicLines.isEmpty()) return;
+        // Positions are read here, on the thread that owns the notes
+        List<PendingLine> lines = new ArrayList<>(topicLines.size());
+        for (TopicLine topicLine : topicLines) {
+            lines.add(new PendingLine(topicLine, topicLine.line(), topicLine.anchorHash(), topicLine.contextHash()));
+        }
+
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            Map<VirtualFile, List<PendingLine>> byFile = new LinkedHashMap<>();
+            for (PendingLine line : lines) {
+                if (project.isDisposed()) return;
+                VirtualFile file = line.topicLine.file();
+                if (file != null && file.isValid()) {
+                    byFile.computeIfAbsent(file, f -> new ArrayList<>()).add(line);
+                }
+            }
+
+            int remembered = 0;
+            for (Map.Entry<VirtualFile, List<PendingLine>> entry : byFile.entrySet()) {
+                if (project.isDisposed() || remembered >= MAX_SNAPSHOTS) return;
+                String url = entry.getKey().getUrl();
+                // Already remembered from an editor this session, that version is fresher
+                if (snapshots.containsKey(url)) continue;
+                CharSequence text = loadText(entry.getKey());
+                if (text == null) continue;
+                long[] hashes = LineFingerprint.lineHashes(text);
+                if (notesMatch(entry.getValue(), hashes) && snapshots.putIfAbsent(url, hashes) == null) {
+                    remembered++;
+                }
+            }
+            LOG.debug("Remembered the content of " + remembered + " annotated files at load");
+        });
+    }
+
+    /**
+     * @return false if a fingerprinted note no longer finds its anchored line where it is stored
+     */
+    private static boolean notesMatch(@NotNull List<PendingLine> lines, @NotNull long[] hashes) {
+        for (PendingLine line : lines) {
+            if (line.anchorHash == 0) continue;
+            if (line.oldLine < 0 || line.oldLine >= hashes.length || hashes[line.oldLine] != line.anchorHash) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drop the remembered version of a file that no longer has notes.
+     */
+    public void forgetContent(@NotNull VirtualFile file) {
+        snapshots.remove(file.getUrl());
+    }
+
+    /**
+     * Called on the EDT with files whose content changed on disk.
+     * Notes tracked by an open document are left alone, the document already follows the change.
+     */
+    public void contentChanged(@NotNull Collection<VirtualFile> files) {
+        CodeReadingNoteService service = CodeReadingNoteService.getInstance(project);
+        boolean scheduled = false;
+        for (VirtualFile file : files) {
+            if (!service.hasNotes(file)) continue;
+
+            List<PendingLine> lines = new ArrayList<>();
+            for (TopicLine topicLine : service.listSource(project, file)) {
+                if (topicLine.isLineTracked()) continue;
+                lines.add(new PendingLine(topicLine, topicLine.line(),
+                        topicLine.anchorHash(), topicLine.contextHash()));
+            }
+            if (lines.isEmpty()) continue;
+
+            synchronized (pending) {
+                if (!pending.containsKey(file)) {
+                    pending.put(file, new PendingFile(file, snapshots.get(file.getUrl()), lines));
+                    scheduled = true;
+                }
+            }
+        }
+        if (scheduled) {
+            alarm.cancelAllRequests();
+            alarm.addRequest(this::processPending, DEBOUNCE_MS);
+        }
+    }
+
+    private void processPending() {
+        List<PendingFile> files;
+        synchronized (pending) {
+            files = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        if (files.isEmpty() || project.isDisposed()) return;
+
+        List<LineRelocationService.Relocation> relocations = new ArrayList<>();
+        Map<String, long[]> newSnapshots = new HashMap<>();
+        for (PendingFile pendingFile : files) {
+            CharSequence text = loadText(pendingFile.file);
+            if (text == null) continue;
+            long[] newHashes = LineFingerprint.lineHashes(text);
+            remap(pendingFile, newHashes, relocations);
+            newSnapshots.put(pendingFile.file.getUrl(), newHashes);
+        }
+
+        ApplicationManager.getApplication().invokeLater(() -> {
+            snapshots.putAll(newSnapshots);
+            LineRelocationService.getInstance(project).applyRelocations(relocations);
+        }, project.getDisposed());
+    }
+
+    private static void remap(@NotNull PendingFile pendingFile, @NotNull long[] newHashes,
+                              @NotNull List<LineRelocationService.Relocation> out) {
+        int[] mapping = pendingFile.snapshot == null
+                ? null
+                : LineDiff.mapLines(pendingFile.snapshot, newHashes, MAX_EDITS);
+        LineRelocator relocator = null;
+
+        for (PendingLine line : pendingFile.lines) {
+            int newLine = -1;
+            if (mapping != null && line.oldLine >= 0 && line.oldLine < mapping.length) {
+                newLine = mapping[line.oldLine];
+            }
+            if (newLine < 0 && (line.anchorHash != 0 || line.contextHash != 0)) {
+                if (relocator == null) relocator = new LineRelocator(newHashes);
+                newLine = relocator.relocate(line.anchorHash, line.contextHash, line.oldLine);
+            }
+            if (newLine < 0 && mapping != null && line.oldLine >= 0 && line.oldLine < mapping.length) {
+                newLine = LineDiff.nearestSurvivor(mapping, line.oldLine, newHashes.length);
+            }
+            if (newLine < 0 || newLine >= newHashes.length) continue;
+
+            out.add(new LineRelocationService.Relocation(line.topicLine, line.oldLine, newLine,
+                    newHashes[newLine], LineFingerprint.contextHash(newHashes, newLine)));
+        }
+    }
+
+    @Nullable
+    private static CharSequence loadText(@NotNull VirtualFile file) {
+        return ReadAction.compute(() -> {
+            if (!file.isValid() || file.isDirectory()) return null;
+            try {
+                return VfsUtilCore.loadText(file);
+            } catch (IOException e) {
+                LOG.warn("Cannot read " + file.getPath() + " to remap notes", e);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (pending) {
+            pending.clear();
+        }
+        snapshots.clear();
+    }
+
+    public static FileChangeRemapService getInstance(@NotNull Project project) {
+        return project.getService(FileChangeRemapService.class);
+    }
+
+    private static final class PendingFile {
+        final VirtualFile file;
+        final long[] snapshot;
+        final List<PendingLine> lines;
+
+        PendingFile(VirtualFile file, long[] snapshot, List<PendingLine> lines) {
+            this.file = file;
+            this.snapshot = snapshot;
+            this.lines = lines;
+        }
+    }
+
+    private static final class PendingLine {
+        final TopicLine topicLine;
+        final int oldLine;
+        final long anchorHash;
+        final long contextHash;
+
+        PendingLine(TopicLine topicLine, int oldLine, long anchorHash, long contextHash) {
+            this.topicLine = topicLine;
+            this.oldLine = oldLine;
+            this.anchorHash = anchorHash;
+            this.contextHash = contextHash;
+        }
+    }
+}
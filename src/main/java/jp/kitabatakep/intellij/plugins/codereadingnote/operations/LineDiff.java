@@ -0,0 +1,126 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.operations;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Myers O(ND) diff over line hashes, used to carry line numbers from an old version of a file
+ * to a new one. Common prefix and suffix are matched first, so the usual "a few hunks changed"
+ * case only runs the diff on the changed middle part.
+ */
+public final class LineDiff {
+
+    private LineDiff() {
+    }
+
+    /**
+     * @return for every old line its new line number, or -1 if the line was deleted/changed;
+     *         null if the files differ in more than maxEdits lines
+     */
+    @Nullable
+    public static int[] mapLines(@NotNull long[] oldLines, @NotNull long[] newLines, int maxEdits) {
+        int n = oldLines.length;
+        int m = newLines.length;
+        int[] result = new int[n];
+        Arrays.fill(result, -1);
+
+        int prefix = 0;
+        while (prefix < n && prefix < m && oldLines[prefix] == newLines[prefix]) {
+            result[prefix] = prefix;
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < n - prefix && suffix < m - prefix
+                && oldLines[n - 1 - suffix] == newLines[m - 1 - suffix]) {
+            result[n - 1 - suffix] = m - 1 - suffix;
+            suffix++;
+        }
+
+        int oldCount = n - prefix - suffix;
+        int newCount = m - prefix - suffix;
+        if (oldCount == 0 || newCount == 0) {
+            return result;
+        }
+
+        int limit = Math.min(oldCount + newCount, maxEdits);
+        int offset = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        // trace[d] = v[-d-1 .. d+1] as it was before step d
+        List<int[]> trace = new ArrayList<>();
+
+        for (int d = 0; d <= limit; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < oldCount && y < newCount && oldLines[prefix + x] == newLines[prefix + y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= oldCount && y >= newCount) {
+                    backtrack(trace, oldCount, newCount, prefix, result);
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void backtrack(List<int[]> trace, int x, int y, int prefix, int[] result) {
+        for (int d = trace.size() - 1; d >= 0; d--) {
+            int[] v = trace.get(d);
+            // index into the slice: k -> k + d + 1
+            int k = x - y;
+            int prevK;
+            if (k == -d || (k != d && v[k - 1 + d + 1] < v[k + 1 + d + 1])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = v[prevK + d + 1];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                result[prefix + x] = prefix + y;
+            }
+            if (d > 0) {
+                x = prevX;
+                y = prevY;
+            }
+        }
+    }
+
+    /**
+     * New position for an old line that did not survive the diff: keep its distance to the
+     * surviving line below it (else above it), clamped to the changed hunk.
+     */
+    public static int nearestSurvivor(@NotNull int[] mapping, int oldLine, int newLineCount) {
+        int below = oldLine + 1;
+        while (below < mapping.length && mapping[below] < 0) below++;
+        int above = oldLine - 1;
+        while (above >= 0 && mapping[above] < 0) above--;
+
+        int guess;
+        if (below < mapping.length) {
+            guess = mapping[below] - (below - oldLine);
+        } else if (above >= 0) {
+            guess = mapping[above] + (oldLine - above);
+        } else {
+            guess = oldLine;
+        }
+        if (above >= 0) guess = Math.max(guess, mapping[above] + 1);
+        if (below < mapping.length) guess = Math.min(guess, mapping[below]);
+        return Math.max(0, Math.min(guess, newLineCount - 1));
+    }
+}
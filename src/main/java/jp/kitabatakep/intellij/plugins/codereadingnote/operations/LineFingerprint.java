@@ -0,0 +1,124 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.operations;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Content fingerprints used to find a note's line again after the file changed behind our back.
+ * A line is hashed with surrounding whitespace stripped (re-indentation keeps the hash), and a
+ * position's context hash is a polynomial hash over the line hashes of
+ * [line - CONTEXT_LINES, line + CONTEXT_LINES], computed for a whole file with a rolling window.
+ */
+public final class LineFingerprint {
+
+    public static final int CONTEXT_LINES = 2;
+    public static final int WINDOW = CONTEXT_LINES * 2 + 1;
+
+    // 0 is reserved for "no fingerprint"; lines outside the file contribute this sentinel
+    private static final long OUT_OF_RANGE = 0x9E3779B97F4A7C15L;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long BASE = 1_000_003L;
+    private static final long BASE_POW_WINDOW;
+
+    static {
+        long pow = 1;
+        for (int i = 0; i < WINDOW; i++) {
+            pow *= BASE;
+        }
+        BASE_POW_WINDOW = pow;
+    }
+
+    private LineFingerprint() {
+    }
+
+    /**
+     * Hash of every line of text ('\n', '\r\n' and '\r' all end a line, like Document).
+     */
+    @NotNull
+    public static long[] lineHashes(@NotNull CharSequence text) {
+        int length = text.length();
+        long[] hashes = new long[countLines(text)];
+        int line = 0;
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r') {
+                hashes[line++] = lineHash(text, start, i);
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        hashes[line] = lineHash(text, start, length);
+        return hashes;
+    }
+
+    /**
+     * Context hash for every position, rolling over the line hashes in O(lines).
+     */
+    @NotNull
+    public static long[] contextHashes(@NotNull long[] lineHashes) {
+        int n = lineHashes.length;
+        long[] result = new long[n];
+        // window for position p covers [p - CONTEXT_LINES, p + CONTEXT_LINES]
+        long hash = 0;
+        for (int j = -CONTEXT_LINES; j <= CONTEXT_LINES; j++) {
+            hash = hash * BASE + at(lineHashes, j);
+        }
+        for (int p = 0; p < n; p++) {
+            result[p] = nonZero(hash);
+            long leaving = at(lineHashes, p - CONTEXT_LINES);
+            long entering = at(lineHashes, p + CONTEXT_LINES + 1);
+            hash = hash * BASE - leaving * BASE_POW_WINDOW + entering;
+        }
+        return result;
+    }
+
+    /**
+     * Context hash of a single position, same value as contextHashes(lineHashes)[line].
+     */
+    public static long contextHash(@NotNull long[] lineHashes, int line) {
+        long hash = 0;
+        for (int j = line - CONTEXT_LINES; j <= line + CONTEXT_LINES; j++) {
+            hash = hash * BASE + at(lineHashes, j);
+        }
+        return nonZero(hash);
+    }
+
+    private static long at(long[] lineHashes, int index) {
+        return index >= 0 && index < lineHashes.length ? lineHashes[index] : OUT_OF_RANGE;
+    }
+
+    private static long lineHash(CharSequence text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) start++;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) end--;
+        long hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            hash ^= text.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return nonZero(hash);
+    }
+
+    private static long nonZero(long hash) {
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static int countLines(CharSequence text) {
+        int lines = 1;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                lines++;
+            } else if (c == '\r') {
+                lines++;
+                if (i + 1 < length && text.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            }
+        }
+        return lines;
+    }
+}
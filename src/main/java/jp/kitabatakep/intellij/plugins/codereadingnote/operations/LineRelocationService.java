@@ -0,0 +1,179 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.operations;
+
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.util.messages.MessageBus;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicNotifier;
+import jp.kitabatakep.intellij.plugins.codereadingnote.remark.BookmarkUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps notes on their code when a file changed outside an editor (checkout, pull, external tool).
+ * Each TopicLine carries a content fingerprint; on relocation the new content is hashed once and
+ * every note of the file is moved to the nearest position carrying its fingerprint.
+ */
+@Service(Service.Level.PROJECT)
+public final class LineRelocationService {
+
+    private static final Logger LOG = Logger.getInstance(LineRelocationService.class);
+
+    private final Project project;
+
+    public LineRelocationService(@NotNull Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Record the fingerprint of each line at its current position in text.
+     */
+    public void captureFingerprints(@NotNull CharSequence text, @NotNull Collection<TopicLine> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        captureFingerprints(LineFingerprint.lineHashes(text), lines);
+    }
+
+    /**
+     * Same as above with the file's line hashes already computed.
+     */
+    public void captureFingerprints(@NotNull long[] lineHashes, @NotNull Collection<TopicLine> lines) {
+        for (TopicLine line : lines) {
+            capture(line, lineHashes);
+        }
+    }
+
+    /**
+     * Move lines whose fingerprint no longer matches to where their content is now,
+     * capturing fingerprints for lines that have none yet. Does not publish.
+     *
+     * @return the lines that were moved
+     */
+    @NotNull
+    public List<TopicLine> relocate(@NotNull CharSequence text, @NotNull Collection<TopicLine> lines) {
+        List<TopicLine> moved = new ArrayList<>();
+        if (lines.isEmpty()) {
+            return moved;
+        }
+        LineRelocator relocator = new LineRelocator(text);
+        for (TopicLine line : lines) {
+            int oldLine = line.line();
+            if (!line.hasFingerprint()) {
+                line.setFingerprint(relocator.lineHash(oldLine), relocator.contextHash(oldLine));
+                continue;
+            }
+            int newLine = relocator.relocate(line.anchorHash(), line.contextHash(), oldLine);
+            if (newLine < 0 || newLine == oldLine) {
+                continue;
+            }
+            moveBookmark(line, newLine);
+            line.modifyLine(newLine);
+            // The context around the new position may differ slightly when only the line itself matched
+            line.setFingerprint(relocator.lineHash(newLine), relocator.contextHash(newLine));
+            moved.add(line);
+        }
+        if (!moved.isEmpty()) {
+            LOG.info(String.format("Relocated %d of %d notes by content fingerprint", moved.size(), lines.size()));
+        }
+        return moved;
+    }
+
+    /**
+     * relocate() followed by a single linesUpdated for everything that moved.
+     */
+    @NotNull
+    public List<TopicLine> relocateAndNotify(@NotNull CharSequence text, @NotNull Collection<TopicLine> lines) {
+        List<TopicLine> moved = relocate(text, lines);
+        if (!moved.isEmpty()) {
+            for (TopicLine line : moved) {
+                if (line.topic() != null) {
+                    line.topic().touch();
+                }
+            }
+            MessageBus messageBus = project.getMessageBus();
+            TopicNotifier publisher = messageBus.syncPublisher(TopicNotifier.TOPIC_NOTIFIER_TOPIC);
+            publisher.linesUpdated(moved);
+        }
+        return moved;
+    }
+
+    /**
+     * Apply line moves computed elsewhere (e.g. off the EDT) and publish one linesUpdated.
+     * A move is skipped when its line has been tracked or moved since it was computed.
+     */
+    @NotNull
+    public List<TopicLine> applyRelocations(@NotNull List<Relocation> relocations) {
+        List<TopicLine> moved = new ArrayList<>();
+        for (Relocation relocation : relocations) {
+            TopicLine line = relocation.line;
+            if (line.isLineTracked() || line.line() != relocation.oldLine) {
+                continue;
+            }
+            if (relocation.newLine != relocation.oldLine) {
+                moveBookmark(line, relocation.newLine);
+                line.modifyLine(relocation.newLine);
+                moved.add(line);
+            }
+            line.setFingerprint(relocation.anchorHash, relocation.contextHash);
+        }
+        if (!moved.isEmpty()) {
+            for (TopicLine line : moved) {
+                if (line.topic() != null) {
+                    line.topic().touch();
+                }
+            }
+            LOG.info(String.format("Remapped %d notes after external file changes", moved.size()));
+            MessageBus messageBus = project.getMessageBus();
+            TopicNotifier publisher = messageBus.syncPublisher(TopicNotifier.TOPIC_NOTIFIER_TOPIC);
+            publisher.linesUpdated(moved);
+        }
+        return moved;
+    }
+
+    /**
+     * A computed move of one note, with the fingerprint at its new position.
+     */
+    public static final class Relocation {
+        final TopicLine line;
+        final int oldLine;
+        final int newLine;
+        final long anchorHash;
+        final long contextHash;
+
+        public Relocation(@NotNull TopicLine line, int oldLine, int newLine, long anchorHash, long contextHash) {
+            this.line = line;
+            this.oldLine = oldLine;
+            this.newLine = newLine;
+            this.anchorHash = anchorHash;
+            this.contextHash = contextHash;
+        }
+    }
+
+    private static void capture(@NotNull TopicLine line, @NotNull long[] lineHashes) {
+        int index = line.line();
+        if (index < 0 || index >= lineHashes.length) {
+            return;
+        }
+        line.setFingerprint(lineHashes[index], LineFingerprint.contextHash(lineHashes, index));
+    }
+
+    private void moveBookmark(@NotNull TopicLine line, int newLine) {
+        String uuid = line.getBookmarkUid();
+        if (StringUtil.isEmpty(uuid) || line.file() == null || !line.file().isValid()) {
+            return;
+        }
+        // Same sequence as LineNumberUpdateService: remove while the old line is still set
+        BookmarkUtils.removeMachBookmark(line, project);
+        BookmarkUtils.addBookmark(project, line.file(), newLine, line.note(), uuid);
+    }
+
+    public static LineRelocationService getInstance(@NotNull Project project) {
+        return project.getService(LineRelocationService.class);
+    }
+}
@@ -0,0 +1,112 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.operations;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds where fingerprinted lines went in a new version of a file.
+ * Hashes for the new content are computed once (O(lines)); each lookup then goes through a
+ * hash -> positions table and picks the candidate closest to the old line, so relocating
+ * thousands of notes in one file costs little more than hashing it.
+ * Prefers a full context match, falls back to the anchored line alone when that line occurs
+ * only once in the new content.
+ */
+public final class LineRelocator {
+
+    private final long[] lineHashes;
+    private final long[] contextHashes;
+    private Map<Long, int[]> byContext;
+    private Map<Long, int[]> byLine;
+
+    public LineRelocator(@NotNull CharSequence text) {
+        this(LineFingerprint.lineHashes(text));
+    }
+
+    public LineRelocator(@NotNull long[] lineHashes) {
+        this.lineHashes = lineHashes;
+        this.contextHashes = LineFingerprint.contextHashes(lineHashes);
+    }
+
+    public int lineCount() {
+        return lineHashes.length;
+    }
+
+    public long lineHash(int line) {
+        return line >= 0 && line < lineHashes.length ? lineHashes[line] : 0;
+    }
+
+    public long contextHash(int line) {
+        return line >= 0 && line < contextHashes.length ? contextHashes[line] : 0;
+    }
+
+    /**
+     * @return true if the line still has exactly the fingerprinted context
+     */
+    public boolean matches(long contextHash, int line) {
+        return contextHash != 0 && contextHash(line) == contextHash;
+    }
+
+    /**
+     * @return the position in the new content closest to oldLine with the fingerprinted context,
+     *         else the only line equal to the anchored one, or -1
+     */
+    public int relocate(long anchorHash, long contextHash, int oldLine) {
+        if (matches(contextHash, oldLine)) {
+            return oldLine;
+        }
+        if (contextHash != 0) {
+            if (byContext == null) byContext = index(contextHashes);
+            int found = nearest(byContext.get(contextHash), oldLine);
+            if (found >= 0) return found;
+        }
+        if (anchorHash != 0) {
+            if (byLine == null) byLine = index(lineHashes);
+            // Without its context a line is only evidence when it is unique: blank lines, braces
+            // or "return;" occur all over the file and would pull the note to an unrelated line
+            int[] positions = byLine.get(anchorHash);
+            return positions != null && positions[0] == 1 ? positions[1] : -1;
+        }
+        return -1;
+    }
+
+    // positions[0] holds the count, positions[1..count] ascending line numbers
+    private static Map<Long, int[]> index(long[] hashes) {
+        Map<Long, int[]> index = new HashMap<>(hashes.length * 2);
+        for (int line = 0; line < hashes.length; line++) {
+            int[] positions = index.get(hashes[line]);
+            if (positions == null) {
+                positions = new int[2];
+            } else if (positions[0] + 1 == positions.length) {
+                int[] grown = new int[positions.length * 2];
+                System.arraycopy(positions, 0, grown, 0, positions.length);
+                positions = grown;
+            }
+            positions[++positions[0]] = line;
+            index.put(hashes[line], positions);
+        }
+        return index;
+    }
+
+    private static int nearest(int[] positions, int target) {
+        if (positions == null) return -1;
+        int low = 1;
+        int high = positions[0];
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (positions[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        // low is the first position >= target
+        int best = -1;
+        if (low <= positions[0]) best = positions[low];
+        if (low - 1 >= 1 && (best < 0 || target - positions[low - 1] <= best - target)) {
+            best = positions[low - 1];
+        }
+        return best;
+    }
+}
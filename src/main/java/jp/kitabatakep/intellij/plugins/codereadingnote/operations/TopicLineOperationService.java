@@ -62,9 +62,8 @@ public final class TopicLineOperationService {
                     sourceTopic.removeLine(line);
                 }
             } else {
-                for (TopicLine line : lines) {
-                    sourceTopic.getLines().remove(line);
-                }
+                // getLines() is a copy; detach from the real list so insertLines can reposition them
+                sourceTopic.getUngroupedLines().removeAll(lines);
             }
             
             // Add to target topic
@@ -107,9 +106,7 @@ public final class TopicLineOperationService {
                 
                 // 2. Add to target group or ungrouped
                 if (targetGroup != null) {
-                    if (!topic.getGroups().contains(targetGroup)) {
-                        topic.getGroups().add(targetGroup);
-                    }
+                    topic.attachGroup(targetGroup);
                     targetGroup.getLines().add(line);
                     LOG.info("Added line to target group: " + targetGroup.name());
                 } else {
@@ -9,83 +9,170 @@ package jp.kitabatakep.intellij.plugins.codereadingnote.remark;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.editor.Editor;
-import com.intellij.openapi.editor.Inlay;
 import com.intellij.openapi.editor.event.DocumentEvent;
 import com.intellij.openapi.editor.event.DocumentListener;
-import com.intellij.openapi.editor.impl.EditorFactoryImpl;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
+import jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
-import java.util.List;
-import org.apache.commons.collections.CollectionUtils;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicNotifier;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Keeps TopicLine line numbers in sync when the document changes.
- * Matches inlays to TopicLines by UID for reliable tracking, with
- * text-based fallback for legacy data without UIDs.
+ * Each TopicLine of an edited file is anchored with a RangeMarker before the first
+ * change reaches it; the platform then moves the marker and TopicLine.line() reads
+ * it lazily, so there is no per-keystroke rescan. Files without notes are rejected
+ * by a single index lookup per open project.
+ * A RangeMarker moves silently, so after an edit that adds or removes line breaks the topics of
+ * the notes tracked after it lose their persisted state; edits within a line invalidate nothing.
+ * During a bulk update (Reformat Code, VCS merge, large paste) per-event work is skipped:
+ * lines are anchored once when the bulk update starts and reconciled in one pass when it
+ * finishes, publishing a single linesUpdated batch.
  */
 public class BookmarkDocumentListener implements DocumentListener {
 
 	private static final Logger LOG = Logger.getInstance(BookmarkDocumentListener.class);
 
+	// TopicLine -> line before the bulk update started, per document
+	private static final Key<Map<TopicLine, Integer>> BULK_SNAPSHOT = Key.create("CodeReadingNote.bulkLineSnapshot");
+
+	@Override
+	public void beforeDocumentChange(@NotNull DocumentEvent event) {
+		Document document = event.getDocument();
+		if (document.isInBulkUpdate()) {
+			// Already anchored in bulkUpdateStarting
+			return;
+		}
+		anchorLines(document, null);
+	}
+
 	@Override
 	public void documentChanged(@NotNull DocumentEvent event) {
+		Document document = event.getDocument();
+		if (document.isInBulkUpdate()) {
+			// Reconciled in bulkUpdateFinished
+			return;
+		}
+		int lineDelta = lineBreaks(event.getNewFragment()) - lineBreaks(event.getOldFragment());
+		int from = event.getOffset();
+		int to;
+		if (lineDelta != 0) {
+			// Every note after the edit moved
+			to = Integer.MAX_VALUE;
+		} else if (lineBreaks(event.getNewFragment()) > 0) {
+			// Line breaks replaced by as many others, only notes inside the new text may have moved
+			to = from + event.getNewLength();
+		} else {
+			return;
+		}
 		try {
-			Document document = event.getDocument();
-
 			VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
-			Editor editor = getEditor(document);
-
-			if (virtualFile == null || editor == null) {
+			if (virtualFile == null) {
 				return;
 			}
-			Project project = editor.getProject();
-			if (project == null) {
-				return;
+			for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+				if (project.isDisposed()) continue;
+				CodeReadingNoteService service = project.getServiceIfCreated(CodeReadingNoteService.class);
+				if (service == null || !service.hasNotes(virtualFile)) continue;
+				service.invalidateNotePositions(virtualFile, from, to);
 			}
+		} catch (Exception e) {
+			LOG.info("perceivedLineChange error", e);
+		}
+	}
 
-			List<Inlay<? extends CodeRemarkEditorInlineInlayRenderer>> inlays = editor.getInlayModel()
-					.getAfterLineEndElementsInRange(0, document.getTextLength(),
-							CodeRemarkEditorInlineInlayRenderer.class);
-			if (CollectionUtils.isEmpty(inlays)) return;
-
-			List<TopicLine> topicLines = CodeRemarkRepositoryFactory.getInstance(project).listSource(project, virtualFile);
-			for (TopicLine tl : topicLines) {
-				for (Inlay<? extends CodeRemarkEditorInlineInlayRenderer> inlay : inlays) {
-					CodeRemarkEditorInlineInlayRenderer renderer = inlay.getRenderer();
-					boolean matched = false;
-
-					String tlUid = tl.getBookmarkUid();
-					String rendererUid = renderer.getTopicLineUid();
-					if (tlUid != null && !tlUid.isEmpty() && rendererUid != null && !rendererUid.isEmpty()) {
-						matched = tlUid.equals(rendererUid);
-					} else {
-						matched = StringUtils.spNote(tl.note()).equals(renderer.getText());
-					}
+	// Documents hold '\n' line separators only
+	private static int lineBreaks(@NotNull CharSequence text) {
+		int count = 0;
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '\n') {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void bulkUpdateStarting(@NotNull Document document) {
+		Map<TopicLine, Integer> snapshot = new HashMap<>();
+		anchorLines(document, snapshot);
+		document.putUserData(BULK_SNAPSHOT, snapshot.isEmpty() ? null : snapshot);
+	}
+
+	@Override
+	public void bulkUpdateFinished(@NotNull Document document) {
+		Map<TopicLine, Integer> snapshot = document.getUserData(BULK_SNAPSHOT);
+		if (snapshot == null) {
+			return;
+		}
+		document.putUserData(BULK_SNAPSHOT, null);
+		try {
+			VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
+			if (virtualFile == null) {
+				return;
+			}
+			for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+				if (project.isDisposed()) continue;
+				CodeReadingNoteService service = project.getServiceIfCreated(CodeReadingNoteService.class);
+				if (service == null || !service.hasNotes(virtualFile)) continue;
 
-					if (matched) {
-						int offset = inlay.getOffset();
-						int line = document.getLineNumber(offset);
-						tl.modifyLine(line);
-						break;
+				List<TopicLine> changed = new ArrayList<>();
+				for (TopicLine tl : service.listSource(project, virtualFile)) {
+					Integer before = snapshot.get(tl);
+					if (before != null && before != tl.line()) {
+						changed.add(tl);
 					}
 				}
+				// Only the notes whose line moved lose their persisted state
+				for (TopicLine tl : changed) {
+					service.notePositionChanged(tl);
+				}
+				if (!changed.isEmpty()) {
+					project.getMessageBus().syncPublisher(TopicNotifier.TOPIC_NOTIFIER_TOPIC).linesUpdated(changed);
+				}
 			}
-
 		} catch (Exception e) {
-			LOG.info("perceivedLineChange error", e);
+			LOG.info("bulk line reconcile error", e);
 		}
 	}
 
-	private Editor getEditor(Document document) {
-		Editor[] editors = EditorFactoryImpl.getInstance().getEditors(document);
-		if (editors.length >= 1) {
-			return editors[0];
+	/**
+	 * Anchor every note of the document's file before changes are applied, while stored
+	 * line numbers are still accurate. Records the current lines into snapshot when given.
+	 */
+	private static void anchorLines(@NotNull Document document, Map<TopicLine, Integer> snapshot) {
+		try {
+			VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
+			if (virtualFile == null) {
+				return;
+			}
+
+			for (Project project : ProjectManager.getInstance().getOpenProjects()) {
+				if (project.isDisposed()) continue;
+				// Don't instantiate the service for projects that never touched notes
+				CodeReadingNoteService service = project.getServiceIfCreated(CodeReadingNoteService.class);
+				if (service == null || !service.hasNotes(virtualFile)) continue;
+
+				// Anchor before the change is applied, while stored line numbers are still accurate
+				for (TopicLine tl : service.listSource(project, virtualFile)) {
+					tl.attachLineMarker(document);
+					if (snapshot != null) {
+						snapshot.put(tl, tl.line());
+					}
+				}
+			}
+		} catch (Exception e) {
+			LOG.info("perceivedLineChange error", e);
 		}
-		return null;
 	}
 
 }
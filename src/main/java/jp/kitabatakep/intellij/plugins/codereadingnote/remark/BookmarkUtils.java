@@ -4,6 +4,8 @@ import com.intellij.ide.bookmark.Bookmark;
 import com.intellij.ide.bookmark.BookmarkGroup;
 import com.intellij.ide.bookmark.BookmarkType;
 import com.intellij.ide.bookmark.BookmarksManager;
+import com.intellij.ide.bookmark.LineBookmark;
+import com.intellij.ide.bookmark.providers.LineBookmarkProvider;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
@@ -150,58 +152,40 @@ public class BookmarkUtils {
     
     /**
      * Check if a bookmark already exists at the specified line in the file.
-     * Uses native bookmark attributes ("url" and "line") to detect duplicates.
+     * Answers from the note index first; otherwise probes the bookmarks manager with a
+     * line bookmark for file:line (hash lookup) instead of scanning the whole group.
      * @return the existing bookmark's UUID if found, null otherwise
      */
     @Nullable
     public static String findExistingBookmarkUuidAtLine(@NotNull Project project, @NotNull VirtualFile file, int line) {
+        TopicLine existing = jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService
+                .getInstance(project).findNoteAt(file, line);
+        if (existing != null && StringUtils.isNotEmpty(existing.getBookmarkUid())) {
+            return existing.getBookmarkUid();
+        }
+
         BookmarkGroup group = getGroup(project);
         if (group == null) {
             return null;
         }
-        
-        String fileUrl = file.getUrl();
-        
-        for (Bookmark bookmark : group.getBookmarks()) {
-            Map<String, String> attrs = bookmark.getAttributes();
-            String lineStr = attrs.get("line");
-            String urlStr = attrs.get("url");
-            
-            if (lineStr != null && urlStr != null) {
-                try {
-                    int bookmarkLine = Integer.parseInt(lineStr);
-                    if (bookmarkLine == line && fileUrl.equals(urlStr)) {
-                        String uuid = StringUtils.extractUUID(group.getDescription(bookmark));
-                        if (uuid != null) {
-                            return uuid;
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    // ignore
-                }
-            }
+
+        LineBookmarkProvider provider = LineBookmarkProvider.Util.find(project);
+        LineBookmark probe = provider != null ? provider.createBookmark(file, line) : null;
+        if (probe == null || BookmarksManager.getInstance(project).getType(probe) == null) {
+            return null;
         }
-        return null;
+        // Line bookmarks compare by file and line, so the group resolves the probe to the stored one
+        return StringUtils.extractUUID(group.getDescription(probe));
     }
     
     /**
      * Check if any TopicLine already exists at the specified file and line across all topics.
-     * This is a data-level check independent of native bookmarks.
+     * This is a data-level check independent of native bookmarks, served by the (file, line) index.
      * @return true if a TopicLine already references this file:line
      */
     public static boolean hasTopicLineAtSameFileLine(@NotNull Project project, @NotNull VirtualFile file, int line) {
-        jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService service = 
-                jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService.getInstance(project);
-        java.util.Iterator<jp.kitabatakep.intellij.plugins.codereadingnote.Topic> iterator = service.getTopicList().iterator();
-        while (iterator.hasNext()) {
-            jp.kitabatakep.intellij.plugins.codereadingnote.Topic topic = iterator.next();
-            for (TopicLine tl : topic.getLines()) {
-                if (tl.file() != null && tl.file().equals(file) && tl.line() == line) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService
+                .getInstance(project).findNoteAt(file, line) != null;
     }
     
     /**
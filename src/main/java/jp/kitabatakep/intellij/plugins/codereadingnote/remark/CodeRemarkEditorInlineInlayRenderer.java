@@ -55,27 +55,34 @@ public class CodeRemarkEditorInlineInlayRenderer
 
 
     private final String text;
+    private final String previewText;
     private final String topicLineUid;
     private boolean isHovered = false;
     private boolean isEditorShowing = false;
     private int textStartXCoordinate = -1;
 
+    // Font state cached per renderer; refreshed when the editor's scheme, font or zoom changes
+    private EditorColorsScheme cachedScheme;
+    private String cachedFontName;
+    private int cachedFontSize = -1;
+    private Font cachedFont;
+    private FontMetrics cachedMetrics;
+    private int cachedPreviewWidth;
+
     public CodeRemarkEditorInlineInlayRenderer(@NotNull final String text) {
-        this.text = text;
-        this.topicLineUid = null;
+        this(text, null);
     }
 
     public CodeRemarkEditorInlineInlayRenderer(@NotNull final String text, String topicLineUid) {
         this.text = text;
+        this.previewText = StringUtils.maxLength(text, RENDERER_TEXT_MAX_LENGTH);
         this.topicLineUid = topicLineUid;
     }
 
     @Override
     public int calcWidthInPixels(@NotNull final Inlay inlay) {
-        final Editor editor = inlay.getEditor();
-        final Font font = getFont(editor);
-        final FontMetrics metrics = getFontMetrics(font, editor);
-        return metrics.stringWidth(getPreviewText()) + CodeRemark.getIcon().getIconWidth() + (isHovered ? HOVERED_SUFFIX_ICON.getIconWidth() : 0);
+        ensureFontCache(inlay.getEditor());
+        return cachedPreviewWidth + CodeRemark.getIcon().getIconWidth() + (isHovered ? HOVERED_SUFFIX_ICON.getIconWidth() : 0);
     }
 
 
@@ -91,9 +98,10 @@ public class CodeRemarkEditorInlineInlayRenderer
             return;
         }
 
-        final Font font = getFont(editor);
+        ensureFontCache(editor);
+        final Font font = cachedFont;
         graphics.setFont(font);
-        final FontMetrics metrics = getFontMetrics(font, editor);
+        final FontMetrics metrics = cachedMetrics;
 
         int curX = rectangle.x; // int curX = rectangle.x + metrics.charWidth(' ');
         textStartXCoordinate = curX;
@@ -106,10 +114,9 @@ public class CodeRemarkEditorInlineInlayRenderer
         curX += prefixIcon.getIconWidth() + margin * 2;
 
         // draw text
-        final String previewText = getPreviewText();
         graphics.setColor(inlineAttributes.getForegroundColor());
         graphics.drawString(previewText, curX, rectangle.y + inlay.getEditor().getAscent());
-        curX += metrics.stringWidth(previewText);
+        curX += cachedPreviewWidth;
 
         // draw hovered icon
         if (isHovered) {
@@ -152,8 +159,20 @@ public class CodeRemarkEditorInlineInlayRenderer
     }
 
 
-    private String getPreviewText() {
-        return StringUtils.maxLength(text, RENDERER_TEXT_MAX_LENGTH);
+    private void ensureFontCache(@NotNull final Editor editor) {
+        final EditorColorsScheme colorsScheme = editor.getColorsScheme();
+        final String fontName = colorsScheme.getEditorFontName();
+        final int fontSize = colorsScheme.getEditorFontSize();
+        if (cachedFont != null && colorsScheme == cachedScheme && fontSize == cachedFontSize
+                && fontName.equals(cachedFontName)) {
+            return;
+        }
+        cachedScheme = colorsScheme;
+        cachedFontName = fontName;
+        cachedFontSize = fontSize;
+        cachedFont = getFont(editor);
+        cachedMetrics = getFontMetrics(cachedFont, editor);
+        cachedPreviewWidth = cachedMetrics.stringWidth(previewText);
     }
 
     private static void paintEffects(@NotNull final Graphics g,
@@ -203,10 +222,18 @@ public class CodeRemarkEditorInlineInlayRenderer
     private static final Color NOTE_COLOR = new Color(0x5F, 0xB0, 0xB0);
     private static final Color NOTE_COLOR_HOVERED = new Color(0x7E, 0xD3, 0xD3);
 
-    private TextAttributes getAttributes(final Editor editor) {
+    // Shared and never mutated, so paint does not allocate
+    private static final TextAttributes NOTE_ATTRIBUTES = createAttributes(NOTE_COLOR);
+    private static final TextAttributes NOTE_ATTRIBUTES_HOVERED = createAttributes(NOTE_COLOR_HOVERED);
+
+    private static TextAttributes createAttributes(final Color color) {
         TextAttributes attrs = new TextAttributes();
-        attrs.setForegroundColor(isHovered ? NOTE_COLOR_HOVERED : NOTE_COLOR);
+        attrs.setForegroundColor(color);
         attrs.setFontType(Font.ITALIC);
         return attrs;
     }
+
+    private TextAttributes getAttributes(final Editor editor) {
+        return isHovered ? NOTE_ATTRIBUTES_HOVERED : NOTE_ATTRIBUTES;
+    }
 }
@@ -24,7 +24,9 @@
 
 package jp.kitabatakep.intellij.plugins.codereadingnote.remark;
 
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.FileEditorManagerListener;
@@ -33,8 +35,13 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
+import jp.kitabatakep.intellij.plugins.codereadingnote.operations.FileChangeRemapService;
+import jp.kitabatakep.intellij.plugins.codereadingnote.operations.LineFingerprint;
+import jp.kitabatakep.intellij.plugins.codereadingnote.operations.LineRelocationService;
+import jp.kitabatakep.intellij.plugins.codereadingnote.settings.EditorDecorationSettings;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class CodeRemarkEditorManagerListener implements FileEditorManagerListener {
@@ -49,11 +56,48 @@ public class CodeRemarkEditorManagerListener implements FileEditorManagerListene
         CodeReadingNoteService service = CodeReadingNoteService.getInstance(project);
         List<TopicLine> topicLines = service.listSource(project, file);
 
+        // Lines not tracked by a marker may have been shifted by changes made outside the editor
+        List<TopicLine> untracked = new ArrayList<>();
         for (TopicLine topicLine : topicLines) {
-            String noteText = StringUtils.spNote(topicLine.note());
-            String uid = topicLine.getBookmarkUid();
-            EditorUtils.addAfterLineCodeRemark(editor, topicLine.line(), noteText, uid);
-            EditorUtils.addGutterIcon(editor, project, topicLine.line(), uid, noteText);
+            if (!topicLine.isLineTracked()) {
+                untracked.add(topicLine);
+            }
+        }
+        LineRelocationService.getInstance(project)
+                .relocateAndNotify(editor.getDocument().getImmutableCharSequence(), untracked);
+
+        for (TopicLine topicLine : topicLines) {
+            topicLine.attachLineMarker(editor.getDocument());
+        }
+        EditorDecorationSettings settings = EditorDecorationSettings.getInstance();
+        if (settings.isViewportLazy(topicLines.size())) {
+            // decorate only what is on screen; the rest follows visible-area changes
+            ViewportNoteDecorator.install(editor, project, file, settings.getViewportMarginLines());
+        } else {
+            EditorUtils.addLineCodeRemarks(editor, project, topicLines);
+        }
+    }
+
+    @Override
+    public void fileClosed(@NotNull final FileEditorManager source, @NotNull final VirtualFile file) {
+        if (source.isFileOpen(file)) return;
+
+        CodeReadingNoteService service = source.getProject().getServiceIfCreated(CodeReadingNoteService.class);
+        if (service == null || !service.hasNotes(file)) return;
+
+        // Fingerprint the final content so later external changes can be followed
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        if (document != null) {
+            long[] lineHashes = LineFingerprint.lineHashes(document.getImmutableCharSequence());
+            LineRelocationService.getInstance(source.getProject())
+                    .captureFingerprints(lineHashes, service.listSource(source.getProject(), file));
+            // Baseline for diff-based remapping if the file is later rewritten on disk
+            FileChangeRemapService.getInstance(source.getProject()).rememberContent(file, lineHashes);
+        }
+
+        // Release the markers so closed documents can be collected; line() keeps the last position
+        for (TopicLine topicLine : service.listSource(source.getProject(), file)) {
+            topicLine.detachLineMarker();
         }
     }
 
@@ -24,8 +24,12 @@
 
 package jp.kitabatakep.intellij.plugins.codereadingnote.remark;
 
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.EditorCustomElementRenderer;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.InlayModel;
 import com.intellij.openapi.editor.ex.EditorEx;
 import com.intellij.openapi.editor.markup.HighlighterLayer;
 import com.intellij.openapi.editor.markup.HighlighterTargetArea;
@@ -34,14 +38,22 @@ import com.intellij.openapi.editor.markup.RangeHighlighter;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.fileEditor.TextEditor;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vfs.VirtualFile;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class EditorUtils {
 
+    private static final Logger LOG = Logger.getInstance(EditorUtils.class);
+
     public static VirtualFile getVirtualFile(@NotNull final Editor editor) {
         if (editor instanceof EditorEx)
             return ((EditorEx) editor).getVirtualFile();
@@ -65,10 +77,61 @@ public class EditorUtils {
         FileEditorManager instance = FileEditorManager.getInstance(project);
         Editor editor = getEditor(instance, _topicLine.file());
         if (editor != null) {
-            EditorUtils.clearAfterLineEndCodeRemark(editor, _topicLine.line());
+            EditorUtils.removeAfterLineCodeRemark(editor, _topicLine.line(), _topicLine.getBookmarkUid());
             EditorUtils.removeGutterIcon(editor, _topicLine.getBookmarkUid());
         }
     }
+
+    /**
+     * Bulk path for an editor that just opened: clears stale remarks once, then adds every
+     * inlay inside an InlayModel batch and registers the gutter icons, O(notes) overall.
+     * When several notes share a line the last one's inlay is shown, as with one-by-one adds.
+     * A note that fails is logged and skipped, the others are still decorated.
+     */
+    public static void addLineCodeRemarks(@NotNull final Editor editor, @NotNull final Project project,
+                                          @NotNull final List<TopicLine> topicLines) {
+        if (topicLines.isEmpty()) return;
+        final Document document = editor.getDocument();
+        final int lineCount = document.getLineCount();
+        final InlayModel inlayModel = editor.getInlayModel();
+
+        final NoteDecorationRegistry registry = NoteDecorationRegistry.of(editor);
+        final Map<Integer, String> inlayTexts = new HashMap<>();
+        final Map<Integer, String> inlayUids = new HashMap<>();
+        for (TopicLine topicLine : topicLines) {
+            int line = topicLine.line();
+            if (line < 0 || line >= lineCount) continue;
+            inlayTexts.put(line, StringUtils.spNote(topicLine.note()));
+            inlayUids.put(line, topicLine.getBookmarkUid());
+        }
+
+        inlayModel.execute(true, () -> {
+            for (Inlay<?> inlay : inlayModel.getAfterLineEndElementsInRange(
+                    0, document.getTextLength(), CodeRemarkEditorInlineInlayRenderer.class)) {
+                Disposer.dispose(inlay);
+            }
+            inlayTexts.forEach((line, text) -> {
+                String uid = inlayUids.get(line);
+                try {
+                    Inlay<?> inlay = inlayModel.addAfterLineEndElement(
+                            document.getLineEndOffset(line), true, new CodeRemarkEditorInlineInlayRenderer(text, uid));
+                    if (inlay != null && uid != null && !uid.isEmpty()) {
+                        registry.putInlay(uid, inlay);
+                    }
+                } catch (ProcessCanceledException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to add the note inlay at line " + line, e);
+                }
+            });
+        });
+
+        for (TopicLine topicLine : topicLines) {
+            addGutterIcon(editor, project, topicLine.line(),
+                    topicLine.getBookmarkUid(), StringUtils.spNote(topicLine.note()));
+        }
+    }
+
     public static Editor getEditor(@NotNull final FileEditorManager source, @NotNull final VirtualFile file) {
         final FileEditor fileEditor = source.getSelectedEditor(file);
         if (!(fileEditor instanceof TextEditor)) return null;
@@ -86,19 +149,50 @@ public class EditorUtils {
 
     public static void addAfterLineCodeRemark(@NotNull final Editor editor, final int lineNumber,
                                                @NotNull final String text, String topicLineUid) {
-        addAfterLineEndElement(editor, lineNumber, new CodeRemarkEditorInlineInlayRenderer(text, topicLineUid));
+        if (topicLineUid == null || topicLineUid.isEmpty()) {
+            addAfterLineEndElement(editor, lineNumber, new CodeRemarkEditorInlineInlayRenderer(text, topicLineUid));
+            return;
+        }
+        // the note may have moved since its inlay was added, drop it by uid rather than by line
+        disposeRegisteredInlay(editor, topicLineUid);
+        Inlay<?> inlay = addAfterLineEndElement(editor, lineNumber, new CodeRemarkEditorInlineInlayRenderer(text, topicLineUid));
+        if (inlay != null) {
+            NoteDecorationRegistry.of(editor).putInlay(topicLineUid, inlay);
+        }
     }
 
-    public static void addAfterLineEndElement(
+    /**
+     * Removes a note's inlay: the registered one if known, otherwise whatever remark sits on the line.
+     */
+    public static void removeAfterLineCodeRemark(@NotNull final Editor editor, final int lineNumber, String topicLineUid) {
+        if (topicLineUid != null && !topicLineUid.isEmpty() && disposeRegisteredInlay(editor, topicLineUid)) {
+            return;
+        }
+        clearAfterLineEndCodeRemark(editor, lineNumber);
+    }
+
+    private static boolean disposeRegisteredInlay(@NotNull final Editor editor, @NotNull final String topicLineUid) {
+        NoteDecorationRegistry registry = NoteDecorationRegistry.peek(editor);
+        Inlay<?> inlay = registry != null ? registry.takeInlay(topicLineUid) : null;
+        if (inlay == null) return false;
+        Disposer.dispose(inlay);
+        return true;
+    }
+
+    @Nullable
+    public static Inlay<?> addAfterLineEndElement(
             @NotNull final Editor editor, final int lineNumber, @NotNull final EditorCustomElementRenderer renderer) {
         try {
             // if exists, clear it.
             clearAfterLineEndElement(editor, lineNumber, renderer.getClass());
-            if (lineNumber > editor.getDocument().getLineCount()) return;
+            if (lineNumber >= editor.getDocument().getLineCount()) return null;
             final int endOffset = editor.getDocument().getLineEndOffset(lineNumber);
-            editor.getInlayModel().addAfterLineEndElement(endOffset, true, renderer);
-        } catch (final Throwable e) {
-            e.printStackTrace();
+            return editor.getInlayModel().addAfterLineEndElement(endOffset, true, renderer);
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to add the inlay at line " + lineNumber, e);
+            return null;
         }
     }
 
@@ -114,8 +208,10 @@ public class EditorUtils {
                     Disposer.dispose(inlay);
                 }
             });
-        } catch (final Throwable e) {
-            e.printStackTrace();
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to clear the inlays at line " + lineNumber, e);
         }
     }
 
@@ -135,26 +231,27 @@ public class EditorUtils {
                     startOffset, startOffset, HighlighterLayer.LAST,
                     null, HighlighterTargetArea.LINES_IN_RANGE);
             highlighter.setGutterIconRenderer(new NoteGutterIconRenderer(project, topicLineUid, notePreview));
-        } catch (final Throwable e) {
-            e.printStackTrace();
+            NoteDecorationRegistry.of(editor).putHighlighter(topicLineUid, highlighter);
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to add the gutter icon at line " + lineNumber, e);
         }
     }
 
     public static void removeGutterIcon(@NotNull final Editor editor, String topicLineUid) {
         try {
             if (topicLineUid == null || topicLineUid.isEmpty()) return;
-            MarkupModel markupModel = editor.getMarkupModel();
-            for (RangeHighlighter highlighter : markupModel.getAllHighlighters()) {
-                if (highlighter.getGutterIconRenderer() instanceof NoteGutterIconRenderer) {
-                    NoteGutterIconRenderer renderer = (NoteGutterIconRenderer) highlighter.getGutterIconRenderer();
-                    if (topicLineUid.equals(renderer.getTopicLineUid())) {
-                        markupModel.removeHighlighter(highlighter);
-                        return;
-                    }
-                }
+            NoteDecorationRegistry registry = NoteDecorationRegistry.peek(editor);
+            if (registry == null) return;
+            RangeHighlighter highlighter = registry.takeHighlighter(topicLineUid);
+            if (highlighter != null) {
+                editor.getMarkupModel().removeHighlighter(highlighter);
             }
-        } catch (final Throwable e) {
-            e.printStackTrace();
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to remove the gutter icon of note " + topicLineUid, e);
         }
     }
 
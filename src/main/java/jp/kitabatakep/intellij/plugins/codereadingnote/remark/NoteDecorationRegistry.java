@@ -0,0 +1,92 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.remark;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.util.Key;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-editor topicLineUid -> the note's gutter highlighter and after-line inlay, kept in editor user data.
+ * Lets a single note's decorations be found and replaced without scanning the editor's
+ * markup or inlay models. Entries may go stale when the editor disposes objects on its own,
+ * so lookups only return objects that are still valid.
+ */
+final class NoteDecorationRegistry {
+
+    private static final Key<NoteDecorationRegistry> KEY = Key.create("CodeReadingNote.noteDecorationRegistry");
+
+    private static final class Decorations {
+        RangeHighlighter highlighter;
+        Inlay<?> inlay;
+    }
+
+    private final Map<String, Decorations> byUid = new HashMap<>();
+
+    private NoteDecorationRegistry() {
+    }
+
+    @NotNull
+    static NoteDecorationRegistry of(@NotNull final Editor editor) {
+        NoteDecorationRegistry registry = editor.getUserData(KEY);
+        if (registry == null) {
+            registry = new NoteDecorationRegistry();
+            editor.putUserData(KEY, registry);
+        }
+        return registry;
+    }
+
+    @Nullable
+    static NoteDecorationRegistry peek(@NotNull final Editor editor) {
+        return editor.getUserData(KEY);
+    }
+
+    void putHighlighter(@NotNull final String uid, @NotNull final RangeHighlighter highlighter) {
+        byUid.computeIfAbsent(uid, k -> new Decorations()).highlighter = highlighter;
+    }
+
+    void putInlay(@NotNull final String uid, @NotNull final Inlay<?> inlay) {
+        byUid.computeIfAbsent(uid, k -> new Decorations()).inlay = inlay;
+    }
+
+    boolean hasInlay(@NotNull final String uid) {
+        Decorations decorations = byUid.get(uid);
+        return decorations != null && decorations.inlay != null && decorations.inlay.isValid();
+    }
+
+    /**
+     * Detaches and returns the note's highlighter if it is still alive.
+     */
+    @Nullable
+    RangeHighlighter takeHighlighter(@NotNull final String uid) {
+        Decorations decorations = byUid.get(uid);
+        if (decorations == null) return null;
+        RangeHighlighter highlighter = decorations.highlighter;
+        decorations.highlighter = null;
+        dropIfEmpty(uid, decorations);
+        return highlighter != null && highlighter.isValid() ? highlighter : null;
+    }
+
+    /**
+     * Detaches and returns the note's inlay if it is still alive.
+     */
+    @Nullable
+    Inlay<?> takeInlay(@NotNull final String uid) {
+        Decorations decorations = byUid.get(uid);
+        if (decorations == null) return null;
+        Inlay<?> inlay = decorations.inlay;
+        decorations.inlay = null;
+        dropIfEmpty(uid, decorations);
+        return inlay != null && inlay.isValid() ? inlay : null;
+    }
+
+    private void dropIfEmpty(@NotNull final String uid, @NotNull final Decorations decorations) {
+        if (decorations.highlighter == null && decorations.inlay == null) {
+            byUid.remove(uid);
+        }
+    }
+}
@@ -98,13 +98,6 @@ public class NoteGutterIconRenderer extends GutterIconRenderer {
     @Nullable
     private TopicLine findTopicLine() {
         CodeReadingNoteService service = CodeReadingNoteService.getInstance(project);
-        for (jp.kitabatakep.intellij.plugins.codereadingnote.Topic topic : service.getTopicList().getTopics()) {
-            for (TopicLine tl : topic.getLines()) {
-                if (topicLineUid.equals(tl.getBookmarkUid())) {
-                    return tl;
-                }
-            }
-        }
-        return null;
+        return service.getTopicList().findLineByUid(topicLineUid);
     }
 }
@@ -0,0 +1,131 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.remark;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.event.VisibleAreaEvent;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import com.intellij.openapi.editor.ex.util.EditorUtil;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Viewport-lazy decorations for heavily annotated files: only notes within the visible area
+ * plus a margin get an inlay and a gutter icon. Offscreen notes are tracked by their
+ * TopicLine RangeMarker only, and are decorated when scrolled into the window.
+ * Installed once per editor, disposed together with the editor.
+ */
+public class ViewportNoteDecorator implements VisibleAreaListener {
+
+    private static final Key<ViewportNoteDecorator> KEY = Key.create("CodeReadingNote.viewportNoteDecorator");
+
+    private final Editor editor;
+    private final Project project;
+    private final VirtualFile file;
+    private final int marginLines;
+
+    // currently decorated window of logical lines, inclusive
+    private int windowStart = -1;
+    private int windowEnd = -1;
+
+    private ViewportNoteDecorator(@NotNull Editor editor, @NotNull Project project,
+                                  @NotNull VirtualFile file, int marginLines) {
+        this.editor = editor;
+        this.project = project;
+        this.file = file;
+        this.marginLines = marginLines;
+    }
+
+    public static void install(@NotNull Editor editor, @NotNull Project project,
+                               @NotNull VirtualFile file, int marginLines) {
+        ViewportNoteDecorator decorator = editor.getUserData(KEY);
+        if (decorator == null) {
+            decorator = new ViewportNoteDecorator(editor, project, file, marginLines);
+            editor.putUserData(KEY, decorator);
+            Disposable disposable = Disposer.newDisposable("CodeReadingNote.viewportNoteDecorator");
+            EditorUtil.disposeWithEditor(editor, disposable);
+            editor.getScrollingModel().addVisibleAreaListener(decorator, disposable);
+        }
+        decorator.refresh(true);
+    }
+
+    public static boolean isInstalled(@NotNull Editor editor) {
+        return editor.getUserData(KEY) != null;
+    }
+
+    @Override
+    public void visibleAreaChanged(@NotNull VisibleAreaEvent e) {
+        refresh(false);
+    }
+
+    /**
+     * Re-materializes the window around the visible area. Cheap no-op while the visible
+     * lines stay inside the decorated window, unless forced.
+     */
+    public void refresh(boolean force) {
+        if (editor.isDisposed() || project.isDisposed()) return;
+
+        int lineCount = editor.getDocument().getLineCount();
+        if (lineCount == 0) return;
+        int[] visible = visibleLines(lineCount);
+        if (!force && windowStart >= 0 && visible[0] >= windowStart && visible[1] <= windowEnd) {
+            return;
+        }
+        windowStart = Math.max(0, visible[0] - marginLines);
+        windowEnd = Math.min(lineCount - 1, visible[1] + marginLines);
+
+        CodeReadingNoteService service = project.getServiceIfCreated(CodeReadingNoteService.class);
+        if (service == null) return;
+
+        NoteDecorationRegistry registry = NoteDecorationRegistry.of(editor);
+        List<TopicLine> toAdd = new ArrayList<>();
+        for (TopicLine topicLine : service.listSource(project, file)) {
+            String uid = topicLine.getBookmarkUid();
+            int line = topicLine.line();
+            boolean inWindow = line >= windowStart && line <= windowEnd;
+            if (uid == null || uid.isEmpty()) {
+                // not addressable by uid, keep the eager behaviour
+                if (inWindow || force) toAdd.add(topicLine);
+            } else if (inWindow) {
+                if (!registry.hasInlay(uid)) toAdd.add(topicLine);
+            } else {
+                if (registry.hasInlay(uid)) {
+                    EditorUtils.removeAfterLineCodeRemark(editor, line, uid);
+                }
+                EditorUtils.removeGutterIcon(editor, uid);
+            }
+        }
+        if (toAdd.isEmpty()) return;
+
+        editor.getInlayModel().execute(true, () -> {
+            for (TopicLine topicLine : toAdd) {
+                EditorUtils.addAfterLineCodeRemark(editor, topicLine.line(),
+                        StringUtils.spNote(topicLine.note()), topicLine.getBookmarkUid());
+            }
+        });
+        for (TopicLine topicLine : toAdd) {
+            EditorUtils.addGutterIcon(editor, project, topicLine.line(),
+                    topicLine.getBookmarkUid(), StringUtils.spNote(topicLine.note()));
+        }
+    }
+
+    private int[] visibleLines(int lineCount) {
+        Rectangle area = editor.getScrollingModel().getVisibleArea();
+        if (area.height <= 0) {
+            // not laid out yet, center on the caret
+            int caretLine = editor.getCaretModel().getLogicalPosition().line;
+            return new int[]{caretLine, caretLine};
+        }
+        int first = editor.xyToLogicalPosition(new Point(area.x, area.y)).line;
+        int last = editor.xyToLogicalPosition(new Point(area.x, area.y + area.height)).line;
+        return new int[]{Math.max(0, first), Math.min(lineCount - 1, last)};
+    }
+}
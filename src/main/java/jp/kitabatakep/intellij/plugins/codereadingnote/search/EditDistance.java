@@ -0,0 +1,176 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.search;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Levenshtein distance of one query against many texts, bounded by a maximum distance.
+ * Queries up to 64 characters use Myers' bit-parallel algorithm (in Hyyrö's formulation): the
+ * query's column of the DP matrix is kept as two bit vectors of +1/-1 vertical deltas and each
+ * text character advances it with a handful of word operations, so a text of length n costs O(n)
+ * with no allocation. The character masks are built once per query.
+ * Longer queries fall back to a two-row DP that stops as soon as a column exceeds the bound.
+ * substringDistance() runs the same loops with a free first row, so the query may start and end
+ * anywhere in the text, and scans the whole text.
+ * Not thread-safe, build one per search.
+ */
+final class EditDistance
+{
+    private static final int WORD = 64;
+
+    private final String pattern;
+    private final int m;
+    // query positions of each character, bit i set if pattern[i] == c
+    private final long[] asciiMasks = new long[128];
+    private final char[] otherChars;
+    private final long[] otherMasks;
+    // DP rows for queries longer than WORD
+    private int[] previous;
+    private int[] current;
+
+    EditDistance(@NotNull String pattern)
+    {
+        this.pattern = pattern;
+        this.m = pattern.length();
+
+        char[] others = new char[0];
+        if (m <= WORD) {
+            for (int i = 0; i < m; i++) {
+                char ch = pattern.charAt(i);
+                if (ch < 128) {
+                    asciiMasks[ch] |= 1L << i;
+                } else if (Arrays.binarySearch(others, ch) < 0) {
+                    others = Arrays.copyOf(others, others.length + 1);
+                    others[others.length - 1] = ch;
+                    Arrays.sort(others);
+                }
+            }
+        }
+        otherChars = others;
+        otherMasks = new long[others.length];
+        for (int i = 0; i < m && m <= WORD; i++) {
+            char ch = pattern.charAt(i);
+            if (ch >= 128) {
+                otherMasks[Arrays.binarySearch(otherChars, ch)] |= 1L << i;
+            }
+        }
+    }
+
+    int length()
+    {
+        return m;
+    }
+
+    /**
+     * Edit distance between the query and the whole text.
+     * @return the distance, or any value above maxDistance once it is known to exceed it
+     */
+    int distance(@NotNull CharSequence text, int maxDistance)
+    {
+        int n = text.length();
+        if (Math.abs(n - m) > maxDistance) {
+            return maxDistance + 1;
+        }
+        if (m == 0) {
+            return n;
+        }
+        return m <= WORD ? myers(text, maxDistance, true) : rows(text, maxDistance, true);
+    }
+
+    /**
+     * Smallest edit distance between the query and any substring of the text
+     * (approximate substring matching).
+     * @return the distance, or any value above maxDistance once it is known to exceed it
+     */
+    int substringDistance(@NotNull CharSequence text, int maxDistance)
+    {
+        if (m == 0) {
+            return 0;
+        }
+        return m <= WORD ? myers(text, maxDistance, false) : rows(text, maxDistance, false);
+    }
+
+    private long mask(char ch)
+    {
+        if (ch < 128) {
+            return asciiMasks[ch];
+        }
+        int index = otherChars.length == 0 ? -1 : Arrays.binarySearch(otherChars, ch);
+        return index >= 0 ? otherMasks[index] : 0;
+    }
+
+    private int myers(CharSequence text, int maxDistance, boolean global)
+    {
+        int n = text.length();
+        long last = 1L << (m - 1);
+        long pv = -1L;
+        long mv = 0;
+        // D[m][j], the bottom of the current column
+        int score = m;
+        int best = m;
+
+        for (int j = 0; j < n; j++) {
+            long eq = mask(text.charAt(j));
+            long xv = eq | mv;
+            long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & last) != 0) {
+                score++;
+            } else if ((mh & last) != 0) {
+                score--;
+            }
+            // Global distance: the first row grows by one per text character, substring: stays 0
+            ph = global ? (ph << 1) | 1 : ph << 1;
+            mh <<= 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
+
+            if (global) {
+                // The bottom row changes by at most one per remaining character
+                if (score - (n - j - 1) > maxDistance) {
+                    return maxDistance + 1;
+                }
+            } else if (score < best) {
+                best = score;
+            }
+        }
+        return global ? score : best;
+    }
+
+    private int rows(CharSequence text, int maxDistance, boolean global)
+    {
+        if (previous == null) {
+            previous = new int[m + 1];
+            current = new int[m + 1];
+        }
+        int[] prev = previous;
+        int[] cur = current;
+        for (int i = 0; i <= m; i++) {
+            prev[i] = i;
+        }
+        int best = m;
+
+        for (int j = 1; j <= text.length(); j++) {
+            char ch = text.charAt(j - 1);
+            cur[0] = global ? j : 0;
+            int columnMin = cur[0];
+            for (int i = 1; i <= m; i++) {
+                int cost = pattern.charAt(i - 1) == ch ? 0 : 1;
+                cur[i] = Math.min(Math.min(prev[i] + 1, cur[i - 1] + 1), prev[i - 1] + cost);
+                columnMin = Math.min(columnMin, cur[i]);
+            }
+            int[] swap = prev;
+            prev = cur;
+            cur = swap;
+            if (!global) {
+                best = Math.min(best, prev[m]);
+            } else if (columnMin > maxDistance) {
+                // Column minima never decrease
+                return maxDistance + 1;
+            }
+        }
+        return global ? prev[m] : best;
+    }
+}
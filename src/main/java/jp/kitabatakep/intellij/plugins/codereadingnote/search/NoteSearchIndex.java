@@ -0,0 +1,514 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.search;
+
+import com.intellij.openapi.progress.ProgressManager;
+import jp.kitabatakep.intellij.plugins.codereadingnote.Topic;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Inverted index over the notes of all topics, used by SearchService to score only the notes that
+ * can reach the 0.1 threshold:
+ * <ul>
+ *   <li>per character of the lowercase note: the notes containing it and how often, which gives the
+ *       character overlap score directly and an upper bound for the edit distance score</li>
+ *   <li>per character and per trigram of the lowercase note, its first letters and full pinyin:
+ *       the notes containing it, narrowing the candidates of (pinyin) substring matches</li>
+ * </ul>
+ * A note whose overlap with the query is at most a quarter of the query can't pass by edit
+ * distance or overlap, and one missing a query trigram can't match as a substring, so the
+ * results equal a full scan.
+ * CodeReadingNoteService reports note changes from TopicNotifier events on the EDT. Those calls
+ * only queue the change with a sequence number and never wait for a search; the searcher applies
+ * the queue before scoring, so the postings are only touched by one search thread at a time.
+ * The index is built from the NoteSnapshot of the first search after an invalidate(), and changes
+ * the snapshot already holds are skipped by their sequence number.
+ * The sequence also advances on structureChanged(), so an unchanged sequence means the notes, their
+ * order and grouping are those of the last snapshot, and snapshot() hands that one out again
+ * instead of copying every note on the EDT for each query.
+ */
+public class NoteSearchIndex
+{
+    // Beyond this many queued changes before a search applies them, rebuild instead
+    private static final int MAX_QUEUED = 10_000;
+
+    private static final int UPDATE = 0;
+    private static final int REMOVE = 1;
+    private static final int RESET = 2;
+
+    // Written from the EDT, drained by searchers
+    private final ConcurrentLinkedQueue<Mutation> mutations = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    // Everything below is guarded by this, only searchers take it
+    private final Map<TopicLine, Entry> entries = new IdentityHashMap<>();
+    private Entry[] byId = new Entry[64];
+    private final ArrayList<Integer> freeIds = new ArrayList<>();
+    private int idLimit;
+    // character of the lowercase note -> notes and occurrence counts
+    private final Map<Character, Postings> textChars = new HashMap<>();
+    // character of the note, first letters or full pinyin -> notes
+    private final Map<Long, Postings> trigrams = new HashMap<>();
+    private final Map<Character, Postings> anyChars = new HashMap<>();
+    private boolean built;
+    // Sequence of the last invalidate(), a snapshot taken before it can't build the index
+    private long resetSequence;
+    // Changes drained while the index is not built, applied on top of the snapshot it is built from
+    private final List<Mutation> pending = new ArrayList<>();
+
+    // Set on the EDT, dropped by invalidate(): the last snapshot and the topic list it was taken
+    // from; the sequence check alone decides whether it is still current
+    private NoteSnapshot lastSnapshot;
+    private List<Topic> lastTopics;
+
+    private static final class Mutation
+    {
+        final long sequence;
+        final int kind;
+        final TopicLine line;
+        // the note when the change was made, searchers don't read the live one
+        final String note;
+
+        Mutation(long sequence, int kind, TopicLine line, String note)
+        {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.line = line;
+            this.note = note;
+        }
+    }
+
+    static final class Entry
+    {
+        final int id;
+        final TopicLine line;
+        // The forms that were indexed, removal walks the same postings
+        final String lower;
+        final String firstLetters;
+        final String fullPinyin;
+
+        Entry(int id, TopicLine line, SearchText text)
+        {
+            this.id = id;
+            this.line = line;
+            this.lower = text.lowerCase();
+            this.firstLetters = text.firstLetters();
+            this.fullPinyin = text.fullPinyin();
+        }
+    }
+
+    /**
+     * Forget everything, the next search rebuilds from its snapshot.
+     */
+    public void invalidate()
+    {
+        lastSnapshot = null;
+        lastTopics = null;
+        mutations.clear();
+        queued.set(0);
+        enqueue(RESET, null, null);
+    }
+
+    public void addTopic(@NotNull Topic topic)
+    {
+        for (TopicLine line : topic.linesView()) {
+            update(line);
+        }
+    }
+
+    public void removeTopic(@NotNull Topic topic)
+    {
+        for (TopicLine line : topic.linesView()) {
+            remove(line);
+        }
+    }
+
+    /**
+     * Index the line's current note, replacing what was indexed for it before.
+     */
+    public void update(@NotNull TopicLine line)
+    {
+        enqueue(UPDATE, line, line.note());
+    }
+
+    public void remove(@NotNull TopicLine line)
+    {
+        enqueue(REMOVE, line, null);
+    }
+
+    private void enqueue(int kind, TopicLine line, String note)
+    {
+        if (kind != RESET && queued.get() >= MAX_QUEUED) {
+            // No search for a long time, a rebuild is cheaper than replaying all of it
+            invalidate();
+            return;
+        }
+        mutations.add(new Mutation(sequence.incrementAndGet(), kind, line, note));
+        queued.incrementAndGet();
+    }
+
+    /**
+     * Lines were reordered or regrouped, or topics reordered, without a note changing: nothing to
+     * index, but the next search needs a new snapshot.
+     */
+    public void structureChanged()
+    {
+        sequence.incrementAndGet();
+    }
+
+    /**
+     * Snapshot of all notes for a search, the previous one while nothing changed since. Call on
+     * the EDT.
+     * @param topics all of the project's topics
+     */
+    @NotNull
+    public NoteSnapshot snapshot(@NotNull List<Topic> topics)
+    {
+        NoteSnapshot snapshot = lastSnapshot;
+        if (snapshot != null && lastTopics == topics && snapshot.sequence == sequence()) {
+            return snapshot;
+        }
+        snapshot = NoteSnapshot.of(topics, this);
+        lastSnapshot = snapshot;
+        lastTopics = topics;
+        return snapshot;
+    }
+
+    /**
+     * Sequence number of the last queued change or structure change, recorded by NoteSnapshot.
+     */
+    long sequence()
+    {
+        return sequence.get();
+    }
+
+    /**
+     * Apply the queued changes and build the index from the snapshot if needed.
+     * @return false if the index is not built and the snapshot predates the last invalidate()
+     */
+    private boolean catchUp(NoteSnapshot snapshot)
+    {
+        Mutation mutation;
+        while ((mutation = mutations.poll()) != null) {
+            queued.decrementAndGet();
+            if (mutation.kind == RESET) {
+                clear();
+                pending.clear();
+                resetSequence = mutation.sequence;
+            } else if (built) {
+                apply(mutation);
+            } else {
+                pending.add(mutation);
+            }
+        }
+        if (built) {
+            return true;
+        }
+        if (snapshot.index != this || snapshot.sequence < resetSequence) {
+            return false;
+        }
+
+        try {
+            for (NoteSnapshot.Entry entry : snapshot.entries) {
+                ProgressManager.checkCanceled();
+                removeEntry(entry.line);
+                add(entry.line, entry.note);
+            }
+        } catch (RuntimeException e) {
+            // Cancelled, don't keep a partial index; pending stays for the next build
+            clear();
+            throw e;
+        }
+        for (Mutation later : pending) {
+            if (later.sequence > snapshot.sequence) {
+                apply(later);
+            }
+        }
+        pending.clear();
+        built = true;
+        return true;
+    }
+
+    private void clear()
+    {
+        entries.clear();
+        byId = new Entry[64];
+        freeIds.clear();
+        idLimit = 0;
+        textChars.clear();
+        anyChars.clear();
+        trigrams.clear();
+        built = false;
+    }
+
+    private void apply(Mutation mutation)
+    {
+        removeEntry(mutation.line);
+        if (mutation.kind == UPDATE) {
+            add(mutation.line, mutation.note);
+        }
+    }
+
+    private void removeEntry(TopicLine line)
+    {
+        Entry entry = entries.remove(line);
+        if (entry == null) return;
+
+        for (char ch : countChars(entry.lower).keySet()) {
+            removePosting(textChars, ch, entry.id);
+        }
+        for (char ch : distinctChars(entry)) {
+            removePosting(anyChars, ch, entry.id);
+        }
+        for (long gram : distinctTrigrams(entry)) {
+            removePosting(trigrams, gram, entry.id);
+        }
+        byId[entry.id] = null;
+        freeIds.add(entry.id);
+    }
+
+    private void add(TopicLine line, String note)
+    {
+        if (note == null || note.isEmpty()) return;
+
+        int id = freeIds.isEmpty() ? idLimit++ : freeIds.remove(freeIds.size() - 1);
+        if (id >= byId.length) {
+            Entry[] grown = new Entry[Math.max(id + 1, byId.length * 2)];
+            System.arraycopy(byId, 0, grown, 0, byId.length);
+            byId = grown;
+        }
+        // Shares the line's cached transliteration with SearchService.calculateSimilarity
+        SearchText text = line.searchText();
+        Entry entry = new Entry(id, line, text.isOf(note) ? text : SearchText.of(note));
+        String lower = entry.lower;
+        entries.put(line, entry);
+        byId[id] = entry;
+
+        for (Map.Entry<Character, Integer> count : countChars(lower).entrySet()) {
+            textChars.computeIfAbsent(count.getKey(), k -> new Postings()).add(id, count.getValue());
+        }
+        for (char ch : distinctChars(entry)) {
+            anyChars.computeIfAbsent(ch, k -> new Postings()).add(id, 0);
+        }
+        for (long gram : distinctTrigrams(entry)) {
+            trigrams.computeIfAbsent(gram, k -> new Postings()).add(id, 0);
+        }
+    }
+
+    /**
+     * Score every note that can pass the threshold, with the same scores as
+     * SearchService.calculateSimilarity. Call off the EDT.
+     * @param snapshot taken with this index, builds it on the first search
+     * @param query trimmed, non-empty query
+     * @return line -> score, only scores above the threshold; null if the index can't serve a
+     * snapshot this old, scan the snapshot instead
+     */
+    @Nullable
+    synchronized Map<TopicLine, Double> score(@NotNull NoteSnapshot snapshot, @NotNull String query, double threshold)
+    {
+        if (!catchUp(snapshot)) {
+            return null;
+        }
+        Map<TopicLine, Double> result = new IdentityHashMap<>();
+        String q = query.toLowerCase();
+        if (q.isEmpty() || entries.isEmpty()) return result;
+
+        // Character overlap, sum over query characters of min(count in query, count in note)
+        int[] overlap = new int[idLimit];
+        for (Map.Entry<Character, Integer> count : countChars(q).entrySet()) {
+            Postings postings = textChars.get(count.getKey());
+            if (postings == null) continue;
+            int queryCount = count.getValue();
+            for (int i = 0; i < postings.size; i++) {
+                overlap[postings.ids[i]] += Math.min(queryCount, postings.counts[i]);
+            }
+        }
+
+        boolean[] substring = substringCandidates(q);
+        EditDistance pattern = new EditDistance(q);
+
+        for (int id = 0; id < idLimit; id++) {
+            Entry entry = byId[id];
+            if (entry == null) continue;
+            // Scoring only reads, cancelling here leaves the index intact (unlike the build)
+            ProgressManager.checkCanceled();
+            int matched = overlap[id];
+            boolean maySubstring = substring[id];
+            // Below a quarter of the query neither edit distance nor overlap reaches 0.1
+            if (!maySubstring && matched * 4 <= q.length()) continue;
+
+            double score = scoreEntry(entry, q, pattern, matched, maySubstring, threshold);
+            if (score > threshold) {
+                result.put(entry.line, score);
+            }
+        }
+        return result;
+    }
+
+    private static double scoreEntry(Entry entry, String q, EditDistance pattern, int matched, boolean maySubstring,
+                                     double threshold)
+    {
+        String text = entry.lower;
+        double maxScore = 0;
+        if (maySubstring) {
+            if (text.equals(q)) {
+                return 1.0;
+            }
+            int index = text.indexOf(q);
+            if (index >= 0) {
+                double positionScore = 1.0 - (index / (double) text.length()) * 0.3;
+                double coverageScore = q.length() / (double) text.length();
+                maxScore = Math.max(maxScore, 0.6 + positionScore * 0.2 + coverageScore * 0.2);
+            }
+            if (entry.firstLetters.contains(q)) {
+                maxScore = Math.max(maxScore, 0.5);
+            }
+            if (entry.fullPinyin.contains(q)) {
+                maxScore = Math.max(maxScore, 0.55);
+            }
+        }
+
+        maxScore = Math.max(maxScore, matched / (double) q.length() * 0.3);
+
+        // An alignment matches at most `matched` characters, so the query needs at least
+        // q.length() - matched edits against any part of the note: both edit scores are at most
+        // 0.4 * matched / q.length()
+        double editBound = 0.4 * matched / q.length();
+        if (editBound > maxScore) {
+            maxScore = Math.max(maxScore,
+                SearchService.calculateEditDistanceScore(text, pattern, Math.max(maxScore, threshold)));
+        }
+        return maxScore;
+    }
+
+    /**
+     * Notes whose text, first letters or full pinyin hold every query trigram (every query
+     * character for shorter queries). A superset of the substring matches.
+     */
+    private boolean[] substringCandidates(String q)
+    {
+        boolean[] candidates = new boolean[idLimit];
+        List<Postings> lists = new ArrayList<>();
+        if (q.length() >= 3) {
+            Set<Long> grams = new HashSet<>();
+            addTrigrams(q, grams);
+            for (long gram : grams) {
+                Postings postings = trigrams.get(gram);
+                if (postings == null) return candidates;
+                lists.add(postings);
+            }
+        } else {
+            for (char ch : countChars(q).keySet()) {
+                Postings postings = anyChars.get(ch);
+                if (postings == null) return candidates;
+                lists.add(postings);
+            }
+        }
+
+        // Each list holds a note at most once, a note in all of them was counted lists.size() times
+        int[] hits = new int[idLimit];
+        for (Postings postings : lists) {
+            for (int i = 0; i < postings.size; i++) {
+                hits[postings.ids[i]]++;
+            }
+        }
+        for (int id = 0; id < idLimit; id++) {
+            candidates[id] = hits[id] == lists.size();
+        }
+        return candidates;
+    }
+
+    private static Map<Character, Integer> countChars(String text)
+    {
+        Map<Character, Integer> counts = new HashMap<>();
+        for (int i = 0; i < text.length(); i++) {
+            counts.merge(text.charAt(i), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    private static Set<Character> distinctChars(Entry entry)
+    {
+        Set<Character> chars = new HashSet<>();
+        for (String text : new String[]{entry.lower, entry.firstLetters, entry.fullPinyin}) {
+            for (int i = 0; i < text.length(); i++) {
+                chars.add(text.charAt(i));
+            }
+        }
+        return chars;
+    }
+
+    private static Set<Long> distinctTrigrams(Entry entry)
+    {
+        Set<Long> grams = new HashSet<>();
+        addTrigrams(entry.lower, grams);
+        if (!entry.firstLetters.equals(entry.lower)) {
+            addTrigrams(entry.firstLetters, grams);
+        }
+        if (!entry.fullPinyin.equals(entry.lower)) {
+            addTrigrams(entry.fullPinyin, grams);
+        }
+        return grams;
+    }
+
+    private static void addTrigrams(String text, Set<Long> grams)
+    {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            grams.add(((long) text.charAt(i) << 32) | ((long) text.charAt(i + 1) << 16) | text.charAt(i + 2));
+        }
+    }
+
+    private static <K> void removePosting(Map<K, Postings> index, K key, int id)
+    {
+        Postings postings = index.get(key);
+        if (postings != null && postings.remove(id) && postings.size == 0) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Unordered note ids with an optional count each; removal swaps in the last element.
+     */
+    private static final class Postings
+    {
+        int[] ids = new int[4];
+        int[] counts = new int[4];
+        int size;
+
+        void add(int id, int count)
+        {
+            if (size == ids.length) {
+                ids = java.util.Arrays.copyOf(ids, size * 2);
+                counts = java.util.Arrays.copyOf(counts, size * 2);
+            }
+            ids[size] = id;
+            counts[size] = count;
+            size++;
+        }
+
+        boolean remove(int id)
+        {
+            for (int i = 0; i < size; i++) {
+                if (ids[i] == id) {
+                    size--;
+                    ids[i] = ids[size];
+                    counts[i] = counts[size];
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.search;
+
+import jp.kitabatakep.intellij.plugins.codereadingnote.Topic;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicGroup;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 搜索用的笔记快照：每条笔记的 TopicLine、所属 Topic 和分组、笔记文本
+ * Taken on the EDT, where topics and notes are edited, so a search on a pooled thread reads only
+ * this copy and never the live line lists. Lines in search result order: per topic the ungrouped
+ * lines, then each group's lines. Never modified, so NoteSearchIndex.snapshot() hands the same one
+ * to every search until a note, the line order or the grouping changes.
+ */
+public final class NoteSnapshot
+{
+    static final class Entry
+    {
+        final TopicLine line;
+        final Topic topic;
+        final TopicGroup group;
+        final String note;
+
+        Entry(TopicLine line, Topic topic, TopicGroup group, String note)
+        {
+            this.line = line;
+            this.topic = topic;
+            this.group = group;
+            this.note = note;
+        }
+
+        /**
+         * The line's cached transliteration when it is still of this note, else computed here.
+         */
+        SearchText searchText()
+        {
+            SearchText text = line.searchText();
+            return text.isOf(note) ? text : SearchText.of(note);
+        }
+    }
+
+    final List<Entry> entries;
+    // The project's index when these are all of its notes, with its mutation sequence at this point
+    @Nullable final NoteSearchIndex index;
+    final long sequence;
+
+    private NoteSnapshot(List<Entry> entries, @Nullable NoteSearchIndex index)
+    {
+        this.entries = entries;
+        this.index = index;
+        this.sequence = index != null ? index.sequence() : 0;
+    }
+
+    /**
+     * Call on the EDT.
+     * @param index the project's note index if topics are all of the project's topics, else null
+     */
+    @NotNull
+    public static NoteSnapshot of(@NotNull List<Topic> topics, @Nullable NoteSearchIndex index)
+    {
+        List<Entry> entries = new ArrayList<>();
+        for (Topic topic : topics) {
+            for (TopicLine line : topic.getUngroupedLines()) {
+                entries.add(new Entry(line, topic, null, line.note()));
+            }
+            for (TopicGroup group : topic.getGroups()) {
+                for (TopicLine line : group.getLines()) {
+                    entries.add(new Entry(line, topic, group, line.note()));
+                }
+            }
+        }
+        return new NoteSnapshot(Collections.unmodifiableList(entries), index);
+    }
+}
@@ -4,8 +4,10 @@ import com.intellij.ide.bookmark.Bookmark;
 import com.intellij.ide.bookmark.BookmarkGroup;
 import com.intellij.ide.bookmark.BookmarksManager;
 import com.intellij.ide.bookmark.LineBookmark;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteService;
 import jp.kitabatakep.intellij.plugins.codereadingnote.Topic;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicGroup;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
@@ -23,6 +25,9 @@ import java.util.stream.Collectors;
  */
 public class SearchService {
     
+    // 只返回评分大于该阈值的结果
+    static final double SCORE_THRESHOLD = 0.1;
+    
     /**
      * 搜索结果类
      */
@@ -75,30 +80,51 @@ public class SearchService {
      * @return 排序后的搜索结果列表
      */
     public static List<SearchResult> search(List<Topic> topics, String query) {
+        return search(NoteSnapshot.of(topics, null), query);
+    }
+    
+    /**
+     * 通过倒排索引搜索，结果与 search(topics, query) 一致：只对可能超过阈值的笔记评分
+     * @param topics 要搜索的Topic列表，须与索引覆盖的 Topic 相同
+     * @param index 项目的笔记索引
+     * @param query 搜索关键词
+     * @return 排序后的搜索结果列表
+     */
+    public static List<SearchResult> search(List<Topic> topics, NoteSearchIndex index, String query) {
+        return search(index.snapshot(topics), query);
+    }
+    
+    /**
+     * 在快照中搜索，可在后台线程调用：只读取快照，不访问 Topic 的行列表
+     * 快照带有索引时只对可能超过阈值的笔记评分，否则全量扫描
+     * @param snapshot 在 EDT 上取得的笔记快照
+     * @param query 搜索关键词
+     * @return 排序后的搜索结果列表
+     */
+    public static List<SearchResult> search(NoteSnapshot snapshot, String query) {
         if (query == null || query.trim().isEmpty()) {
             return Collections.emptyList();
         }
         
-        query = query.trim();
+        Map<TopicLine, Double> scores = snapshot.index != null
+            ? snapshot.index.score(snapshot, query.trim(), SCORE_THRESHOLD) : null;
+        query = query.trim().toLowerCase();
+        EditDistance pattern = scores == null ? new EditDistance(query) : null;
         List<SearchResult> results = new ArrayList<>();
         
-        for (Topic topic : topics) {
-            // 搜索未分组的TopicLine
-            for (TopicLine line : topic.getUngroupedLines()) {
-                SearchResult result = matchLine(line, topic, null, query);
-                if (result != null) {
-                    results.add(result);
-                }
+        // 按快照顺序收集，同分结果保持与全量扫描相同的顺序
+        for (NoteSnapshot.Entry entry : snapshot.entries) {
+            // 在后台搜索时响应取消，EDT 上调用时不起作用
+            ProgressManager.checkCanceled();
+            SearchResult result;
+            if (scores != null) {
+                Double score = scores.get(entry.line);
+                result = score != null ? new SearchResult(entry.line, entry.topic, entry.group, score, entry.note) : null;
+            } else {
+                result = matchLine(entry, query, pattern);
             }
-            
-            // 搜索分组中的TopicLine
-            for (TopicGroup group : topic.getGroups()) {
-                for (TopicLine line : group.getLines()) {
-                    SearchResult result = matchLine(line, topic, group, query);
-                    if (result != null) {
-                        results.add(result);
-                    }
-                }
+            if (result != null) {
+                results.add(result);
             }
         }
         
@@ -109,19 +135,34 @@ public class SearchService {
     }
     
     /**
-     * 匹配单个TopicLine
+     * 在 EDT 上取得搜索快照；topics 为项目的全部 Topic 时由项目的笔记索引提供，笔记未变化时复用上次的快照
+     */
+    public static NoteSnapshot snapshot(Project project, List<Topic> topics) {
+        if (project != null && !project.isDisposed()) {
+            CodeReadingNoteService service = CodeReadingNoteService.getInstance(project);
+            if (topics == service.getTopicList().getTopics()) {
+                return service.getSearchIndex().snapshot(topics);
+            }
+        }
+        return NoteSnapshot.of(topics, null);
+    }
+    
+    /**
+     * 匹配单个笔记
+     * @param query 已转为小写的关键词
      */
-    private static SearchResult matchLine(TopicLine line, Topic topic, TopicGroup group, String query) {
-        String note = line.note();
+    private static SearchResult matchLine(NoteSnapshot.Entry entry, String query, EditDistance pattern) {
+        String note = entry.note;
         if (note == null || note.isEmpty()) {
             return null;
         }
         
-        double score = calculateSimilarity(note, query);
+        // 小写文本和拼音缓存在 TopicLine 上，笔记修改时才重新计算
+        double score = calculateSimilarity(entry.searchText(), query, pattern);
         
         // 只返回评分大于阈值的结果
-        if (score > 0.1) {
-            return new SearchResult(line, topic, group, score, note);
+        if (score > SCORE_THRESHOLD) {
+            return new SearchResult(entry.line, entry.topic, entry.group, score, note);
         }
         
         return null;
@@ -129,15 +170,13 @@ public class SearchService {
     
     /**
      * 计算相似度评分
-     * 综合考虑多种匹配方式，返回0-1之间的评分
+     * 综合考虑多种匹配方式，返回0-1之间的评分；不超过阈值的评分不保证精确
+     * @param searchText 笔记的小写文本和拼音
+     * @param query 已转为小写的关键词
+     * @param pattern 由 query 构建，整个搜索复用
      */
-    private static double calculateSimilarity(String text, String query) {
-        if (text == null || query == null) {
-            return 0;
-        }
-        
-        text = text.toLowerCase();
-        query = query.toLowerCase();
+    static double calculateSimilarity(SearchText searchText, String query, EditDistance pattern) {
+        String text = searchText.lowerCase();
         
         double maxScore = 0;
         
@@ -156,78 +195,70 @@ public class SearchService {
         }
         
         // 3. 拼音首字母匹配 - 中等分数
-        String firstLetters = PinyinUtils.getFirstLetters(text);
+        String firstLetters = searchText.firstLetters();
         if (firstLetters.contains(query)) {
             maxScore = Math.max(maxScore, 0.5);
         }
         
         // 4. 完整拼音匹配 - 中等分数
-        String fullPinyin = PinyinUtils.getFullPinyin(text);
+        String fullPinyin = searchText.fullPinyin();
         if (fullPinyin.contains(query)) {
             maxScore = Math.max(maxScore, 0.55);
         }
         
-        // 5. 编辑距离匹配 - 低分（用于模糊匹配）
-        double editDistanceScore = calculateEditDistanceScore(text, query);
-        maxScore = Math.max(maxScore, editDistanceScore);
-        
-        // 6. 字符重叠匹配 - 最低分（类似向量搜索的概念）
+        // 5. 字符重叠匹配 - 最低分（类似向量搜索的概念）
+        // 先于编辑距离计算，以便提高编辑距离的截断门槛
         double overlapScore = calculateCharacterOverlapScore(text, query);
         maxScore = Math.max(maxScore, overlapScore);
         
+        // 6. 编辑距离匹配 - 低分（用于模糊匹配），只需判断能否超过当前最高分和阈值
+        double editDistanceScore = calculateEditDistanceScore(text, pattern, Math.max(maxScore, SCORE_THRESHOLD));
+        maxScore = Math.max(maxScore, editDistanceScore);
+        
         return maxScore;
     }
     
     /**
      * 基于编辑距离计算评分
-     * Levenshtein距离算法
+     * 取整段笔记与关键词的距离，和笔记中最接近关键词的一段（近似子串）的距离，两者评分的较大值；
+     * 评分无法超过 mustBeat 时返回 0 或不超过 mustBeat 的值
      */
-    private static double calculateEditDistanceScore(String text, String query) {
-        int distance = levenshteinDistance(text, query);
-        int maxLength = Math.max(text.length(), query.length());
+    static double calculateEditDistanceScore(String text, EditDistance pattern, double mustBeat) {
+        int maxLength = Math.max(text.length(), pattern.length());
         
         if (maxLength == 0) {
             return 1.0;
         }
         
-        // 将距离转换为相似度评分
-        double similarity = 1.0 - (distance / (double) maxLength);
-        
-        // 对于编辑距离匹配，给予较低的基础分
-        return similarity * 0.4;
-    }
-    
-    /**
-     * Levenshtein距离算法实现
-     */
-    private static int levenshteinDistance(String s1, String s2) {
-        int m = s1.length();
-        int n = s2.length();
+        double score = 0;
         
-        int[][] dp = new int[m + 1][n + 1];
-        
-        for (int i = 0; i <= m; i++) {
-            dp[i][0] = i;
+        // 近似子串：长笔记中拼错的关键词，(1 - d / queryLength) * 0.4；先算它以提高整段匹配的门槛
+        int queryLength = pattern.length();
+        if (queryLength > 0) {
+            int maxSubstringDistance = (int) Math.floor(queryLength * (1.0 - mustBeat / 0.4));
+            if (maxSubstringDistance >= 0) {
+                int distance = pattern.substringDistance(text, maxSubstringDistance);
+                if (distance <= maxSubstringDistance) {
+                    score = (1.0 - distance / (double) queryLength) * 0.4;
+                }
+            }
         }
         
-        for (int j = 0; j <= n; j++) {
-            dp[0][j] = j;
+        // 评分 (1 - d / maxLength) * 0.4 > mustBeat 所允许的最大距离
+        int maxDistance = (int) Math.floor(maxLength * (1.0 - Math.max(mustBeat, score) / 0.4));
+        if (maxDistance < 0) {
+            return score;
         }
-        
-        for (int i = 1; i <= m; i++) {
-            for (int j = 1; j <= n; j++) {
-                if (s1.charAt(i - 1) == s2.charAt(j - 1)) {
-                    dp[i][j] = dp[i - 1][j - 1];
-                } else {
-                    dp[i][j] = Math.min(
-                        Math.min(dp[i - 1][j], dp[i][j - 1]),
-                        dp[i - 1][j - 1]
-                    ) + 1;
-                }
-            }
+        int distance = pattern.distance(text, maxDistance);
+        if (distance > maxDistance) {
+            return score;
         }
         
-        return dp[m][n];
+        // 将距离转换为相似度评分
+        double similarity = 1.0 - (distance / (double) maxLength);
+        
+        // 对于编辑距离匹配，给予较低的基础分
+        return Math.max(score, similarity * 0.4);
     }
     
     /**
@@ -301,7 +332,8 @@ public class SearchService {
             return Collections.emptyList();
         }
         
-        query = query.trim();
+        query = query.trim().toLowerCase();
+        EditDistance pattern = new EditDistance(query);
         List<BookmarkSearchResult> results = new ArrayList<>();
         
         BookmarksManager bookmarksManager = BookmarksManager.getInstance(project);
@@ -312,6 +344,7 @@ public class SearchService {
             
             // 遍历组中的所有 bookmarks
             for (Bookmark bookmark : group.getBookmarks()) {
+                ProgressManager.checkCanceled();
                 String description = group.getDescription(bookmark);
                 
                 // 如果没有描述，跳过
@@ -320,10 +353,10 @@ public class SearchService {
                 }
                 
                 // 计算相似度
-                double score = calculateSimilarity(description, query);
+                double score = calculateSimilarity(SearchText.of(description), query, pattern);
                 
                 // 只返回评分大于阈值的结果
-                if (score > 0.1) {
+                if (score > SCORE_THRESHOLD) {
                     // 获取文件和行号信息
                     VirtualFile file = null;
                     int line = -1;
@@ -348,20 +381,20 @@ public class SearchService {
     }
     
     /**
-     * 根据搜索范围进行搜索
+     * 根据搜索范围进行搜索，可在后台线程调用
      * @param project 当前项目
-     * @param topics Topic 列表
+     * @param snapshot 在 EDT 上取得的笔记快照
      * @param query 搜索关键词
      * @param scope 搜索范围
      * @return 统一的搜索结果对象
      */
-    public static UnifiedSearchResults searchWithScope(Project project, List<Topic> topics, 
+    public static UnifiedSearchResults searchWithScope(Project project, NoteSnapshot snapshot, 
                                                        String query, SearchScope scope) {
         UnifiedSearchResults results = new UnifiedSearchResults();
         
         switch (scope) {
             case TOPICS_ONLY:
-                results.topicResults = search(topics, query);
+                results.topicResults = search(snapshot, query);
                 break;
                 
             case BOOKMARKS_ONLY:
@@ -369,7 +402,7 @@ public class SearchService {
                 break;
                 
             case ALL:
-                results.topicResults = search(topics, query);
+                results.topicResults = search(snapshot, query);
                 results.bookmarkResults = searchBookmarks(project, query);
                 break;
         }
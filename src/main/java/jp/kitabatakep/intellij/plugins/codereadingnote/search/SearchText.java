@@ -0,0 +1,55 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.search;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * 搜索用的文本形式：小写文本、拼音首字母和完整拼音
+ * Computed once per note text and cached on the TopicLine, so a search doesn't transliterate
+ * every note on every keystroke.
+ */
+public final class SearchText
+{
+    private final String source;
+    private final String lowerCase;
+    private final String firstLetters;
+    private final String fullPinyin;
+
+    private SearchText(String source, String lowerCase, String firstLetters, String fullPinyin)
+    {
+        this.source = source;
+        this.lowerCase = lowerCase;
+        this.firstLetters = firstLetters;
+        this.fullPinyin = fullPinyin;
+    }
+
+    @NotNull
+    public static SearchText of(@NotNull String text)
+    {
+        // Same transliteration as before: pinyin of the lowercase text
+        String lowerCase = text.toLowerCase();
+        return new SearchText(text, lowerCase, PinyinUtils.getFirstLetters(lowerCase), PinyinUtils.getFullPinyin(lowerCase));
+    }
+
+    /**
+     * Whether this was computed from exactly this string instance.
+     */
+    public boolean isOf(String text)
+    {
+        return source == text;
+    }
+
+    public String lowerCase()
+    {
+        return lowerCase;
+    }
+
+    public String firstLetters()
+    {
+        return firstLetters;
+    }
+
+    public String fullPinyin()
+    {
+        return fullPinyin;
+    }
+}
@@ -0,0 +1,80 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.settings;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.util.xmlb.XmlSerializerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 编辑器中笔记装饰（行尾 inlay、gutter 图标）的设置
+ * Editor decoration settings - persisted at application level
+ */
+@State(
+    name = "CodeReadingNoteEditorDecorationSettings",
+    storages = @Storage("codeReadingNoteEditor.xml")
+)
+public class EditorDecorationSettings implements PersistentStateComponent<EditorDecorationSettings.State> {
+    
+    /**
+     * 持久化状态类
+     */
+    public static class State {
+        // 只为可见区域（加上边距）创建装饰，默认关闭
+        public boolean viewportLazyDecorations = false;
+        // 文件中笔记数达到该值时才启用按可见区域装饰
+        public int viewportLazyMinNotes = 100;
+        // 可见区域上下额外装饰的行数
+        public int viewportMarginLines = 100;
+    }
+    
+    private State myState = new State();
+    
+    public static EditorDecorationSettings getInstance() {
+        return ApplicationManager.getApplication().getService(EditorDecorationSettings.class);
+    }
+    
+    @Nullable
+    @Override
+    public State getState() {
+        return myState;
+    }
+    
+    @Override
+    public void loadState(@NotNull State state) {
+        XmlSerializerUtil.copyBean(state, myState);
+    }
+    
+    /**
+     * 是否对包含 noteCount 条笔记的文件按可见区域创建装饰
+     */
+    public boolean isViewportLazy(int noteCount) {
+        return myState.viewportLazyDecorations && noteCount >= myState.viewportLazyMinNotes;
+    }
+    
+    public boolean isViewportLazyDecorations() {
+        return myState.viewportLazyDecorations;
+    }
+    
+    public void setViewportLazyDecorations(boolean enabled) {
+        myState.viewportLazyDecorations = enabled;
+    }
+    
+    public int getViewportLazyMinNotes() {
+        return myState.viewportLazyMinNotes;
+    }
+    
+    public void setViewportLazyMinNotes(int minNotes) {
+        myState.viewportLazyMinNotes = minNotes;
+    }
+    
+    public int getViewportMarginLines() {
+        return Math.max(0, myState.viewportMarginLines);
+    }
+    
+    public void setViewportMarginLines(int marginLines) {
+        myState.viewportMarginLines = Math.max(0, marginLines);
+    }
+}
@@ -0,0 +1,141 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.settings;
+
+import com.intellij.openapi.options.Configurable;
+import com.intellij.openapi.util.NlsContexts;
+import com.intellij.ui.JBColor;
+import com.intellij.ui.JBIntSpinner;
+import com.intellij.ui.TitledSeparator;
+import com.intellij.ui.components.JBCheckBox;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.util.ui.FormBuilder;
+import com.intellij.util.ui.JBUI;
+import jp.kitabatakep.intellij.plugins.codereadingnote.CodeReadingNoteBundle;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+
+/**
+ * 笔记的编辑器装饰和存储设置界面
+ * 集成到 Settings > Tools 中
+ */
+public class NoteSettingsConfigurable implements Configurable {
+
+    private JPanel mainPanel;
+
+    // 编辑器装饰
+    private JBCheckBox viewportLazyCheckBox;
+    private JBIntSpinner viewportMinNotesSpinner;
+    private JBIntSpinner viewportMarginSpinner;
+
+    // 存储
+    private JBCheckBox shardedStorageCheckBox;
+    private JBIntSpinner trashMaxAgeSpinner;
+    private JBIntSpinner trashMaxEntriesSpinner;
+
+    @Override
+    @NlsContexts.ConfigurableName
+    public String getDisplayName() {
+        return CodeReadingNoteBundle.message("settings.note.display.name");
+    }
+
+    @Override
+    @Nullable
+    public JComponent createComponent() {
+        if (mainPanel == null) {
+            viewportLazyCheckBox = new JBCheckBox(CodeReadingNoteBundle.message("settings.editor.viewport.lazy"));
+            viewportMinNotesSpinner = new JBIntSpinner(100, 1, 100000, 10);
+            viewportMarginSpinner = new JBIntSpinner(100, 0, 10000, 10);
+            viewportLazyCheckBox.addActionListener(e -> updateEnabledState());
+            shardedStorageCheckBox = new JBCheckBox(CodeReadingNoteBundle.message("settings.storage.sharded"));
+            trashMaxAgeSpinner = new JBIntSpinner(90, 0, 36500, 1);
+            trashMaxEntriesSpinner = new JBIntSpinner(500, 0, 1000000, 50);
+
+            FormBuilder formBuilder = FormBuilder.createFormBuilder()
+                .addComponent(new TitledSeparator(CodeReadingNoteBundle.message("settings.editor.title")))
+                .addComponent(viewportLazyCheckBox, 1)
+                .addTooltip(CodeReadingNoteBundle.message("settings.editor.viewport.lazy.tooltip"))
+                .addLabeledComponent(new JBLabel(CodeReadingNoteBundle.message("settings.editor.viewport.min.notes")), viewportMinNotesSpinner, 1, false)
+                .addLabeledComponent(new JBLabel(CodeReadingNoteBundle.message("settings.editor.viewport.margin")), viewportMarginSpinner, 1, false)
+                .addComponent(hint(CodeReadingNoteBundle.message("settings.editor.reopen.note")), 1)
+                .addComponent(new TitledSeparator(CodeReadingNoteBundle.message("settings.storage.title")), 10)
+                .addComponent(shardedStorageCheckBox, 1)
+                .addTooltip(CodeReadingNoteBundle.message("settings.storage.sharded.tooltip"))
+                .addComponent(hint(CodeReadingNoteBundle.message("settings.storage.migrate.note")), 1)
+                .addLabeledComponent(new JBLabel(CodeReadingNoteBundle.message("settings.storage.trash.max.age")), trashMaxAgeSpinner, 10, false)
+                .addLabeledComponent(new JBLabel(CodeReadingNoteBundle.message("settings.storage.trash.max.entries")), trashMaxEntriesSpinner, 1, false)
+                .addComponent(hint(CodeReadingNoteBundle.message("settings.storage.trash.note")), 1);
+
+            mainPanel = formBuilder
+                .addComponentFillVertically(new JPanel(), 0)
+                .getPanel();
+            mainPanel.setBorder(JBUI.Borders.empty(10));
+            reset();
+        }
+        return mainPanel;
+    }
+
+    private static JBLabel hint(String text) {
+        JBLabel label = new JBLabel(text);
+        label.setForeground(JBColor.GRAY);
+        label.setFont(label.getFont().deriveFont(label.getFont().getSize() - 1.0f));
+        return label;
+    }
+
+    private void updateEnabledState() {
+        boolean viewportLazy = viewportLazyCheckBox.isSelected();
+        viewportMinNotesSpinner.setEnabled(viewportLazy);
+        viewportMarginSpinner.setEnabled(viewportLazy);
+    }
+
+    @Override
+    public boolean isModified() {
+        if (mainPanel == null) {
+            return false;
+        }
+        EditorDecorationSettings editor = EditorDecorationSettings.getInstance();
+        StorageSettings storage = StorageSettings.getInstance();
+        return viewportLazyCheckBox.isSelected() != editor.isViewportLazyDecorations()
+            || viewportMinNotesSpinner.getNumber() != editor.getViewportLazyMinNotes()
+            || viewportMarginSpinner.getNumber() != editor.getViewportMarginLines()
+            || shardedStorageCheckBox.isSelected() != storage.isShardedStorage()
+            || trashMaxAgeSpinner.getNumber() != storage.getTrashMaxAgeDays()
+            || trashMaxEntriesSpinner.getNumber() != storage.getTrashMaxEntries();
+    }
+
+    @Override
+    public void apply() {
+        if (mainPanel == null) {
+            return;
+        }
+        EditorDecorationSettings editor = EditorDecorationSettings.getInstance();
+        editor.setViewportLazyDecorations(viewportLazyCheckBox.isSelected());
+        editor.setViewportLazyMinNotes(viewportMinNotesSpinner.getNumber());
+        editor.setViewportMarginLines(viewportMarginSpinner.getNumber());
+
+        StorageSettings storage = StorageSettings.getInstance();
+        storage.setShardedStorage(shardedStorageCheckBox.isSelected());
+        storage.setTrashMaxAgeDays(trashMaxAgeSpinner.getNumber());
+        storage.setTrashMaxEntries(trashMaxEntriesSpinner.getNumber());
+    }
+
+    @Override
+    public void reset() {
+        if (mainPanel == null) {
+            return;
+        }
+        EditorDecorationSettings editor = EditorDecorationSettings.getInstance();
+        viewportLazyCheckBox.setSelected(editor.isViewportLazyDecorations());
+        viewportMinNotesSpinner.setNumber(editor.getViewportLazyMinNotes());
+        viewportMarginSpinner.setNumber(editor.getViewportMarginLines());
+        StorageSettings storage = StorageSettings.getInstance();
+        shardedStorageCheckBox.setSelected(storage.isShardedStorage());
+        trashMaxAgeSpinner.setNumber(storage.getTrashMaxAgeDays());
+        trashMaxEntriesSpinner.setNumber(storage.getTrashMaxEntries());
+        updateEnabledState();
+    }
+
+    @Override
+    public void disposeUIResources() {
+        mainPanel = null;
+    }
+}
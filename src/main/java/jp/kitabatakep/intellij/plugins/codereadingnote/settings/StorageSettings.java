@@ -0,0 +1,72 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.settings;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.util.xmlb.XmlSerializerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * 笔记数据的存储方式设置
+ * Note storage settings - persisted at application level
+ */
+@State(
+    name = "CodeReadingNoteStorageSettings",
+    storages = @Storage("codeReadingNoteStorage.xml")
+)
+public class StorageSettings implements PersistentStateComponent<StorageSettings.State> {
+
+    /**
+     * 持久化状态类
+     */
+    public static class State {
+        // 每个 Topic 单独一个文件（.idea/codeReadingNote/），默认关闭，仍写入项目配置中的单个元素
+        public boolean shardedStorage = false;
+        // 废纸篓保留策略：超过天数或条数的旧条目移入归档文件，0 表示不限制
+        public int trashMaxAgeDays = 90;
+        public int trashMaxEntries = 500;
+    }
+
+    private State myState = new State();
+
+    public static StorageSettings getInstance() {
+        return ApplicationManager.getApplication().getService(StorageSettings.class);
+    }
+
+    @Nullable
+    @Override
+    public State getState() {
+        return myState;
+    }
+
+    @Override
+    public void loadState(@NotNull State state) {
+        XmlSerializerUtil.copyBean(state, myState);
+    }
+
+    public boolean isShardedStorage() {
+        return myState.shardedStorage;
+    }
+
+    public void setShardedStorage(boolean enabled) {
+        myState.shardedStorage = enabled;
+    }
+
+    public int getTrashMaxAgeDays() {
+        return Math.max(0, myState.trashMaxAgeDays);
+    }
+
+    public void setTrashMaxAgeDays(int days) {
+        myState.trashMaxAgeDays = Math.max(0, days);
+    }
+
+    public int getTrashMaxEntries() {
+        return Math.max(0, myState.trashMaxEntries);
+    }
+
+    public void setTrashMaxEntries(int entries) {
+        myState.trashMaxEntries = Math.max(0, entries);
+    }
+}
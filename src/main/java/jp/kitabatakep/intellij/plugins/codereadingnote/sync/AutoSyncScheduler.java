@@ -112,9 +112,9 @@ public final class AutoSyncScheduler {
                 long syncTime = System.currentTimeMillis();
                 statusService.updateLastSyncTime(syncTime);
                 
-                // 2. 更新 MD5（表示当前已同步的数据状态）
-                String currentMd5 = syncService.calculateLocalDataMd5();
-                statusService.updateLastLocalDataMd5(currentMd5);
+                // 2. 更新内容哈希（表示当前已同步的数据状态）
+                String currentHash = syncService.calculateLocalDataHash();
+                statusService.updateLastLocalDataMd5(currentHash);
                 
                 // 3. 标记为已同步
                 statusService.markSynced();
@@ -79,7 +79,7 @@ public final class SyncConflictDetector {
             long remoteTimestamp = provider.getRemoteLastModifiedTime(project, config, projectIdentifier);
             
             // Calculate current local data MD5
-            String currentLocalMd5 = syncService.calculateLocalDataMd5();
+            String currentLocalMd5 = syncService.calculateLocalDataHash();
             String lastSyncedMd5 = SyncStatusService.getInstance(project).getLastLocalDataMd5();
             boolean localModified = !currentLocalMd5.equals(lastSyncedMd5);
             
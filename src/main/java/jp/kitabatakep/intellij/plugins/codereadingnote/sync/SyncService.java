@@ -9,8 +9,11 @@ import org.jdom.Element;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.StringReader;
-import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 同步服务 - 管理数据同步的核心服务
@@ -23,6 +26,8 @@ public final class SyncService {
     private final Project project;
     private SyncStatus lastSyncStatus = SyncStatus.IDLE;
     private String lastSyncMessage = "";
+    // topic name -> content hash at the last successful push/pull
+    private volatile Map<String, Long> lastSyncedTopicHashes = Collections.emptyMap();
     // Note: lastSyncTime is now stored in CodeReadingNoteService
     
     public SyncService(@NotNull Project project) {
@@ -69,45 +74,49 @@ public final class SyncService {
     }
     
     /**
-     * Calculate MD5 hash of current local data
-     * Uses getStateWithoutTrigger() to avoid triggering auto-sync during calculation
+     * Hash of the current local note data, compared against the value recorded at the last sync.
+     * Backed by the incrementally maintained Merkle hash in CodeReadingNoteService, so this no
+     * longer serializes the whole state; cheap enough to call on every check.
      */
     @NotNull
-    public String calculateLocalDataMd5() {
+    public String calculateLocalDataHash() {
         try {
-            // Get current local data as XML (without triggering auto-sync)
-            CodeReadingNoteService noteService = CodeReadingNoteService.getInstance(project);
-            Element dataElement = noteService.getStateWithoutTrigger();
-            
-            if (dataElement == null) {
-                return "";
-            }
-            
-            // Convert to string
-            String xmlString = JDOMUtil.write(dataElement);
-            
-            // Calculate MD5
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest(xmlString.getBytes("UTF-8"));
-            
-            // Convert to hex string
-            StringBuilder hexString = new StringBuilder();
-            for (byte b : digest) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1) {
-                    hexString.append('0');
-                }
-                hexString.append(hex);
-            }
-            
-            return hexString.toString();
-            
+            return CodeReadingNoteService.getInstance(project).contentHash();
         } catch (Exception e) {
-            LOG.error("Failed to calculate MD5", e);
+            LOG.error("Failed to calculate local data hash", e);
             return "";
         }
     }
-    
+
+    /**
+     * Topics whose content differs from the last successful push/pull in this session,
+     * by topic name. Empty until the first sync; every topic counts as changed then.
+     */
+    @NotNull
+    public Set<String> getTopicsChangedSinceSync() {
+        Map<String, Long> current = CodeReadingNoteService.getInstance(project).topicContentHashes();
+        Set<String> changed = new LinkedHashSet<>();
+        for (Map.Entry<String, Long> entry : current.entrySet()) {
+            if (!entry.getValue().equals(lastSyncedTopicHashes.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String name : lastSyncedTopicHashes.keySet()) {
+            if (!current.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Record the current data as synced: root hash for change detection, topic hashes for diffs.
+     */
+    private void recordSyncedData(@NotNull SyncStatusService statusService) {
+        statusService.updateLastLocalDataMd5(calculateLocalDataHash());
+        lastSyncedTopicHashes = CodeReadingNoteService.getInstance(project).topicContentHashes();
+    }
+
     /**
      * 推送当前项目的笔记数据到远程
      */
@@ -163,9 +172,8 @@ public final class SyncService {
                 long syncTime = System.currentTimeMillis();
                 statusService.updateLastSyncTime(syncTime);
                 
-                // 2. 更新 MD5（表示当前已同步的数据状态）
-                String currentMd5 = calculateLocalDataMd5();
-                statusService.updateLastLocalDataMd5(currentMd5);
+                // 2. 更新内容哈希（表示当前已同步的数据状态）
+                recordSyncedData(statusService);
                 
                 // 3. 更新内部状态
                 lastSyncStatus = SyncStatus.SUCCESS;
@@ -235,10 +243,8 @@ public final class SyncService {
                 return SyncResult.failure("No remote data");
             }
             
-            // 解析XML数据
-            Element topicsElement = JDOMUtil.load(new StringReader(xmlData));
-            
-            ArrayList<Topic> remoteTopics = TopicListImporter.importElement(project, topicsElement);
+            // 解析XML数据（流式解析，不构建 DOM）
+            ArrayList<Topic> remoteTopics = TopicListStreamImporter.importReader(project, new StringReader(xmlData)).getTopics();
             if (remoteTopics == null || remoteTopics.isEmpty()) {
                 lastSyncStatus = SyncStatus.FAILED;
                 lastSyncMessage = "Failed to parse remote data or no remote data";
@@ -266,9 +272,8 @@ public final class SyncService {
             long syncTime = System.currentTimeMillis();
             statusService.updateLastSyncTime(syncTime);
             
-            // 2. 更新 MD5（表示当前已同步的数据状态）
-            String currentMd5 = calculateLocalDataMd5();
-            statusService.updateLastLocalDataMd5(currentMd5);
+            // 2. 更新内容哈希（表示当前已同步的数据状态）
+            recordSyncedData(statusService);
             
             // 3. 更新内部状态
             lastSyncStatus = SyncStatus.SUCCESS;
@@ -313,24 +318,18 @@ public final class SyncService {
     private void mergeTopics(@NotNull TopicList local, @NotNull ArrayList<Topic> remoteTopics) {
         // 简单的合并策略：以主题名称为key，远程数据覆盖本地同名主题
         for (Topic remoteTopic : remoteTopics) {
-            // 查找本地是否存在同名主题
-            Topic localTopic = null;
-            for (Topic topic : local.getTopics()) {
-                if (topic.name().equals(remoteTopic.name())) {
-                    localTopic = topic;
-                    break;
-                }
-            }
+            // 查找本地是否存在同名主题（名称索引，O(1)）
+            Topic localTopic = local.findTopicByName(remoteTopic.name());
             
             if (localTopic != null) {
                 // 如果远程主题更新时间更新，则替换
                 if (remoteTopic.updatedAt().after(localTopic.updatedAt())) {
                     local.removeTopic(localTopic);
-                    local.getTopics().add(remoteTopic);
+                    local.appendTopic(remoteTopic);
                 }
             } else {
                 // 本地不存在，直接添加
-                local.getTopics().add(remoteTopic);
+                local.appendTopic(remoteTopic);
             }
         }
         
@@ -15,7 +15,10 @@ import jp.kitabatakep.intellij.plugins.codereadingnote.sync.ui.SyncStatusLabel;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 public class ManagementPanel extends JPanel
 {
@@ -196,6 +199,12 @@ public class ManagementPanel extends JPanel
                 topicTreePanel.loadTopics();
                 updateSearchData(); // 更新搜索数据
             }
+
+            @Override
+            public void trashChanged() {
+                // 回收站节点在树中显示
+                topicTreePanel.loadTopics();
+            }
         });
         
         // Listen for topic changes to refresh the tree
@@ -218,6 +227,20 @@ public class ManagementPanel extends JPanel
                 updateSearchData(); // 更新搜索数据
             }
             
+            @Override
+            public void linesUpdated(Collection<TopicLine> lines) {
+                Set<Topic> topics = new LinkedHashSet<>();
+                for (TopicLine line : lines) {
+                    if (line.topic() != null) {
+                        topics.add(line.topic());
+                    }
+                }
+                for (Topic topic : topics) {
+                    topicTreePanel.refreshTopic(topic);
+                }
+                updateSearchData(); // 批量更新只刷新一次搜索数据
+            }
+            
             @Override
             public void groupAdded(Topic topic, TopicGroup group) {
                 topicTreePanel.refreshTopic(topic);
@@ -2,17 +2,26 @@ package jp.kitabatakep.intellij.plugins.codereadingnote.ui;
 
 import com.intellij.icons.AllIcons;
 import com.intellij.ide.bookmark.Bookmark;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
 import com.intellij.ui.JBColor;
 import com.intellij.ui.components.JBList;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.ui.components.JBTextField;
+import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import jp.kitabatakep.intellij.plugins.codereadingnote.Topic;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicGroup;
 import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
 import jp.kitabatakep.intellij.plugins.codereadingnote.search.BookmarkSearchResult;
+import jp.kitabatakep.intellij.plugins.codereadingnote.search.NoteSnapshot;
 import jp.kitabatakep.intellij.plugins.codereadingnote.search.SearchScope;
 import jp.kitabatakep.intellij.plugins.codereadingnote.search.SearchService;
+import org.jetbrains.concurrency.CancellablePromise;
 
 import javax.swing.*;
 import javax.swing.event.DocumentEvent;
@@ -23,7 +32,9 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /**
  * 搜索面板组件
@@ -31,6 +42,10 @@ import java.util.List;
  * 支持搜索 Topics 和 IDEA 原生 Bookmarks
  */
 public class SearchPanel extends JPanel {
+    private static final Logger LOG = Logger.getInstance(SearchPanel.class);
+    private static final int SEARCH_DELAY_MS = 200;
+    private static final int RESULT_BATCH_SIZE = 100;
+    
     private final Project project;
     private final JBTextField searchField;
     private final JComboBox<SearchScope> scopeComboBox;
@@ -42,6 +57,11 @@ public class SearchPanel extends JPanel {
     private SearchScope currentScope = SearchScope.TOPICS_ONLY;
     private SearchResultListener resultListener;
     
+    // 搜索防抖与取消：每次新搜索递增 searchGeneration，旧搜索的结果和剩余批次据此丢弃
+    private final Alarm searchAlarm;
+    private CancellablePromise<SearchService.UnifiedSearchResults> pendingSearch;
+    private int searchGeneration;
+    
     /**
      * 统一的搜索结果项接口
      */
@@ -188,6 +208,7 @@ public class SearchPanel extends JPanel {
     
     public SearchPanel(Project project) {
         this.project = project;
+        this.searchAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, project);
         
         setLayout(new BorderLayout(5, 5));
         setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
@@ -281,17 +302,17 @@ public class SearchPanel extends JPanel {
         searchField.getDocument().addDocumentListener(new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) {
-                performSearch();
+                scheduleSearch();
             }
             
             @Override
             public void removeUpdate(DocumentEvent e) {
-                performSearch();
+                scheduleSearch();
             }
             
             @Override
             public void changedUpdate(DocumentEvent e) {
-                performSearch();
+                scheduleSearch();
             }
         });
         
@@ -378,10 +399,31 @@ public class SearchPanel extends JPanel {
         this.resultListener = listener;
     }
     
+    /**
+     * 输入时防抖：连续输入只在停顿 SEARCH_DELAY_MS 后搜索一次，之前未完成的搜索被取消
+     */
+    private void scheduleSearch() {
+        cancelSearch();
+        searchAlarm.addRequest(this::performSearch, SEARCH_DELAY_MS);
+    }
+    
+    /**
+     * 取消等待中和正在执行的搜索，已排队的结果批次也不再写入列表
+     */
+    private void cancelSearch() {
+        searchGeneration++;
+        searchAlarm.cancelAllRequests();
+        if (pendingSearch != null) {
+            pendingSearch.cancel();
+            pendingSearch = null;
+        }
+    }
+    
     /**
      * 执行搜索
      */
     private void performSearch() {
+        cancelSearch();
         String query = searchField.getText().trim();
         
         if (query.isEmpty()) {
@@ -389,50 +431,78 @@ public class SearchPanel extends JPanel {
             return;
         }
         
-        // 在后台线程执行搜索
-        SwingUtilities.invokeLater(() -> {
-            try {
-                SearchService.UnifiedSearchResults results = SearchService.searchWithScope(
-                    project, topics, query, currentScope
-                );
-                
-                // 更新UI
-                SwingUtilities.invokeLater(() -> {
-                    resultListModel.clear();
-                    
-                    // 添加 Topic 搜索结果
-                    for (SearchService.SearchResult result : results.topicResults) {
-                        resultListModel.addElement(new TopicSearchResultItem(result));
-                    }
-                    
-                    // 添加 Bookmark 搜索结果
-                    for (BookmarkSearchResult result : results.bookmarkResults) {
-                        resultListModel.addElement(new BookmarkSearchResultItem(result));
-                    }
-                    
-                    // 更新状态
-                    if (results.isEmpty()) {
-                        statusLabel.setText("No matching results found");
-                    } else {
-                        statusLabel.setText(String.format("Found %d result(s) - Topics: %d, Bookmarks: %d", 
-                            results.getTotalCount(),
-                            results.topicResults.size(),
-                            results.bookmarkResults.size()));
-                    }
-                });
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> {
-                    statusLabel.setText("Search error: " + ex.getMessage());
-                    ex.printStackTrace();
-                });
+        int generation = searchGeneration;
+        SearchScope scope = currentScope;
+        // 笔记在 EDT 上修改，不经过写操作，后台线程只读取此处取得的快照
+        NoteSnapshot snapshot = SearchService.snapshot(project,
+            scope == SearchScope.BOOKMARKS_ONLY ? Collections.emptyList() : topics);
+        statusLabel.setText("Searching...");
+        
+        // 在后台线程的非阻塞读操作中搜索，写操作或新的输入会取消它
+        pendingSearch = ReadAction.nonBlocking(() -> SearchService.searchWithScope(project, snapshot, query, scope))
+            .expireWith(project)
+            .finishOnUiThread(ModalityState.stateForComponent(this), results -> showResults(generation, results))
+            .submit(AppExecutorUtil.getAppExecutorService());
+        pendingSearch.onError(ex -> {
+            if (ex instanceof ProcessCanceledException || ex instanceof CancellationException) {
+                return;
             }
+            LOG.warn("Search failed", ex);
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (generation == searchGeneration) {
+                    statusLabel.setText("Search error: " + ex.getMessage());
+                }
+            }, ModalityState.stateForComponent(this));
         });
     }
     
+    private void showResults(int generation, SearchService.UnifiedSearchResults results) {
+        if (generation != searchGeneration) {
+            return;
+        }
+        pendingSearch = null;
+        
+        List<UnifiedSearchResultItem> items = new ArrayList<>(results.getTotalCount());
+        // 添加 Topic 搜索结果
+        for (SearchService.SearchResult result : results.topicResults) {
+            items.add(new TopicSearchResultItem(result));
+        }
+        // 添加 Bookmark 搜索结果
+        for (BookmarkSearchResult result : results.bookmarkResults) {
+            items.add(new BookmarkSearchResultItem(result));
+        }
+        
+        resultListModel.clear();
+        
+        // 更新状态
+        if (results.isEmpty()) {
+            statusLabel.setText("No matching results found");
+        } else {
+            statusLabel.setText(String.format("Found %d result(s) - Topics: %d, Bookmarks: %d", 
+                results.getTotalCount(),
+                results.topicResults.size(),
+                results.bookmarkResults.size()));
+        }
+        appendResults(generation, items, 0);
+    }
+    
     /**
-     * 清除搜索结果
+     * 分批写入列表模型，每批之间让出 EDT，结果很多时输入框也不会卡住
      */
+    private void appendResults(int generation, List<UnifiedSearchResultItem> items, int from) {
+        if (generation != searchGeneration) {
+            return;
+        }
+        int to = Math.min(items.size(), from + RESULT_BATCH_SIZE);
+        resultListModel.addAll(items.subList(from, to));
+        if (to < items.size()) {
+            ApplicationManager.getApplication().invokeLater(
+                () -> appendResults(generation, items, to), ModalityState.stateForComponent(this));
+        }
+    }
+    
     private void clearResults() {
+        cancelSearch();
         resultListModel.clear();
         statusLabel.setText(" ");
     }
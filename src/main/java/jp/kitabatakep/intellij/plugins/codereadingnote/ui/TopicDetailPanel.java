@@ -43,6 +43,7 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.Collection;
 import java.util.Iterator;
 
 class TopicDetailPanel extends JPanel {
@@ -130,6 +131,18 @@ class TopicDetailPanel extends JPanel {
 				}
 			}
 		}
+
+		@Override
+		public void linesUpdated(Collection<TopicLine> topicLines) {
+			for (TopicLine _topicLine : topicLines) {
+				if (_topicLine.topic() == topic) {
+					int index = topicLineListModel.indexOf(_topicLine);
+					if (index >= 0) {
+						topicLineListModel.set(index, _topicLine);
+					}
+				}
+			}
+		}
 		});
 	}
 
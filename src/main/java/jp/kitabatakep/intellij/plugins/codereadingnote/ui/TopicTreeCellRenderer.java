@@ -47,9 +47,21 @@ public class TopicTreeCellRenderer extends ColoredTreeCellRenderer {
                 renderTrashBinNode(node);
                 break;
                 
+            case ARCHIVED_TRASH:
+                setIcon(AllIcons.Nodes.Folder);
+                append(CodeReadingNoteBundle.message("trash.bin.archived"), SimpleTextAttributes.GRAY_ATTRIBUTES);
+                append("  " + node.getTrashSize(), SimpleTextAttributes.GRAY_ATTRIBUTES);
+                break;
+                
             case TRASHED_LINE:
+            case ARCHIVED_LINE:
                 renderTrashedLineNode(node);
                 break;
+                
+            case TRASH_MORE:
+                setIcon(AllIcons.Actions.More);
+                append(node.getDisplayName(), SimpleTextAttributes.LINK_ATTRIBUTES);
+                break;
         }
     }
     
@@ -134,8 +146,7 @@ public class TopicTreeCellRenderer extends ColoredTreeCellRenderer {
     private void renderTrashBinNode(TopicTreeNode node) {
         setIcon(AllIcons.Actions.GC);
         append(CodeReadingNoteBundle.message("trash.bin.name"), SimpleTextAttributes.GRAY_ATTRIBUTES);
-        int childCount = node.getChildCount();
-        append("  " + childCount, SimpleTextAttributes.GRAY_ATTRIBUTES);
+        append("  " + node.getTrashSize(), SimpleTextAttributes.GRAY_ATTRIBUTES);
     }
     
     private void renderTrashedLineNode(TopicTreeNode node) {
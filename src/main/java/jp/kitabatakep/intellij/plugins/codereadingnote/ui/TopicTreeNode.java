@@ -19,7 +19,10 @@ public class TopicTreeNode extends DefaultMutableTreeNode {
         TOPIC_LINE,
         UNGROUPED_LINES_FOLDER,
         TRASH_BIN,
-        TRASHED_LINE
+        TRASHED_LINE,
+        TRASH_MORE,
+        ARCHIVED_TRASH,
+        ARCHIVED_LINE
     }
     
     private NodeType nodeType;
@@ -83,12 +86,39 @@ public class TopicTreeNode extends DefaultMutableTreeNode {
     }
     
     public TrashedLine getTrashedLine() {
-        if (nodeType == NodeType.TRASHED_LINE) {
+        if (nodeType == NodeType.TRASHED_LINE || nodeType == NodeType.ARCHIVED_LINE) {
             return (TrashedLine) getUserObject();
         }
         return null;
     }
     
+    /**
+     * Trash bin or its archive: total number of entries, including the pages not shown yet
+     */
+    public int getTrashSize() {
+        if ((nodeType == NodeType.TRASH_BIN || nodeType == NodeType.ARCHIVED_TRASH) && getUserObject() instanceof Integer) {
+            return (Integer) getUserObject();
+        }
+        return getChildCount();
+    }
+    
+    /**
+     * "Show more" node of the trash bin or its archive: index of the first entry not shown yet
+     */
+    public int getTrashOffset() {
+        if (nodeType == NodeType.TRASH_MORE && getUserObject() instanceof Integer) {
+            return (Integer) getUserObject();
+        }
+        return 0;
+    }
+    
+    private int getTrashRemaining() {
+        if (getParent() instanceof TopicTreeNode) {
+            return Math.max(0, ((TopicTreeNode) getParent()).getTrashSize() - getTrashOffset());
+        }
+        return 0;
+    }
+    
     public String getDisplayName() {
         switch (nodeType) {
             case TOPIC:
@@ -125,9 +155,13 @@ public class TopicTreeNode extends DefaultMutableTreeNode {
                 return CodeReadingNoteBundle.message("tree.ungrouped.lines");
                 
             case TRASH_BIN:
-                return CodeReadingNoteBundle.message("trash.bin.name") + " " + getChildCount();
+                return CodeReadingNoteBundle.message("trash.bin.name") + " " + getTrashSize();
+                
+            case ARCHIVED_TRASH:
+                return CodeReadingNoteBundle.message("trash.bin.archived") + " " + getTrashSize();
                 
             case TRASHED_LINE:
+            case ARCHIVED_LINE:
                 TrashedLine tl = (TrashedLine) getUserObject();
                 TopicLine trashedTopicLine = tl.getLine();
                 String trashedFileName = trashedTopicLine.pathForDisplay();
@@ -142,6 +176,9 @@ public class TopicTreeNode extends DefaultMutableTreeNode {
                 }
                 return trashedPath;
                 
+            case TRASH_MORE:
+                return CodeReadingNoteBundle.message("trash.bin.more", getTrashRemaining());
+                
             default:
                 return getUserObject().toString();
         }
@@ -159,7 +196,8 @@ public class TopicTreeNode extends DefaultMutableTreeNode {
         return nodeType == NodeType.TOPIC || 
                nodeType == NodeType.GROUP || 
                nodeType == NodeType.UNGROUPED_LINES_FOLDER ||
-               nodeType == NodeType.TRASH_BIN;
+               nodeType == NodeType.TRASH_BIN ||
+               nodeType == NodeType.ARCHIVED_TRASH;
     }
     
     /**
@@ -1,5 +1,7 @@
 package jp.kitabatakep.intellij.plugins.codereadingnote.ui;
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.ui.TreeSpeedSearch;
 import com.intellij.ui.components.JBScrollPane;
@@ -22,6 +24,11 @@ import java.util.Enumeration;
  */
 public class TopicTreePanel extends JPanel {
     
+    private static final Logger LOG = Logger.getInstance(TopicTreePanel.class);
+    
+    // 废纸篓每页显示的条目数
+    private static final int TRASH_PAGE_SIZE = 100;
+    
     private Project project;
     private CodeReadingNoteService service;
     
@@ -30,7 +37,12 @@ public class TopicTreePanel extends JPanel {
     private DefaultMutableTreeNode rootNode;
     
     private TopicTreeNode selectedNode;
+    // TopicLine -> its node in the current tree, so reverse-locate doesn't walk the whole tree
+    private final java.util.Map<TopicLine, TopicTreeNode> lineNodes = new java.util.HashMap<>();
     private TopicTreeSelectionListener selectionListener;
+    // 归档条目数，上次在后台读取的结果；过期的读取结果按 generation 丢弃
+    private int archivedTrashSize;
+    private int archiveGeneration;
     
     public interface TopicTreeSelectionListener {
         void onTopicSelected(Topic topic);
@@ -97,6 +109,8 @@ public class TopicTreePanel extends JPanel {
                 @Override
                 public void lineRemoved(jp.kitabatakep.intellij.plugins.codereadingnote.Topic topic, 
                                        jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine line) {
+                    // Don't keep the removed line reachable until the reload
+                    lineNodes.remove(line);
                     javax.swing.SwingUtilities.invokeLater(() -> loadTopics());
                 }
                 
@@ -154,6 +168,8 @@ public class TopicTreePanel extends JPanel {
                             if (line != null && line.canNavigate()) {
                                 line.navigate(true);
                             }
+                        } else if (node.getNodeType() == TopicTreeNode.NodeType.TRASH_MORE) {
+                            showMoreTrash(node);
                         }
                     }
                 }
@@ -180,6 +196,8 @@ public class TopicTreePanel extends JPanel {
                         if (line != null && line.canNavigate()) {
                             line.navigate(true);
                         }
+                    } else if (selectedNode != null && selectedNode.getNodeType() == TopicTreeNode.NodeType.TRASH_MORE) {
+                        showMoreTrash(selectedNode);
                     }
                 } else if (e.getKeyCode() == KeyEvent.VK_SPACE) {
                     // Toggle expansion
@@ -279,6 +297,7 @@ public class TopicTreePanel extends JPanel {
             }
             
             rootNode.removeAllChildren();
+            lineNodes.clear();
             
             // 按 order 排序 topics
             java.util.List<Topic> sortedTopics = new java.util.ArrayList<>(service.getTopicList().getTopics());
@@ -300,8 +319,7 @@ public class TopicTreePanel extends JPanel {
                         
                         // Add lines in group (even if empty, show the group)
                         for (TopicLine line : group.getLines()) {
-                            TopicTreeNode lineNode = new TopicTreeNode(line, TopicTreeNode.NodeType.TOPIC_LINE);
-                            groupNode.add(lineNode);
+                            groupNode.add(createLineNode(line));
                         }
                     }
                     
@@ -311,32 +329,28 @@ public class TopicTreePanel extends JPanel {
                         topicNode.add(ungroupedNode);
                         
                         for (TopicLine line : topic.getUngroupedLines()) {
-                            TopicTreeNode lineNode = new TopicTreeNode(line, TopicTreeNode.NodeType.TOPIC_LINE);
-                            ungroupedNode.add(lineNode);
+                            ungroupedNode.add(createLineNode(line));
                         }
                     }
                 } else {
                     // Legacy mode - add lines directly under topic
-                    for (TopicLine line : topic.getLines()) {
-                        TopicTreeNode lineNode = new TopicTreeNode(line, TopicTreeNode.NodeType.TOPIC_LINE);
-                        topicNode.add(lineNode);
+                    for (TopicLine line : topic.linesView()) {
+                        topicNode.add(createLineNode(line));
                     }
                 }
             }
             
             java.util.ArrayList<TrashedLine> trashedLines = service.getTopicList().getTrashedLines();
-            if (!trashedLines.isEmpty()) {
+            if (!trashedLines.isEmpty() || archivedTrashSize > 0) {
                 TopicTreeNode trashNode = new TopicTreeNode(
-                        CodeReadingNoteBundle.message("trash.bin.name"),
+                        trashedLines.size(),
                         TopicTreeNode.NodeType.TRASH_BIN);
                 rootNode.add(trashNode);
-                for (TrashedLine tl : trashedLines) {
-                    TopicTreeNode tlNode = new TopicTreeNode(tl, TopicTreeNode.NodeType.TRASHED_LINE);
-                    trashNode.add(tlNode);
-                }
+                appendTrashPage(trashNode, trashedLines, 0);
             }
             
             treeModel.reload();
+            loadArchivedTrash();
             
             // 恢复展开状态
             restoreExpansionState(expandedTopics, expandedGroups, ungroupedExpanded, expandedUngroupedTopic);
@@ -581,6 +595,7 @@ public class TopicTreePanel extends JPanel {
                 }
                 
                 // Remove and re-add children
+                forgetLineNodes(topicNode);
                 topicNode.removeAllChildren();
                 
                 // Check if topic has groups or ungrouped lines in group mode
@@ -595,8 +610,7 @@ public class TopicTreePanel extends JPanel {
                         
                         // Add lines in group (even if empty, show the group)
                         for (TopicLine line : group.getLines()) {
-                            TopicTreeNode lineNode = new TopicTreeNode(line, TopicTreeNode.NodeType.TOPIC_LINE);
-                            groupNode.add(lineNode);
+                            groupNode.add(createLineNode(line));
                         }
                     }
                     
@@ -606,15 +620,13 @@ public class TopicTreePanel extends JPanel {
                         topicNode.add(ungroupedNode);
                         
                         for (TopicLine line : topic.getUngroupedLines()) {
-                            TopicTreeNode lineNode = new TopicTreeNode(line, TopicTreeNode.NodeType.TOPIC_LINE);
-                            ungroupedNode.add(lineNode);
+                            ungroupedNode.add(createLineNode(line));
                         }
                     }
                 } else {
                     // Legacy mode - add lines directly under topic
-                    for (TopicLine line : topic.getLines()) {
-                        TopicTreeNode lineNode = new TopicTreeNode(line, TopicTreeNode.NodeType.TOPIC_LINE);
-                        topicNode.add(lineNode);
+                    for (TopicLine line : topic.linesView()) {
+                        topicNode.add(createLineNode(line));
                     }
                 }
                 
@@ -881,50 +893,42 @@ public class TopicTreePanel extends JPanel {
     public void selectTopicLine(TopicLine target) {
         if (target == null) return;
         SwingUtilities.invokeLater(() -> {
-            if (!selectTopicLineRecursive(rootNode, target)) {
-                String uid = target.getBookmarkUid();
-                if (uid != null && !uid.isEmpty()) {
-                    selectTopicLineByUid(rootNode, uid);
-                }
+            TopicTreeNode node = findLineNode(target);
+            if (node == null) {
+                // The instance may have been replaced (e.g. reloaded), resolve the live one by UID
+                TopicLine live = service.getTopicList().findLineByUid(target.getBookmarkUid());
+                node = live != null ? findLineNode(live) : null;
+            }
+            if (node != null) {
+                selectAndScrollToNode(node);
             }
         });
     }
 
-    private boolean selectTopicLineRecursive(javax.swing.tree.TreeNode parent, TopicLine target) {
-        for (int i = 0; i < parent.getChildCount(); i++) {
-            javax.swing.tree.TreeNode child = parent.getChildAt(i);
-            if (child instanceof TopicTreeNode) {
-                TopicTreeNode node = (TopicTreeNode) child;
-                if (node.getNodeType() == TopicTreeNode.NodeType.TOPIC_LINE && node.getTopicLine() == target) {
-                    selectAndScrollToNode(node);
-                    return true;
-                }
-                if (node.canHaveChildren() && selectTopicLineRecursive(node, target)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    private TopicTreeNode createLineNode(TopicLine line) {
+        TopicTreeNode lineNode = new TopicTreeNode(line, TopicTreeNode.NodeType.TOPIC_LINE);
+        lineNodes.put(line, lineNode);
+        return lineNode;
     }
 
-    private boolean selectTopicLineByUid(javax.swing.tree.TreeNode parent, String uid) {
-        for (int i = 0; i < parent.getChildCount(); i++) {
-            javax.swing.tree.TreeNode child = parent.getChildAt(i);
-            if (child instanceof TopicTreeNode) {
-                TopicTreeNode node = (TopicTreeNode) child;
-                if (node.getNodeType() == TopicTreeNode.NodeType.TOPIC_LINE) {
-                    TopicLine tl = node.getTopicLine();
-                    if (tl != null && uid.equals(tl.getBookmarkUid())) {
-                        selectAndScrollToNode(node);
-                        return true;
-                    }
-                }
-                if (node.canHaveChildren() && selectTopicLineByUid(node, uid)) {
-                    return true;
-                }
+    /**
+     * Drop the lineNodes entries of the line nodes under the given node before it is rebuilt.
+     */
+    private void forgetLineNodes(TreeNode node) {
+        for (int i = 0; i < node.getChildCount(); i++) {
+            TreeNode child = node.getChildAt(i);
+            if (child instanceof TopicTreeNode && ((TopicTreeNode) child).getNodeType() == TopicTreeNode.NodeType.TOPIC_LINE) {
+                lineNodes.remove(((TopicTreeNode) child).getTopicLine(), child);
+            } else {
+                forgetLineNodes(child);
             }
         }
-        return false;
+    }
+
+    private TopicTreeNode findLineNode(TopicLine line) {
+        TopicTreeNode node = lineNodes.get(line);
+        // Nodes of a single refreshed topic are replaced in place; skip ones no longer attached
+        return node != null && node.getRoot() == rootNode ? node : null;
     }
 
     private void selectAndScrollToNode(TopicTreeNode node) {
@@ -1015,6 +1019,130 @@ public class TopicTreePanel extends JPanel {
         }
     }
     
+    /**
+     * 废纸篓分页显示：每次只创建一页节点，剩余条目折叠在 "Show more" 节点中
+     */
+    private void appendTrashPage(TopicTreeNode trashNode, java.util.List<TrashedLine> trashedLines, int offset) {
+        int end = Math.min(trashedLines.size(), offset + TRASH_PAGE_SIZE);
+        for (int i = offset; i < end; i++) {
+            trashNode.add(new TopicTreeNode(trashedLines.get(i), TopicTreeNode.NodeType.TRASHED_LINE));
+        }
+        if (end < trashedLines.size()) {
+            trashNode.add(new TopicTreeNode(end, TopicTreeNode.NodeType.TRASH_MORE));
+        }
+    }
+    
+    private void showMoreTrash(TopicTreeNode moreNode) {
+        if (!(moreNode.getParent() instanceof TopicTreeNode)) return;
+        TopicTreeNode trashNode = (TopicTreeNode) moreNode.getParent();
+        if (trashNode.getNodeType() == TopicTreeNode.NodeType.ARCHIVED_TRASH) {
+            showMoreArchivedTrash(trashNode, moreNode);
+            return;
+        }
+        int index = trashNode.getIndex(moreNode);
+        trashNode.remove(moreNode);
+        appendTrashPage(trashNode, service.getTopicList().getTrashedLines(), moreNode.getTrashOffset());
+        treeModel.nodeStructureChanged(trashNode);
+        if (index >= 0 && index < trashNode.getChildCount()) {
+            TreePath firstNew = new TreePath(((TopicTreeNode) trashNode.getChildAt(index)).getPath());
+            topicTree.setSelectionPath(firstNew);
+            topicTree.scrollPathToVisible(firstNew);
+        }
+    }
+    
+    /**
+     * 归档的废纸篓条目在 .idea 下的文件里：条目数和第一页在后台读取，再作为废纸篓的第一个子节点放进树
+     */
+    private void loadArchivedTrash() {
+        int generation = ++archiveGeneration;
+        TopicList topicList = service.getTopicList();
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            int size;
+            java.util.List<TrashedLine> page;
+            try {
+                size = topicList.archivedTrashSize();
+                page = size > 0 ? topicList.archivedTrash(0, TRASH_PAGE_SIZE) : java.util.Collections.emptyList();
+            } catch (java.io.IOException e) {
+                LOG.warn("Cannot read the trash archive", e);
+                return;
+            }
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (generation == archiveGeneration) {
+                    showArchivedTrash(size, page);
+                }
+            }, project.getDisposed());
+        });
+    }
+    
+    private void showArchivedTrash(int size, java.util.List<TrashedLine> firstPage) {
+        archivedTrashSize = size;
+        TopicTreeNode trashNode = null;
+        for (int i = 0; i < rootNode.getChildCount(); i++) {
+            TreeNode child = rootNode.getChildAt(i);
+            if (child instanceof TopicTreeNode && ((TopicTreeNode) child).getNodeType() == TopicTreeNode.NodeType.TRASH_BIN) {
+                trashNode = (TopicTreeNode) child;
+            }
+        }
+        if (trashNode == null) {
+            if (size == 0) return;
+            trashNode = new TopicTreeNode(0, TopicTreeNode.NodeType.TRASH_BIN);
+            rootNode.add(trashNode);
+            treeModel.nodesWereInserted(rootNode, new int[]{rootNode.getIndex(trashNode)});
+        }
+        
+        if (trashNode.getChildCount() > 0
+                && ((TopicTreeNode) trashNode.getChildAt(0)).getNodeType() == TopicTreeNode.NodeType.ARCHIVED_TRASH) {
+            trashNode.remove(0);
+        }
+        if (size > 0) {
+            TopicTreeNode archivedNode = new TopicTreeNode(size, TopicTreeNode.NodeType.ARCHIVED_TRASH);
+            appendArchivedPage(archivedNode, firstPage, 0);
+            trashNode.insert(archivedNode, 0);
+        } else if (trashNode.getChildCount() == 0) {
+            treeModel.removeNodeFromParent(trashNode);
+            return;
+        }
+        treeModel.nodeStructureChanged(trashNode);
+    }
+    
+    private void appendArchivedPage(TopicTreeNode archivedNode, java.util.List<TrashedLine> page, int offset) {
+        for (TrashedLine archived : page) {
+            archivedNode.add(new TopicTreeNode(archived, TopicTreeNode.NodeType.ARCHIVED_LINE));
+        }
+        int end = offset + page.size();
+        if (!page.isEmpty() && end < archivedNode.getTrashSize()) {
+            archivedNode.add(new TopicTreeNode(end, TopicTreeNode.NodeType.TRASH_MORE));
+        }
+    }
+    
+    private void showMoreArchivedTrash(TopicTreeNode archivedNode, TopicTreeNode moreNode) {
+        int generation = archiveGeneration;
+        int offset = moreNode.getTrashOffset();
+        TopicList topicList = service.getTopicList();
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            java.util.List<TrashedLine> page;
+            try {
+                page = topicList.archivedTrash(offset, TRASH_PAGE_SIZE);
+            } catch (java.io.IOException e) {
+                LOG.warn("Cannot read the trash archive", e);
+                return;
+            }
+            ApplicationManager.getApplication().invokeLater(() -> {
+                // 树已经重建或这一页已经加载
+                if (generation != archiveGeneration || moreNode.getParent() != archivedNode) return;
+                int index = archivedNode.getIndex(moreNode);
+                archivedNode.remove(moreNode);
+                appendArchivedPage(archivedNode, page, offset);
+                treeModel.nodeStructureChanged(archivedNode);
+                if (index < archivedNode.getChildCount()) {
+                    TreePath firstNew = new TreePath(((TopicTreeNode) archivedNode.getChildAt(index)).getPath());
+                    topicTree.setSelectionPath(firstNew);
+                    topicTree.scrollPathToVisible(firstNew);
+                }
+            }, project.getDisposed());
+        });
+    }
+    
     private void showTrashContextMenu(MouseEvent e) {
         TreePath path = topicTree.getPathForLocation(e.getX(), e.getY());
         if (path == null) return;
@@ -1048,6 +1176,18 @@ public class TopicTreePanel extends JPanel {
                 });
                 menu.add(permDelete);
             }
+        } else if (node.getNodeType() == TopicTreeNode.NodeType.ARCHIVED_LINE) {
+            TrashedLine archived = node.getTrashedLine();
+            TreeNode archivedNode = node.getParent();
+            if (archived != null && archivedNode != null) {
+                // 归档条目按在归档中的位置恢复，子节点和归档顺序一致
+                int index = archivedNode.getIndex(node);
+                JMenuItem restore = new JMenuItem(CodeReadingNoteBundle.message("trash.bin.restore"));
+                restore.addActionListener(ev -> {
+                    service.getTopicList().restoreFromArchive(index, archived);
+                });
+                menu.add(restore);
+            }
         } else {
             return;
         }
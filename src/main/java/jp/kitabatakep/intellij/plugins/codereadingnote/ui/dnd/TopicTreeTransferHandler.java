@@ -439,12 +439,8 @@ public class TopicTreeTransferHandler extends TransferHandler {
             
             LOG.info("Moving " + lines.size() + " line(s) to group: " + targetGroup.name());
             
-            for (TopicLine line : lines) {
-                // Only move if the line belongs to the same topic
-                if (line.topic() == topic) {
-                    topic.moveLineToGroup(line, targetGroup);
-                }
-            }
+            // Only move lines that belong to the same topic; one batch, one event
+            topic.moveLinesToGroup(sameTopicLines(lines, topic), targetGroup);
             
             // Refresh the tree
             refreshTree();
@@ -461,12 +457,8 @@ public class TopicTreeTransferHandler extends TransferHandler {
             
             LOG.info("Moving " + lines.size() + " line(s) to ungrouped");
             
-            for (TopicLine line : lines) {
-                // Only move if the line belongs to the same topic
-                if (line.topic() == topic) {
-                    topic.moveLineToUngrouped(line);
-                }
-            }
+            // Only move lines that belong to the same topic; one batch, one event
+            topic.moveLinesToUngrouped(sameTopicLines(lines, topic));
             
             // Refresh the tree
             refreshTree();
@@ -477,6 +469,16 @@ public class TopicTreeTransferHandler extends TransferHandler {
         return false;
     }
     
+    private static List<TopicLine> sameTopicLines(List<TopicLine> lines, Topic topic) {
+        List<TopicLine> result = new ArrayList<>(lines.size());
+        for (TopicLine line : lines) {
+            if (line.topic() == topic) {
+                result.add(line);
+            }
+        }
+        return result;
+    }
+    
     @Override
     protected void exportDone(JComponent source, Transferable data, int action) {
         // The actual data modification is done in importData, so nothing to clean up here
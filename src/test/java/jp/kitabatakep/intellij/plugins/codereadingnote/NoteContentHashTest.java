@@ -0,0 +1,157 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NoteContentHashTest
+{
+    private static final Date CREATED = new Date(1_600_000_000_000L);
+
+    private static TopicLine line(Topic topic, int number, String note)
+    {
+        return TopicLine.createByImport(null, topic, "file:///src/A.java", number, note, true, "src/A.java", "uid-" + number);
+    }
+
+    /**
+     * Topic "name" with two ungrouped lines and a group holding one line, timestamps fixed.
+     */
+    private static Topic topic(String name)
+    {
+        Topic topic = new Topic(null, name, CREATED);
+        topic.setLines(Arrays.asList(line(topic, 1, name + " first"), line(topic, 2, name + " second")));
+        TopicGroup group = new TopicGroup(null, topic, "group", CREATED);
+        group.setLines(Collections.singletonList(line(topic, 3, name + " grouped")));
+        topic.setGroups(new ArrayList<>(Collections.singletonList(group)));
+        group.restoreUpdatedAt(CREATED);
+        topic.restoreUpdatedAt(CREATED);
+        return topic;
+    }
+
+    private static long root(List<Topic> topics, List<TrashedLine> trash)
+    {
+        return new NoteContentHash().root(topics.iterator(), trash);
+    }
+
+    @Test
+    public void equalContentGivesEqualRoots()
+    {
+        long first = root(Arrays.asList(topic("a"), topic("b")), null);
+        long second = root(Arrays.asList(topic("a"), topic("b")), null);
+
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void topicOrderMatters()
+    {
+        assertNotEquals(root(Arrays.asList(topic("a"), topic("b")), null),
+            root(Arrays.asList(topic("b"), topic("a")), null));
+    }
+
+    @Test
+    public void rootIsCachedUntilInvalidated()
+    {
+        List<Topic> topics = Arrays.asList(topic("a"), topic("b"));
+        NoteContentHash hash = new NoteContentHash();
+        long before = hash.root(topics.iterator(), null);
+
+        TopicLine changed = topics.get(0).getUngroupedLines().get(1);
+        changed.setNote("edited");
+        topics.get(0).restoreUpdatedAt(CREATED);
+
+        assertEquals(before, hash.root(topics.iterator(), null));
+        hash.invalidateLine(changed);
+        long after = hash.root(topics.iterator(), null);
+        assertNotEquals(before, after);
+        assertEquals("incremental root must equal a fresh one", root(topics, null), after);
+    }
+
+    @Test
+    public void groupedLineChangeIsPickedUp()
+    {
+        List<Topic> topics = Arrays.asList(topic("a"), topic("b"));
+        NoteContentHash hash = new NoteContentHash();
+        long before = hash.root(topics.iterator(), null);
+
+        TopicLine grouped = topics.get(1).getGroups().get(0).getLines().get(0);
+        grouped.modifyLine(30);
+        hash.invalidateLine(grouped);
+
+        long after = hash.root(topics.iterator(), null);
+        assertNotEquals(before, after);
+        assertEquals(root(topics, null), after);
+    }
+
+    @Test
+    public void topicInvalidationRehashesItsLines()
+    {
+        List<Topic> topics = Arrays.asList(topic("a"), topic("b"));
+        NoteContentHash hash = new NoteContentHash();
+        hash.root(topics.iterator(), null);
+
+        for (TopicLine line : topics.get(0).linesView()) {
+            line.setFingerprint(line.line() * 31L, 7);
+        }
+        topics.get(0).restoreUpdatedAt(CREATED);
+        hash.invalidate(topics.get(0));
+
+        assertEquals(root(topics, null), hash.root(topics.iterator(), null));
+    }
+
+    @Test
+    public void topicHashesTellWhichTopicChanged()
+    {
+        List<Topic> topics = Arrays.asList(topic("a"), topic("b"));
+        NoteContentHash hash = new NoteContentHash();
+        hash.root(topics.iterator(), null);
+        Map<String, Long> before = hash.topicHashes(topics.iterator());
+
+        TopicLine changed = topics.get(1).getUngroupedLines().get(0);
+        changed.setNote("edited");
+        topics.get(1).restoreUpdatedAt(CREATED);
+        hash.invalidateLine(changed);
+        Map<String, Long> after = hash.topicHashes(topics.iterator());
+
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(after.keySet()));
+        assertEquals(before.get("a"), after.get("a"));
+        assertNotEquals(before.get("b"), after.get("b"));
+    }
+
+    @Test
+    public void trashIsPartOfTheRoot()
+    {
+        List<Topic> topics = Collections.singletonList(topic("a"));
+        List<TrashedLine> trash = new ArrayList<>();
+        NoteContentHash hash = new NoteContentHash();
+        long empty = hash.root(topics.iterator(), trash);
+
+        trash.add(new TrashedLine(line(null, 9, "gone"), "a", CREATED));
+        assertEquals(empty, hash.root(topics.iterator(), trash));
+        hash.invalidateTrash();
+        long withTrash = hash.root(topics.iterator(), trash);
+
+        assertNotEquals(empty, withTrash);
+        assertEquals(root(topics, trash), withTrash);
+    }
+
+    @Test
+    public void timestampsCountAtSecondPrecision()
+    {
+        Topic a = topic("a");
+        Topic b = topic("a");
+        b.restoreUpdatedAt(new Date(CREATED.getTime() + 999));
+        Topic c = topic("a");
+        c.restoreUpdatedAt(new Date(CREATED.getTime() + 1000));
+
+        assertEquals(root(Collections.singletonList(a), null), root(Collections.singletonList(b), null));
+        assertNotEquals(root(Collections.singletonList(a), null), root(Collections.singletonList(c), null));
+    }
+}
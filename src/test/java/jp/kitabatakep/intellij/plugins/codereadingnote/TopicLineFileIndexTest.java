@@ -0,0 +1,140 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileSystem;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Notes must stay attached to a file renamed or moved inside the IDE.
+ */
+public class TopicLineFileIndexTest
+{
+    private static final String BASE = "/work/project";
+
+    private TopicLineFileIndex index;
+    private Topic topic;
+
+    /**
+     * A file known only by its path, enough for the index.
+     */
+    private static final class PathFile extends VirtualFile
+    {
+        private final String path;
+
+        PathFile(String path)
+        {
+            this.path = path;
+        }
+
+        @Override public String getUrl() { return "file://" + path; }
+        @Override public String getPath() { return path; }
+        @Override public String getName() { return path.substring(path.lastIndexOf('/') + 1); }
+        @Override public boolean isValid() { return true; }
+        @Override public VirtualFileSystem getFileSystem() { throw new UnsupportedOperationException(); }
+        @Override public boolean isWritable() { return true; }
+        @Override public boolean isDirectory() { return false; }
+        @Override public VirtualFile getParent() { return null; }
+        @Override public VirtualFile[] getChildren() { return new VirtualFile[0]; }
+        @Override public OutputStream getOutputStream(Object requestor, long stamp, long timeStamp) { throw new UnsupportedOperationException(); }
+        @Override public byte[] contentsToByteArray() { return new byte[0]; }
+        @Override public long getTimeStamp() { return 0; }
+        @Override public long getLength() { return 0; }
+        @Override public void refresh(boolean asynchronous, boolean recursive, Runnable postRunnable) {}
+        @Override public InputStream getInputStream() { throw new UnsupportedOperationException(); }
+    }
+
+    @Before
+    public void setUp()
+    {
+        Project project = (Project) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{Project.class}, (proxy, method, args) -> {
+                if (method.getName().equals("getBasePath")) {
+                    return BASE;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        index = new TopicLineFileIndex(project);
+        topic = new Topic(null, "topic", new Date());
+    }
+
+    private TopicLine inProject(String relativePath, int line)
+    {
+        TopicLine topicLine = TopicLine.createByImport(null, topic, "file://" + BASE + "/" + relativePath, line,
+            "note", true, relativePath, "uid-" + relativePath + line);
+        index.add(topicLine);
+        return topicLine;
+    }
+
+    @Test
+    public void renamedFileKeepsItsNotes()
+    {
+        TopicLine first = inProject("src/A.java", 3);
+        TopicLine second = inProject("src/A.java", 7);
+        TopicLine other = inProject("src/AB.java", 1);
+        PathFile renamed = new PathFile(BASE + "/src/B.java");
+
+        List<TopicLine> moved = index.fileMoved(BASE + "/src/A.java", renamed);
+
+        assertEquals(2, moved.size());
+        assertEquals(2, index.linesOf(renamed).size());
+        assertSame(first, index.findAt(renamed, 3));
+        assertSame(second, index.findAt(renamed, 7));
+        assertFalse(index.hasLines(new PathFile(BASE + "/src/A.java")));
+        assertEquals("src/B.java", first.relativePath());
+        assertEquals("file://" + BASE + "/src/B.java", first.url());
+        assertSame(renamed, first.file());
+        // Only a path under the old one moves, not one sharing its prefix
+        assertEquals("src/AB.java", other.relativePath());
+        assertEquals(Collections.singletonList(other), index.linesOf(new PathFile(BASE + "/src/AB.java")));
+    }
+
+    @Test
+    public void movedDirectoryMovesTheNotesOfItsFiles()
+    {
+        TopicLine nested = inProject("src/util/deep/C.java", 2);
+        TopicLine outside = inProject("src/utility/D.java", 4);
+
+        List<TopicLine> moved = index.fileMoved(BASE + "/src/util", new PathFile(BASE + "/lib/util"));
+
+        assertEquals(Collections.singletonList(nested), moved);
+        assertEquals("lib/util/deep/C.java", nested.relativePath());
+        assertTrue(nested.inProject());
+        assertSame(nested, index.findAt(new PathFile(BASE + "/lib/util/deep/C.java"), 2));
+        assertEquals("src/utility/D.java", outside.relativePath());
+    }
+
+    @Test
+    public void fileMovedOutOfTheProjectIsKeyedByUrl()
+    {
+        TopicLine line = inProject("src/A.java", 0);
+        PathFile outside = new PathFile("/tmp/A.java");
+
+        index.fileMoved(BASE + "/src/A.java", outside);
+
+        assertFalse(line.inProject());
+        assertEquals("file:///tmp/A.java", line.url());
+        assertSame(line, index.findAt(outside, 0));
+    }
+
+    @Test
+    public void unrelatedMoveChangesNothing()
+    {
+        TopicLine line = inProject("src/A.java", 0);
+
+        assertTrue(index.fileMoved(BASE + "/src/Other.java", new PathFile(BASE + "/src/Else.java")).isEmpty());
+
+        assertEquals("src/A.java", line.relativePath());
+        assertSame(line, index.findAt(new PathFile(BASE + "/src/A.java"), 0));
+    }
+}
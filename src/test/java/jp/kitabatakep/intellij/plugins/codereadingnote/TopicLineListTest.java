@@ -0,0 +1,188 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.ListIterator;
+
+import static org.junit.Assert.*;
+
+public class TopicLineListTest
+{
+    private static TopicLine line(int number)
+    {
+        return TopicLine.createByImport(null, null, "file:///A.java", number, "note " + number, false, null, null);
+    }
+
+    private static List<TopicLine> lines(int count)
+    {
+        List<TopicLine> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add(line(i));
+        }
+        return lines;
+    }
+
+    @Test
+    public void addIgnoresLinesAlreadyPresent()
+    {
+        TopicLine a = line(1);
+        TopicLineList list = new TopicLineList();
+
+        assertTrue(list.add(a));
+        assertFalse(list.add(a));
+        assertFalse(list.addAll(Arrays.asList(a, a)));
+
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    public void positionalAddRejectsLinesAlreadyPresent()
+    {
+        List<TopicLine> source = lines(2);
+        TopicLineList list = new TopicLineList(source);
+
+        try {
+            list.add(0, source.get(1));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+        ListIterator<TopicLine> iterator = list.listIterator(1);
+        try {
+            iterator.add(source.get(0));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+
+        // Nothing changed and the iterator still agrees with the list
+        assertEquals(source, list);
+        assertEquals(1, iterator.nextIndex());
+        assertSame(source.get(1), iterator.next());
+        TopicLine fresh = line(5);
+        iterator.add(fresh);
+        assertEquals(Arrays.asList(source.get(0), source.get(1), fresh), list);
+    }
+
+    @Test
+    public void constructorDropsDuplicates()
+    {
+        TopicLine a = line(1);
+        TopicLine b = line(2);
+
+        TopicLineList list = new TopicLineList(Arrays.asList(a, b, a));
+
+        assertEquals(Arrays.asList(a, b), list);
+    }
+
+    @Test
+    public void membershipFollowsRemovals()
+    {
+        List<TopicLine> source = lines(5);
+        TopicLineList list = new TopicLineList(source);
+
+        assertTrue(list.remove(source.get(1)));
+        assertFalse(list.remove(source.get(1)));
+        assertSame(source.get(0), list.remove(0));
+        assertTrue(list.removeAll(Arrays.asList(source.get(3), line(9))));
+        assertTrue(list.removeIf(l -> l == source.get(4)));
+
+        assertEquals(Collections.singletonList(source.get(2)), list);
+        for (int i = 0; i < source.size(); i++) {
+            assertEquals(i == 2, list.contains(source.get(i)));
+        }
+        assertEquals(-1, list.indexOf(source.get(1)));
+        assertEquals(0, list.indexOf(source.get(2)));
+    }
+
+    @Test
+    public void addAllInsertsFreshLinesInOrder()
+    {
+        List<TopicLine> source = lines(4);
+        TopicLineList list = new TopicLineList(source.subList(0, 2));
+
+        assertTrue(list.addAll(1, Arrays.asList(source.get(3), source.get(0), source.get(2))));
+
+        assertEquals(Arrays.asList(source.get(0), source.get(3), source.get(2), source.get(1)), list);
+    }
+
+    @Test
+    public void moveClampsToBounds()
+    {
+        List<TopicLine> source = lines(3);
+        TopicLineList list = new TopicLineList(source);
+
+        assertTrue(list.move(source.get(0), 10));
+        assertEquals(Arrays.asList(source.get(1), source.get(2), source.get(0)), list);
+        assertTrue(list.move(source.get(0), -1));
+        assertEquals(source, list);
+        assertFalse(list.move(line(7), 0));
+    }
+
+    @Test
+    public void moveAtTheBoundaries()
+    {
+        List<TopicLine> source = lines(4);
+        TopicLineList list = new TopicLineList(source);
+
+        // Already first / already last
+        assertTrue(list.move(source.get(0), 0));
+        assertTrue(list.move(source.get(3), 3));
+        assertEquals(source, list);
+
+        // First to last and last to first
+        assertTrue(list.move(source.get(0), 3));
+        assertEquals(Arrays.asList(source.get(1), source.get(2), source.get(3), source.get(0)), list);
+        assertTrue(list.move(source.get(0), 0));
+        assertEquals(source, list);
+
+        TopicLineList single = new TopicLineList(source.subList(0, 1));
+        assertTrue(single.move(source.get(0), 5));
+        assertEquals(source.subList(0, 1), single);
+        assertEquals(1, single.size());
+        assertEquals(0, single.indexOf(source.get(0)));
+    }
+
+    @Test
+    public void sortAndSwapPermuteThroughSet()
+    {
+        List<TopicLine> source = lines(6);
+        List<TopicLine> shuffled = new ArrayList<>(source);
+        Collections.shuffle(shuffled, new java.util.Random(7));
+        TopicLineList list = new TopicLineList(shuffled);
+
+        list.sort(Comparator.comparingInt(TopicLine::line));
+        assertEquals(source, list);
+
+        Collections.sort(list, Comparator.comparingInt(TopicLine::line).reversed());
+        Collections.swap(list, 0, 5);
+        Collections.reverse(list);
+
+        assertEquals(6, list.size());
+        for (TopicLine l : source) {
+            assertTrue(list.contains(l));
+            assertFalse(list.add(l));
+        }
+        assertSame(source.get(5), list.get(0));
+        assertSame(source.get(0), list.get(5));
+    }
+
+    @Test
+    public void setReplacesMembership()
+    {
+        List<TopicLine> source = lines(2);
+        TopicLineList list = new TopicLineList(source);
+        TopicLine replacement = line(5);
+
+        assertSame(source.get(0), list.set(0, replacement));
+
+        assertFalse(list.contains(source.get(0)));
+        assertTrue(list.contains(replacement));
+        assertTrue(list.add(source.get(0)));
+    }
+}
@@ -0,0 +1,264 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.util.messages.MessageBus;
+import org.jdom.Attribute;
+import org.jdom.Content;
+import org.jdom.Element;
+import org.jdom.Text;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TopicListBinaryFormatTest
+{
+    private static final Date CREATED = new Date(1_600_000_000_000L);
+
+    private static TopicLine line(Topic topic, int number, String note)
+    {
+        return TopicLine.createByImport(null, topic, "file:///src/A.java", number, note, true, "src/A.java", "uid-" + number);
+    }
+
+    private static List<Topic> topics()
+    {
+        Topic topic = new Topic(null, "阅读 <main>", CREATED);
+        topic.setLines(Arrays.asList(line(topic, 1, "\"quotes\" & ampersand\nsecond line"), line(topic, 2, "第二行 ✓")));
+        TopicGroup group = new TopicGroup(null, topic, "group", CREATED);
+        group.setLines(Collections.singletonList(line(topic, 3, "")));
+        topic.setGroups(new ArrayList<>(Collections.singletonList(group)));
+        return Collections.singletonList(topic);
+    }
+
+    private static ArrayList<TrashedLine> trash()
+    {
+        Topic topic = new Topic(null, "old", CREATED);
+        ArrayList<TrashedLine> trash = new ArrayList<>();
+        trash.add(new TrashedLine(line(topic, 9, "deleted"), "old", CREATED));
+        return trash;
+    }
+
+    private static Element exported()
+    {
+        return TopicListExporter.export(topics().iterator(), trash());
+    }
+
+    /**
+     * Names, attributes in order and text/element content in order, recursively.
+     */
+    private static void assertSameTree(String path, Element expected, Element actual)
+    {
+        path = path + "/" + expected.getName();
+        assertEquals(path, expected.getName(), actual.getName());
+
+        List<Attribute> expectedAttributes = expected.getAttributes();
+        List<Attribute> actualAttributes = actual.getAttributes();
+        assertEquals(path + " attributes", expectedAttributes.size(), actualAttributes.size());
+        for (int i = 0; i < expectedAttributes.size(); i++) {
+            assertEquals(path, expectedAttributes.get(i).getName(), actualAttributes.get(i).getName());
+            assertEquals(path, expectedAttributes.get(i).getValue(), actualAttributes.get(i).getValue());
+        }
+
+        List<Content> expectedContent = expected.getContent();
+        List<Content> actualContent = actual.getContent();
+        assertEquals(path + " content", expectedContent.size(), actualContent.size());
+        for (int i = 0; i < expectedContent.size(); i++) {
+            Content e = expectedContent.get(i);
+            Content a = actualContent.get(i);
+            if (e instanceof Element) {
+                assertTrue(path + "[" + i + "] is an element", a instanceof Element);
+                assertSameTree(path, (Element) e, (Element) a);
+            } else {
+                assertTrue(path + "[" + i + "] is text", a instanceof Text);
+                assertEquals(path, ((Text) e).getText(), ((Text) a).getText());
+            }
+        }
+    }
+
+    private static void assertRejected(byte[] data)
+    {
+        try {
+            TopicListBinaryFormat.fromBinary(data);
+            fail("expected FormatException");
+        } catch (TopicListImporter.FormatException expected) {
+            // ok
+        }
+    }
+
+    @Test
+    public void exportedTreeRoundTrips() throws Exception
+    {
+        Element state = exported();
+
+        Element restored = TopicListBinaryFormat.fromBinary(TopicListBinaryFormat.toBinary(state));
+
+        assertSameTree("", state, restored);
+        assertNotNull(restored.getChild("trash"));
+    }
+
+    @Test
+    public void exportIncludesTheTrash() throws Exception
+    {
+        Element restored = TopicListBinaryFormat.fromBinary(TopicListBinaryFormat.export(topics().iterator(), trash()));
+
+        assertSameTree("", exported(), restored);
+    }
+
+    @Test
+    public void manyDistinctStringsUseMultiByteReferences() throws Exception
+    {
+        // more than 127 strings, so references and counts need two varint bytes
+        Element root = new Element("topics");
+        for (int i = 0; i < 300; i++) {
+            root.addContent(new Element("note").setAttribute("id", "id-" + i).addContent("text " + i));
+        }
+
+        assertSameTree("", root, TopicListBinaryFormat.fromBinary(TopicListBinaryFormat.toBinary(root)));
+    }
+
+    @Test
+    public void everyTruncationIsRejected()
+    {
+        byte[] data = TopicListBinaryFormat.toBinary(exported());
+
+        for (int length = 0; length < data.length; length++) {
+            assertRejected(Arrays.copyOf(data, length));
+        }
+    }
+
+    @Test
+    public void badMagicIsRejected()
+    {
+        byte[] data = TopicListBinaryFormat.toBinary(exported());
+        data[0] = 'X';
+
+        assertRejected(data);
+        assertRejected("<topics/>".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void newerVersionIsRejected()
+    {
+        byte[] data = TopicListBinaryFormat.toBinary(exported());
+        assertEquals(TopicListBinaryFormat.VERSION, data[4]);
+        data[4] = TopicListBinaryFormat.VERSION + 1;
+
+        assertRejected(data);
+    }
+
+    @Test
+    public void badStringReferenceIsRejected()
+    {
+        // magic, version 1, empty string table, root name ref 0
+        byte[] data = {'C', 'R', 'N', 'B', 1, 0, 0};
+
+        assertRejected(data);
+    }
+
+    /**
+     * A project whose message bus drops every event.
+     */
+    private static Project quietProject()
+    {
+        ClassLoader loader = TopicListBinaryFormatTest.class.getClassLoader();
+        MessageBus messageBus = (MessageBus) Proxy.newProxyInstance(loader, new Class<?>[]{MessageBus.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("syncPublisher")) {
+                    Class<?> listener = ((com.intellij.util.messages.Topic<?>) args[0]).getListenerClass();
+                    return Proxy.newProxyInstance(loader, new Class<?>[]{listener}, (p, m, a) -> null);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        return (Project) Proxy.newProxyInstance(loader, new Class<?>[]{Project.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getMessageBus":
+                    return messageBus;
+                case "isDisposed":
+                    return false;
+                case "getServiceIfCreated":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static TopicListStreamImporter.Result importBinary(byte[] data) throws TopicListImporter.FormatException
+    {
+        return TopicListStreamImporter.importBinary(quietProject(), new ByteArrayInputStream(data));
+    }
+
+    @Test
+    public void binaryImportDecodesTopicsAndTrash() throws Exception
+    {
+        TopicListStreamImporter.Result result = importBinary(TopicListBinaryFormat.export(topics().iterator(), trash()));
+
+        assertTrue(result.hasTrash());
+        assertEquals(1, result.getTrashedLines().size());
+        assertEquals("deleted", result.getTrashedLines().get(0).getLine().note());
+        assertSameTree("", exported(), TopicListExporter.export(result.getTopics().iterator(), result.getTrashedLines()));
+    }
+
+    @Test
+    public void binaryImportFindsNestedTopics() throws Exception
+    {
+        Element state = new Element("component");
+        state.addContent(new Element("option").addContent("skipped"));
+        state.addContent(exported());
+
+        TopicListStreamImporter.Result result = importBinary(TopicListBinaryFormat.toBinary(state));
+
+        assertEquals(1, result.getTopics().size());
+        assertEquals(3, result.getTopics().get(0).getAllLines().size());
+    }
+
+    @Test
+    public void binaryImportWithoutTrashSaysSo() throws Exception
+    {
+        Element state = exported();
+        state.removeChild("trash");
+
+        assertFalse(importBinary(TopicListBinaryFormat.toBinary(state)).hasTrash());
+    }
+
+    @Test
+    public void everyTruncationIsRejectedByTheImport()
+    {
+        byte[] data = TopicListBinaryFormat.toBinary(exported());
+
+        for (int length = 0; length < data.length; length++) {
+            try {
+                importBinary(Arrays.copyOf(data, length));
+                fail("expected FormatException at length " + length);
+            } catch (TopicListImporter.FormatException expected) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void isBinaryPeeksWithoutConsuming() throws IOException
+    {
+        byte[] data = TopicListBinaryFormat.toBinary(exported());
+        InputStream binary = new BufferedInputStream(new ByteArrayInputStream(data));
+        InputStream xml = new BufferedInputStream(new ByteArrayInputStream("<topics/>".getBytes(StandardCharsets.UTF_8)));
+        InputStream empty = new BufferedInputStream(new ByteArrayInputStream(new byte[0]));
+
+        assertTrue(TopicListBinaryFormat.isBinary(binary));
+        assertEquals('C', binary.read());
+        assertFalse(TopicListBinaryFormat.isBinary(xml));
+        assertEquals('<', xml.read());
+        assertFalse(TopicListBinaryFormat.isBinary(empty));
+    }
+}
@@ -0,0 +1,91 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote;
+
+import org.jdom.Attribute;
+import org.jdom.Content;
+import org.jdom.Element;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TopicStateCacheTest
+{
+    private static Topic topic(String name)
+    {
+        Topic topic = new Topic(null, name, new Date(1_600_000_000_000L));
+        topic.setLines(Collections.singletonList(
+            TopicLine.createByImport(null, topic, "file:///src/A.java", 1, name + " note", true, "src/A.java", "uid-" + name)));
+        return topic;
+    }
+
+    /**
+     * Names, attributes and content in order, recursively.
+     */
+    private static String render(Element element)
+    {
+        StringBuilder builder = new StringBuilder("<").append(element.getName());
+        for (Attribute attribute : element.getAttributes()) {
+            builder.append(' ').append(attribute.getName()).append("='").append(attribute.getValue()).append('\'');
+        }
+        builder.append('>');
+        for (Content content : element.getContent()) {
+            builder.append(content instanceof Element ? render((Element) content) : content.getValue());
+        }
+        return builder.append("</").append(element.getName()).append('>').toString();
+    }
+
+    private static Element topicChild(Element topics, int index)
+    {
+        return topics.getChildren("topic").get(index);
+    }
+
+    @Test
+    public void exportMatchesTheFullExporter()
+    {
+        List<Topic> topics = Arrays.asList(topic("a"), topic("b"));
+        TopicStateCache cache = new TopicStateCache();
+
+        Element expected = TopicListExporter.export(topics.iterator(), null);
+        cache.export(topics.iterator(), null);
+        Element second = cache.export(topics.iterator(), null);
+
+        assertEquals(render(expected), render(second));
+    }
+
+    @Test
+    public void unchangedFragmentsAreHandedOutWithoutCopying()
+    {
+        List<Topic> topics = Arrays.asList(topic("a"), topic("b"));
+        TopicStateCache cache = new TopicStateCache();
+
+        Element first = cache.export(topics.iterator(), null);
+        Element a = topicChild(first, 0);
+        Element b = topicChild(first, 1);
+        cache.invalidate(topics.get(1));
+        Element second = cache.export(topics.iterator(), null);
+
+        assertSame(a, topicChild(second, 0));
+        assertNotSame(b, topicChild(second, 1));
+        // Moved out of the previous tree rather than copied
+        assertSame(second, a.getParentElement());
+    }
+
+    @Test
+    public void snapshotDoesNotShareFragmentsHandedOut()
+    {
+        List<Topic> topics = Arrays.asList(topic("a"), topic("b"));
+        TopicStateCache cache = new TopicStateCache();
+
+        Element exported = cache.export(topics.iterator(), null);
+        TopicStateCache.Snapshot snapshot = cache.snapshot(topics.iterator(), null);
+
+        assertNotSame(topicChild(exported, 0), snapshot.fragments.get(0));
+        assertNull(snapshot.fragments.get(0).getParentElement());
+        // Cached again from now on
+        assertSame(snapshot.fragments.get(1), cache.snapshot(topics.iterator(), null).fragments.get(1));
+    }
+}
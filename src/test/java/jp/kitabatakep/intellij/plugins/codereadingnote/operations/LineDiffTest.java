@@ -0,0 +1,153 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.operations;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LineDiffTest
+{
+    private static long[] lines(long... hashes)
+    {
+        return hashes;
+    }
+
+    private static int lcs(long[] a, long[] b)
+    {
+        int[][] dp = new int[a.length + 1][b.length + 1];
+        for (int i = 1; i <= a.length; i++) {
+            for (int j = 1; j <= b.length; j++) {
+                dp[i][j] = a[i - 1] == b[j - 1] ? dp[i - 1][j - 1] + 1 : Math.max(dp[i - 1][j], dp[i][j - 1]);
+            }
+        }
+        return dp[a.length][b.length];
+    }
+
+    private static long[] random(Random random, int length, int alphabet)
+    {
+        long[] result = new long[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = random.nextInt(alphabet) + 1;
+        }
+        return result;
+    }
+
+    @Test
+    public void identicalFilesMapOneToOne()
+    {
+        int[] mapping = LineDiff.mapLines(lines(1, 2, 3), lines(1, 2, 3), 10);
+
+        assertArrayEquals(new int[]{0, 1, 2}, mapping);
+    }
+
+    @Test
+    public void insertionsAndDeletionsShiftLines()
+    {
+        // 9 inserted at the top, 3 deleted, 7 appended
+        int[] mapping = LineDiff.mapLines(lines(1, 2, 3, 4, 5), lines(9, 1, 2, 4, 5, 7), 10);
+
+        assertArrayEquals(new int[]{1, 2, -1, 3, 4}, mapping);
+    }
+
+    @Test
+    public void changedLineIsUnmapped()
+    {
+        int[] mapping = LineDiff.mapLines(lines(1, 2, 3), lines(1, 8, 3), 10);
+
+        assertArrayEquals(new int[]{0, -1, 2}, mapping);
+    }
+
+    @Test
+    public void emptySidesAreHandled()
+    {
+        assertArrayEquals(new int[]{-1, -1}, LineDiff.mapLines(lines(1, 2), lines(), 10));
+        assertArrayEquals(new int[0], LineDiff.mapLines(lines(), lines(1, 2), 10));
+    }
+
+    @Test
+    public void mappingIsAMaximalCommonSubsequence()
+    {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            long[] a = random(random, random.nextInt(30), 4);
+            long[] b = random(random, random.nextInt(30), 4);
+
+            int[] mapping = LineDiff.mapLines(a, b, 1000);
+
+            assertNotNull(mapping);
+            int matched = 0;
+            int previous = -1;
+            for (int i = 0; i < a.length; i++) {
+                if (mapping[i] < 0) continue;
+                assertTrue("mapping must increase", mapping[i] > previous);
+                assertEquals("mapped lines must be equal", a[i], b[mapping[i]]);
+                previous = mapping[i];
+                matched++;
+            }
+            assertEquals(lcs(a, b), matched);
+        }
+    }
+
+    @Test
+    public void tooManyEditsGiveUp()
+    {
+        long[] a = new long[50];
+        long[] b = new long[50];
+        for (int i = 0; i < 50; i++) {
+            a[i] = i + 1;
+            b[i] = i + 1000;
+        }
+
+        assertNull(LineDiff.mapLines(a, b, 20));
+        assertNotNull(LineDiff.mapLines(a, b, 100));
+    }
+
+    @Test
+    public void commonPrefixAndSuffixDoNotCountAsEdits()
+    {
+        long[] a = new long[200];
+        long[] b = new long[201];
+        for (int i = 0; i < 200; i++) {
+            a[i] = i + 1;
+            b[i < 100 ? i : i + 1] = i + 1;
+        }
+        b[100] = 999;
+
+        int[] mapping = LineDiff.mapLines(a, b, 1);
+
+        assertNotNull(mapping);
+        assertEquals(99, mapping[99]);
+        assertEquals(101, mapping[100]);
+    }
+
+    @Test
+    public void nearestSurvivorKeepsDistanceToLineBelow()
+    {
+        // old line 2 was changed, line 3 moved from 3 to 5
+        int[] mapping = {0, 1, -1, 5};
+
+        assertEquals(4, LineDiff.nearestSurvivor(mapping, 2, 6));
+    }
+
+    @Test
+    public void nearestSurvivorStaysInsideTheHunk()
+    {
+        // old lines 1..3 replaced by one line, 4 survived at 2: all land on the replacement
+        int[] mapping = {0, -1, -1, -1, 2};
+
+        for (int oldLine = 1; oldLine <= 3; oldLine++) {
+            assertEquals(1, LineDiff.nearestSurvivor(mapping, oldLine, 3));
+        }
+    }
+
+    @Test
+    public void nearestSurvivorUsesLineAboveAtTheEnd()
+    {
+        int[] mapping = {3, -1, -1};
+
+        assertEquals(5, LineDiff.nearestSurvivor(mapping, 2, 10));
+        assertEquals(4, LineDiff.nearestSurvivor(mapping, 2, 5));
+        assertEquals(1, LineDiff.nearestSurvivor(new int[]{-1, -1}, 1, 4));
+    }
+}
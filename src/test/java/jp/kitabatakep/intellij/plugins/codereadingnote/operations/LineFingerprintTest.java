@@ -0,0 +1,80 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.operations;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LineFingerprintTest
+{
+    @Test
+    public void everyLineBreakStyleEndsALine()
+    {
+        long[] unix = LineFingerprint.lineHashes("a\nb\nc");
+        long[] windows = LineFingerprint.lineHashes("a\r\nb\r\nc");
+        long[] mac = LineFingerprint.lineHashes("a\rb\rc");
+
+        assertEquals(3, unix.length);
+        assertArrayEquals(unix, windows);
+        assertArrayEquals(unix, mac);
+    }
+
+    @Test
+    public void trailingBreakStartsAnEmptyLine()
+    {
+        long[] hashes = LineFingerprint.lineHashes("a\n");
+
+        assertEquals(2, hashes.length);
+        assertEquals(LineFingerprint.lineHashes("")[0], hashes[1]);
+    }
+
+    @Test
+    public void surroundingWhitespaceIsIgnored()
+    {
+        long[] hashes = LineFingerprint.lineHashes("foo();\n    foo();  \n\tfoo( );");
+
+        assertEquals(hashes[0], hashes[1]);
+        assertNotEquals(hashes[0], hashes[2]);
+    }
+
+    @Test
+    public void hashesAreNeverZero()
+    {
+        for (long hash : LineFingerprint.lineHashes("\n\n  \nx")) {
+            assertNotEquals(0, hash);
+        }
+        for (long hash : LineFingerprint.contextHashes(new long[]{1, 2, 3})) {
+            assertNotEquals(0, hash);
+        }
+    }
+
+    @Test
+    public void rollingContextHashesMatchSinglePositions()
+    {
+        Random random = new Random(13);
+        for (int n = 1; n < 40; n++) {
+            long[] lines = new long[n];
+            for (int i = 0; i < n; i++) {
+                lines[i] = random.nextInt(5) + 1;
+            }
+            long[] rolling = LineFingerprint.contextHashes(lines);
+            for (int p = 0; p < n; p++) {
+                assertEquals("n=" + n + " p=" + p, LineFingerprint.contextHash(lines, p), rolling[p]);
+            }
+        }
+    }
+
+    @Test
+    public void contextCoversNeighbourLinesOnly()
+    {
+        String base = "l0\nl1\nl2\nl3\nl4\nl5\nl6\nl7";
+        long[] before = LineFingerprint.contextHashes(LineFingerprint.lineHashes(base));
+        long[] after = LineFingerprint.contextHashes(LineFingerprint.lineHashes(base.replace("l6", "changed")));
+
+        // positions 4..7 see line 6, 0..3 don't
+        for (int p = 0; p < 8; p++) {
+            assertEquals("p=" + p, p < 4, before[p] == after[p]);
+        }
+    }
+}
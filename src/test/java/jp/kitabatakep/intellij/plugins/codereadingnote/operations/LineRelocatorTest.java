@@ -0,0 +1,102 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.operations;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LineRelocatorTest
+{
+    private static final String SOURCE = String.join("\n",
+        "class A {",
+        "    void first() {",
+        "        setUp();",
+        "        return;",
+        "    }",
+        "",
+        "    void second() {",
+        "        compute();",
+        "        return;",
+        "    }",
+        "}");
+
+    private static long anchor(String text, int line)
+    {
+        return LineFingerprint.lineHashes(text)[line];
+    }
+
+    private static long context(String text, int line)
+    {
+        return LineFingerprint.contextHash(LineFingerprint.lineHashes(text), line);
+    }
+
+    @Test
+    public void unchangedLineStays()
+    {
+        LineRelocator relocator = new LineRelocator(SOURCE);
+
+        assertTrue(relocator.matches(context(SOURCE, 7), 7));
+        assertEquals(7, relocator.relocate(anchor(SOURCE, 7), context(SOURCE, 7), 7));
+    }
+
+    @Test
+    public void followsInsertedLinesByContext()
+    {
+        String edited = "// header\n// more\n" + SOURCE;
+        LineRelocator relocator = new LineRelocator(edited);
+
+        assertEquals(10, relocator.relocate(anchor(SOURCE, 8), context(SOURCE, 8), 8));
+        assertEquals(3, relocator.relocate(anchor(SOURCE, 1), context(SOURCE, 1), 1));
+    }
+
+    @Test
+    public void contextMatchNearestToOldLineWins()
+    {
+        String block = "x\ny\nz\ny\nx";
+        String twice = block + "\n" + block;
+        LineRelocator relocator = new LineRelocator("new\n" + twice);
+
+        assertEquals(3, relocator.relocate(anchor(twice, 2), context(twice, 2), 2));
+        assertEquals(8, relocator.relocate(anchor(twice, 7), context(twice, 7), 7));
+    }
+
+    @Test
+    public void uniqueAnchorIsFoundWhenContextChanged()
+    {
+        // compute(); moved down a line and its method was renamed, so no window matches any more
+        String edited = "// moved\n" + SOURCE.replace("void second() {", "void renamed() {");
+        LineRelocator relocator = new LineRelocator(edited);
+
+        assertFalse(relocator.matches(context(SOURCE, 7), 8));
+        assertEquals(8, relocator.relocate(anchor(SOURCE, 7), context(SOURCE, 7), 7));
+    }
+
+    @Test
+    public void ambiguousAnchorIsNotGuessed()
+    {
+        // Both "return;" lines lose their context
+        String edited = SOURCE.replace("setUp();", "init();").replace("compute();", "run();");
+        LineRelocator relocator = new LineRelocator(edited);
+
+        assertEquals(-1, relocator.relocate(anchor(SOURCE, 8), context(SOURCE, 8), 8));
+        assertEquals(-1, relocator.relocate(anchor(SOURCE, 4), context(SOURCE, 4), 4));
+    }
+
+    @Test
+    public void blankLineIsNotGuessed()
+    {
+        String edited = SOURCE.replace("    void second() {", "\n    void other() {");
+        LineRelocator relocator = new LineRelocator(edited);
+
+        assertEquals(-1, relocator.relocate(anchor(SOURCE, 5), context(SOURCE, 5), 5));
+    }
+
+    @Test
+    public void missingLineIsNotFound()
+    {
+        String edited = SOURCE.replace("        compute();\n", "");
+        LineRelocator relocator = new LineRelocator(edited);
+
+        assertEquals(-1, relocator.relocate(anchor(SOURCE, 7), context(SOURCE, 7), 7));
+        assertEquals(-1, relocator.relocate(0, 0, 7));
+    }
+}
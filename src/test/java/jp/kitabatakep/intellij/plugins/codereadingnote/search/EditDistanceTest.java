@@ -0,0 +1,224 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.search;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EditDistanceTest
+{
+    /**
+     * The full-matrix Levenshtein distance SearchService used before EditDistance.
+     */
+    private static int levenshteinDistance(String s1, String s2)
+    {
+        int m = s1.length();
+        int n = s2.length();
+        int[][] dp = new int[m + 1][n + 1];
+        for (int i = 0; i <= m; i++) {
+            dp[i][0] = i;
+        }
+        for (int j = 0; j <= n; j++) {
+            dp[0][j] = j;
+        }
+        for (int i = 1; i <= m; i++) {
+            for (int j = 1; j <= n; j++) {
+                if (s1.charAt(i - 1) == s2.charAt(j - 1)) {
+                    dp[i][j] = dp[i - 1][j - 1];
+                } else {
+                    dp[i][j] = Math.min(Math.min(dp[i - 1][j], dp[i][j - 1]), dp[i - 1][j - 1]) + 1;
+                }
+            }
+        }
+        return dp[m][n];
+    }
+
+    /**
+     * Smallest full-matrix distance between the pattern and any substring of the text.
+     */
+    private static int substringLevenshtein(String text, String pattern)
+    {
+        int best = levenshteinDistance("", pattern);
+        for (int from = 0; from <= text.length(); from++) {
+            for (int to = from; to <= text.length(); to++) {
+                best = Math.min(best, levenshteinDistance(text.substring(from, to), pattern));
+            }
+        }
+        return best;
+    }
+
+    private static String random(Random random, String alphabet, int length)
+    {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    private static void assertBounded(String pattern, String text, int maxDistance)
+    {
+        int expected = levenshteinDistance(text, pattern);
+        int actual = new EditDistance(pattern).distance(text, maxDistance);
+        String message = "'" + pattern + "' vs '" + text + "' within " + maxDistance;
+        if (expected <= maxDistance) {
+            assertEquals(message, expected, actual);
+        } else {
+            assertTrue(message, actual > maxDistance);
+        }
+    }
+
+    @Test
+    public void knownDistances()
+    {
+        EditDistance kitten = new EditDistance("kitten");
+        assertEquals(3, kitten.distance("sitting", 10));
+        assertEquals(0, kitten.distance("kitten", 10));
+        assertEquals(6, kitten.distance("", 10));
+        assertEquals(1, new EditDistance("parser").distance("prser", 10));
+        assertEquals(2, new EditDistance("config").distance("confgi", 10));
+        assertEquals(5, new EditDistance("").distance("abcde", 10));
+    }
+
+    @Test
+    public void nonAsciiCharacters()
+    {
+        assertEquals(1, new EditDistance("缓存命中").distance("缓存未命中", 10));
+        assertEquals(2, new EditDistance("重试逻辑").distance("重连逻辑x", 10));
+        assertEquals(levenshteinDistance("é∑ß", "e∑s"), new EditDistance("e∑s").distance("é∑ß", 10));
+    }
+
+    @Test
+    public void lengthDifferenceAloneExceedsTheBound()
+    {
+        assertTrue(new EditDistance("ab").distance("abcdefgh", 3) > 3);
+        assertEquals(6, new EditDistance("ab").distance("abcdefgh", 6));
+    }
+
+    @Test
+    public void matchesFullMatrixForShortQueries()
+    {
+        Random random = new Random(42);
+        for (int round = 0; round < 3000; round++) {
+            String alphabet = round % 3 == 0 ? "ab" : round % 3 == 1 ? "abcdefgh " : "ab重试逻辑é";
+            String pattern = random(random, alphabet, random.nextInt(20));
+            String text = random(random, alphabet, random.nextInt(40));
+            assertBounded(pattern, text, random.nextInt(25));
+            assertBounded(pattern, text, Integer.MAX_VALUE / 2);
+        }
+    }
+
+    @Test
+    public void wordSizedAndLongerQueries()
+    {
+        // 64 characters is the last bit-parallel length, longer ones use the row DP
+        Random random = new Random(7);
+        for (int length : new int[]{63, 64, 65, 100}) {
+            for (int round = 0; round < 200; round++) {
+                String pattern = random(random, "abcd缓存", length);
+                String text = random(random, "abcd缓存", length - 10 + random.nextInt(20));
+                assertBounded(pattern, text, random.nextInt(length));
+                assertBounded(pattern, text, Integer.MAX_VALUE / 2);
+            }
+        }
+    }
+
+    @Test
+    public void onePatternServesManyTexts()
+    {
+        Random random = new Random(3);
+        for (int length : new int[]{10, 80}) {
+            String pattern = random(random, "xyz", length);
+            EditDistance distance = new EditDistance(pattern);
+            for (int round = 0; round < 200; round++) {
+                String text = random(random, "xyz", random.nextInt(100));
+                assertEquals(levenshteinDistance(text, pattern), distance.distance(text, Integer.MAX_VALUE / 2));
+            }
+        }
+    }
+
+    @Test
+    public void knownSubstringDistances()
+    {
+        EditDistance parser = new EditDistance("parser");
+        assertEquals(0, parser.substringDistance("the xml parser is lazy", 10));
+        assertEquals(1, parser.substringDistance("the xml prser is lazy", 10));
+        assertEquals(1, parser.substringDistance("parsr", 10));
+        assertEquals(6, parser.substringDistance("", 10));
+        assertEquals(1, new EditDistance("缓存命中").substringDistance("这里检查缓存未命中的情况", 10));
+        assertEquals(0, new EditDistance("").substringDistance("abc", 10));
+    }
+
+    @Test
+    public void substringDistanceMatchesFullMatrix()
+    {
+        Random random = new Random(5);
+        for (int round = 0; round < 1500; round++) {
+            String alphabet = round % 2 == 0 ? "ab" : "abc重试é";
+            String pattern = random(random, alphabet, random.nextInt(10));
+            String text = random(random, alphabet, random.nextInt(16));
+            assertEquals(pattern + " in " + text, substringLevenshtein(text, pattern),
+                new EditDistance(pattern).substringDistance(text, Integer.MAX_VALUE / 2));
+        }
+    }
+
+    @Test
+    public void substringDistanceOfWordSizedAndLongerQueries()
+    {
+        // A query planted with a few edits in random text, either side of the switch to the row DP
+        Random random = new Random(9);
+        for (int length : new int[]{63, 64, 65, 100}) {
+            for (int round = 0; round < 20; round++) {
+                String pattern = random(random, "abcd缓存", length);
+                StringBuilder planted = new StringBuilder(pattern);
+                for (int edit = random.nextInt(4); edit > 0; edit--) {
+                    planted.setCharAt(random.nextInt(planted.length()), 'x');
+                }
+                String text = random(random, "abcd缓存", random.nextInt(30)) + planted
+                    + random(random, "abcd缓存", random.nextInt(30));
+
+                int expected = Integer.MAX_VALUE;
+                for (int from = 0; from <= text.length(); from++) {
+                    for (int to = from; to <= Math.min(text.length(), from + length * 2); to++) {
+                        expected = Math.min(expected, levenshteinDistance(text.substring(from, to), pattern));
+                    }
+                }
+                assertEquals(expected, new EditDistance(pattern).substringDistance(text, Integer.MAX_VALUE / 2));
+            }
+        }
+    }
+
+    @Test
+    public void misspelledWordInALongNotePassesTheThreshold()
+    {
+        String note = "retry the request when the connection pool is exhausted and log the failure";
+
+        double score = SearchService.calculateEditDistanceScore(note, new EditDistance("conection"), SearchService.SCORE_THRESHOLD);
+
+        assertEquals((1.0 - 1 / 9.0) * 0.4, score, 1e-12);
+        assertTrue(score > SearchService.SCORE_THRESHOLD);
+    }
+
+    @Test
+    public void editScoreMatchesUnboundedScoreWhenItCanWin()
+    {
+        Random random = new Random(11);
+        for (int round = 0; round < 2000; round++) {
+            String query = random(random, "abcdef", 1 + random.nextInt(12));
+            String text = random(random, "abcdef", random.nextInt(20));
+            double mustBeat = random.nextDouble() * 0.4;
+
+            int maxLength = Math.max(text.length(), query.length());
+            double unbounded = Math.max((1.0 - levenshteinDistance(text, query) / (double) maxLength) * 0.4,
+                (1.0 - substringLevenshtein(text, query) / (double) query.length()) * 0.4);
+            double bounded = SearchService.calculateEditDistanceScore(text, new EditDistance(query), mustBeat);
+
+            if (unbounded > mustBeat) {
+                assertEquals(query + " / " + text, unbounded, bounded, 1e-12);
+            } else {
+                assertTrue(query + " / " + text, bounded <= mustBeat);
+            }
+        }
+    }
+}
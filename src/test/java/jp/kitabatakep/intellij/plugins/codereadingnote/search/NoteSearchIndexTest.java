@@ -0,0 +1,308 @@
+package jp.kitabatakep.intellij.plugins.codereadingnote.search;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.util.messages.MessageBus;
+import jp.kitabatakep.intellij.plugins.codereadingnote.Topic;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicGroup;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicLine;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicListNotifier;
+import jp.kitabatakep.intellij.plugins.codereadingnote.TopicNotifier;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * NoteSearchIndex must give the same results as the full scan of SearchService, also after the
+ * incremental updates CodeReadingNoteService applies from TopicNotifier events.
+ */
+public class NoteSearchIndexTest
+{
+    private static final List<String> QUERIES = Arrays.asList(
+        "parser", "parse", "prser", "token", "tokenizer init", "cache", "cahce", "read", "x",
+        "ab", "abc", "loop", "error handling", "重试", "缓存", "cs", "huancun", "hc", "jiexi",
+        "connection pool size", "zzzz", "the", "e", "ee", "config", "confgi");
+
+    private static final List<String> NOTES = Arrays.asList(
+        "Parser entry point", "parse the header", "tokenizer init", "token stream",
+        "cache lookup", "cache miss path", "read loop", "error handling for reads",
+        "重试逻辑", "缓存命中", "解析配置", "connection pool size check", "abc", "ab",
+        "the end", "eee", "config loader", "");
+
+    private final List<Topic> topics = new ArrayList<>();
+    private NoteSearchIndex index;
+    private Project project;
+    private int nextLine;
+
+    @Before
+    public void setUp()
+    {
+        index = new NoteSearchIndex();
+        // Same index maintenance as CodeReadingNoteService
+        TopicNotifier indexUpdater = new TopicNotifier()
+        {
+            @Override
+            public void lineRemoved(Topic topic, TopicLine topicLine)
+            {
+                index.remove(topicLine);
+            }
+
+            @Override
+            public void lineAdded(Topic topic, TopicLine topicLine)
+            {
+                index.update(topicLine);
+            }
+
+            @Override
+            public void lineNoteChanged(Topic topic, TopicLine topicLine)
+            {
+                topicLine.invalidateSearchText();
+                index.update(topicLine);
+            }
+
+            @Override
+            public void linesReordered(Topic topic)
+            {
+                index.structureChanged();
+            }
+
+            @Override
+            public void groupAdded(Topic topic, TopicGroup group)
+            {
+                index.structureChanged();
+            }
+
+            @Override
+            public void groupRemoved(Topic topic, TopicGroup group)
+            {
+                index.structureChanged();
+            }
+
+            @Override
+            public void groupsReordered(Topic topic)
+            {
+                index.structureChanged();
+            }
+        };
+        TopicListNotifier noTopicListListener = new TopicListNotifier()
+        {
+            @Override
+            public void topicAdded(Topic topic) {}
+
+            @Override
+            public void topicRemoved(Topic topic) {}
+
+            @Override
+            public void topicsLoaded() {}
+        };
+        MessageBus messageBus = (MessageBus) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{MessageBus.class}, (proxy, method, args) -> {
+                if (method.getName().equals("syncPublisher")) {
+                    return args[0] == TopicNotifier.TOPIC_NOTIFIER_TOPIC ? indexUpdater : noTopicListListener;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        project = (Project) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{Project.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getMessageBus":
+                        return messageBus;
+                    case "isDisposed":
+                        return false;
+                    case "getServiceIfCreated":
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+
+        Topic first = topic("first");
+        for (int i = 0; i < NOTES.size(); i += 2) {
+            first.addLine(line(first, NOTES.get(i)));
+        }
+        Topic second = topic("second");
+        for (int i = 1; i < NOTES.size(); i += 2) {
+            second.addLineToGroup(line(second, NOTES.get(i)), "group");
+        }
+        topics.add(first);
+        topics.add(second);
+    }
+
+    private Topic topic(String name)
+    {
+        return new Topic(project, name, new Date());
+    }
+
+    private TopicLine line(Topic topic, String note)
+    {
+        int number = nextLine++;
+        return TopicLine.createByImport(project, topic, "file:///src/A.java", number, note, true, "src/A.java", "uid-" + number);
+    }
+
+    private void assertIndexMatchesFullScan()
+    {
+        for (String query : QUERIES) {
+            List<SearchService.SearchResult> expected = SearchService.search(topics, query);
+            List<SearchService.SearchResult> actual = SearchService.search(topics, index, query);
+
+            assertEquals(query, expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertSame(query + " #" + i, expected.get(i).getTopicLine(), actual.get(i).getTopicLine());
+                assertSame(query + " #" + i, expected.get(i).getGroup(), actual.get(i).getGroup());
+                assertEquals(query + " #" + i, expected.get(i).getScore(), actual.get(i).getScore(), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void builtIndexMatchesFullScan()
+    {
+        assertIndexMatchesFullScan();
+        assertFalse(SearchService.search(topics, index, "parser").isEmpty());
+    }
+
+    @Test
+    public void lineAddedToGroupIsIndexed()
+    {
+        assertIndexMatchesFullScan();
+        Topic second = topics.get(1);
+
+        TopicLine existingGroup = line(second, "late grouped note");
+        TopicLine newGroup = line(second, "brand new group");
+        second.addLineToGroup(existingGroup, "group");
+        second.addLineToGroup(newGroup, "other");
+
+        assertIndexMatchesFullScan();
+        assertSame(existingGroup, SearchService.search(topics, index, "late grouped").get(0).getTopicLine());
+        assertSame(newGroup, SearchService.search(topics, index, "brand new").get(0).getTopicLine());
+    }
+
+    @Test
+    public void editedNoteIsReindexed()
+    {
+        assertIndexMatchesFullScan();
+        TopicLine line = topics.get(0).getUngroupedLines().get(0);
+
+        line.setNote("completely different text");
+
+        assertIndexMatchesFullScan();
+        assertSame(line, SearchService.search(topics, index, "different").get(0).getTopicLine());
+    }
+
+    @Test
+    public void removedLinesAreDropped()
+    {
+        assertIndexMatchesFullScan();
+        Topic first = topics.get(0);
+        Topic second = topics.get(1);
+
+        first.removeLine(first.getUngroupedLines().get(0));
+        second.removeLine(second.getGroups().get(0).getLines().get(0));
+
+        assertIndexMatchesFullScan();
+    }
+
+    @Test
+    public void addedAndRemovedTopicsFollowTheList()
+    {
+        assertIndexMatchesFullScan();
+        Topic third = topic("third");
+        third.addLine(line(third, "parser for the third topic"));
+        topics.add(third);
+        index.addTopic(third);
+
+        assertIndexMatchesFullScan();
+
+        Topic first = topics.remove(0);
+        index.removeTopic(first);
+
+        assertIndexMatchesFullScan();
+    }
+
+    @Test
+    public void invalidatedIndexRebuildsFromTheList()
+    {
+        assertIndexMatchesFullScan();
+        Topic first = topics.get(0);
+        // Not reported to the index, invalidate() catches it up
+        first.getUngroupedLines().add(line(first, "silently added parser"));
+        index.invalidate();
+
+        assertIndexMatchesFullScan();
+    }
+
+    @Test
+    public void snapshotOlderThanInvalidateIsScanned()
+    {
+        NoteSnapshot stale = NoteSnapshot.of(topics, index);
+        Topic first = topics.get(0);
+        first.getUngroupedLines().add(line(first, "silently added parser"));
+        index.invalidate();
+
+        // The stale snapshot can't build the index, it is scanned and sees the old notes only
+        assertEquals(SearchService.search(NoteSnapshot.of(topics, null), "silently").size(),
+            SearchService.search(stale, "silently").size() + 1);
+        assertIndexMatchesFullScan();
+    }
+
+    @Test
+    public void unchangedNotesReuseTheSnapshot()
+    {
+        NoteSnapshot first = index.snapshot(topics);
+        assertSame(first, index.snapshot(topics));
+        assertNotSame(first, index.snapshot(new ArrayList<>(topics)));
+
+        TopicLine line = topics.get(0).getUngroupedLines().get(0);
+        line.setNote("edited parser note");
+        NoteSnapshot edited = index.snapshot(topics);
+        assertNotSame(first, edited);
+        assertSame(edited, index.snapshot(topics));
+        assertIndexMatchesFullScan();
+    }
+
+    @Test
+    public void reorderingAndRegroupingTakeANewSnapshot()
+    {
+        assertIndexMatchesFullScan();
+        Topic first = topics.get(0);
+        Topic second = topics.get(1);
+
+        NoteSnapshot before = index.snapshot(topics);
+        first.changeLineOrder(first.getUngroupedLines().get(0), first.getUngroupedLines().size() - 1);
+        NoteSnapshot reordered = index.snapshot(topics);
+        assertNotSame(before, reordered);
+        assertIndexMatchesFullScan();
+
+        second.moveLineToUngrouped(second.getGroups().get(0).getLines().get(0));
+        assertNotSame(reordered, index.snapshot(topics));
+        assertIndexMatchesFullScan();
+
+        NoteSnapshot regrouped = index.snapshot(topics);
+        index.structureChanged();
+        assertNotSame(regrouped, index.snapshot(topics));
+    }
+
+    @Test
+    public void editsDuringASearchDontWaitForIt() throws Exception
+    {
+        assertIndexMatchesFullScan();
+        TopicLine line = topics.get(0).getUngroupedLines().get(0);
+
+        Thread editor = new Thread(() -> line.setNote("edited while searching"));
+        synchronized (index) {
+            // A searcher holds the index, the edit is only queued
+            editor.start();
+            editor.join(5000);
+            assertFalse(editor.isAlive());
+        }
+
+        assertIndexMatchesFullScan();
+        assertSame(line, SearchService.search(topics, index, "edited while").get(0).getTopicLine());
+    }
+}